@@ -0,0 +1,275 @@
+/**
+ * mJAM code store
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+import java.util.Arrays;
+
+import mJAM.Machine.Op;
+import mJAM.Machine.Prim;
+import mJAM.Machine.Reg;
+
+/**
+ * The instructions of one program, as produced by code generation or read from an object file. Each compilation or
+ * run works on its own code store, so several programs can be compiled in one JVM at the same time.
+ */
+public final class CodeStore {
+
+   private static final int CB = Machine.CB;
+
+   // one array per instruction field, grown on demand up to maxCodeSize
+   public int[]             codeOp      = new int[1024], codeN = new int[1024], codeR = new int[1024], codeD = new int[1024];
+   public int               CT          = CB;
+
+   // maximum number of instructions
+   public int               maxCodeSize = Machine.maxCodeSize;
+
+   public void initCodeGen() {
+      CT = CB;
+   }
+
+   /**
+    * Places an instruction, with the given fields, into the next position in the code store
+    * 
+    * @param op - operation
+    * @param n - length
+    * @param r - register
+    * @param d - displacement
+    */
+   public void emit(Op op, int n, Reg r, Prim d) {
+      emit(op.ordinal(), n, r.ordinal(), d.ordinal());
+   }
+
+   /**
+    * emit operation with single literal argument d (n,r not used). These are
+    * operations like LOADL 44, PUSH 3, and CALLD 1
+    */
+   public void emit(Op op, int d) {
+      emit(op.ordinal(), 0, 0, d);
+   }
+
+   /**
+    * emit "call primitive operation" (operation built-in to mJAM). This
+    * generates CALL primitiveop[PB]
+    */
+   public void emit(Prim d) {
+      emit(Op.CALL.ordinal(), 0, Reg.PB.ordinal(), d.ordinal());
+   }
+
+   /**
+    * emit operations without arguments. These are operations like
+    * LOADI and STOREI
+    */
+   public void emit(Op op) {
+      emit(op, 0, 0, 0);
+   }
+
+   /**
+    * emit operation with register r and integer displacement. These are
+    * operations like JUMP 25[CB] and LOAD 6[LB]
+    */
+   public void emit(Op op, Reg r, int d) {
+      emit(op.ordinal(), 0, r.ordinal(), d);
+   }
+
+   /**
+    * emit operation with n field, and register r and integer displacement. These are
+    * operations like JUMPIF (1) 25[CB]. In the assembly code the value of n is shown
+    * in parens.
+    */
+   public void emit(Op op, int n, Reg r, int d) {
+      emit(op.ordinal(), n, r.ordinal(), d);
+   }
+
+   /**
+    * emit operation with integer n, r, d. These are operations
+    * like RETURN (1) 3 and HALT (4) 0. For RETURN the value
+    * of d is the number of caller args to pop off the callers
+    * stack and n is the number of values to return at caller stack
+    * top. n must be 0 or 1.
+    */
+   public void emit(Op op, int n, int r, int d) {
+      emit(op.ordinal(), n, r, d);
+   }
+
+   /**
+    * helper operation for emit using integer values
+    */
+   private void emit(int op, int n, int r, int d) {
+      if (n > 255) {
+         System.out.println("length of operand can't exceed 255 words");
+         n = 255; // to allow code generation to continue
+      }
+      if (CT >= maxCodeSize)
+         throw new IllegalStateException("mJAM: code segment capacity of " + maxCodeSize + " instructions exceeded");
+
+      ensureCodeCapacity(CT + 1);
+      setInstruction(CT, op, n, r, d);
+      CT = CT + 1;
+   }
+
+   /**
+    * Grows the code store arrays to hold at least size instructions
+    */
+   public void ensureCodeCapacity(int size) {
+      if (size <= codeOp.length)
+         return;
+      int newSize = (int) Math.min(Math.max((long) codeOp.length * 2, size), Integer.MAX_VALUE - 8);
+      codeOp = Arrays.copyOf(codeOp, newSize);
+      codeN = Arrays.copyOf(codeN, newSize);
+      codeR = Arrays.copyOf(codeR, newSize);
+      codeD = Arrays.copyOf(codeD, newSize);
+   }
+
+   /**
+    * Replaces the instruction at addr
+    */
+   public void setInstruction(int addr, int op, int n, int r, int d) {
+      codeOp[addr] = op;
+      codeN[addr] = n;
+      codeR[addr] = r;
+      codeD[addr] = d;
+   }
+
+   /**
+    * @return a copy of this code store
+    */
+   public CodeStore copy() {
+      CodeStore copy = new CodeStore();
+      copy.maxCodeSize = maxCodeSize;
+      copy.ensureCodeCapacity(CT);
+      System.arraycopy(codeOp, 0, copy.codeOp, 0, CT);
+      System.arraycopy(codeN, 0, copy.codeN, 0, CT);
+      System.arraycopy(codeR, 0, copy.codeR, 0, CT);
+      System.arraycopy(codeD, 0, copy.codeD, 0, CT);
+      copy.CT = CT;
+      return copy;
+   }
+
+   /**
+    * Points every call of the routine at oldAddr, and every code address of it loaded for a class object, at newAddr
+    * instead, as when a routine has been emitted again further on.
+    *
+    * @return the number of instructions changed
+    */
+   public int redirectCalls(int oldAddr, int newAddr) {
+      int changed = 0;
+      for (int addr = CB; addr < CT; addr++) {
+         int op = codeOp[addr];
+         if ((op == Op.CALL.ordinal() || op == Op.CALLI.ordinal() || op == Op.LOADA.ordinal()) && codeR[addr] == Reg.CB.ordinal()
+               && codeD[addr] == oldAddr) {
+            codeD[addr] = newAddr;
+            changed++;
+         }
+      }
+      return changed;
+   }
+
+   /**
+    * @return a copy of the instruction at addr
+    */
+   public Instruction instruction(int addr) {
+      return new Instruction(codeOp[addr], codeN[addr], codeR[addr], codeD[addr]);
+   }
+
+   /**
+    * @return address (relative to CB) of next instruction to be generated
+    */
+   public int nextInstrAddr() {
+      return CT;
+   }
+
+   /**
+    * Update the displacement component of the (JUMP or CALL) instruction at addr
+    * 
+    * @param addr
+    * @param displacement
+    */
+   public void patch(int addr, int displacement) {
+      if (addr < 0 || addr >= CT) {
+         System.out.println("patch:  address of instruction to be patched is out of range");
+         return;
+      }
+      if (displacement < 0 || displacement > CT) {
+         System.out.println("patch:  target address of patch is out of range");
+         return;
+      }
+      codeD[addr] = displacement;
+      return;
+   }
+
+   // CODE STORE REWRITING
+
+   /**
+    * @return true if the d field of the instruction at addr holds a code address, i.e. it is a CB or CP relative
+    *         jump, call or LOADA (class objects are built from method addresses loaded with LOADA d[CB])
+    */
+   boolean hasCodeOperand(int addr) {
+      if (codeR[addr] != Reg.CB.ordinal() && codeR[addr] != Reg.CP.ordinal())
+         return false;
+      switch (Machine.intToOp[codeOp[addr]]) {
+         case LOADA:
+         case CALL:
+         case CALLI:
+         case JUMP:
+         case JUMPIF:
+         case JUMPCMP:
+            return true;
+         default:
+            return false;
+      }
+   }
+
+   /**
+    * @return the code address referenced by the instruction at addr, or -1 if it has none within CB..CT
+    */
+   int codeOperand(int addr) {
+      if (!hasCodeOperand(addr))
+         return -1;
+      int target = codeD[addr] + (codeR[addr] == Reg.CP.ordinal() ? addr : CB);
+      return target >= CB && target <= CT ? target : -1;
+   }
+
+   /**
+    * @return for each address in CB..CT, whether some instruction may transfer control to it
+    */
+   public boolean[] branchTargets() {
+      boolean[] targets = new boolean[CT + 1];
+      for (int addr = CB; addr < CT; addr++) {
+         int target = codeOperand(addr);
+         if (target >= 0)
+            targets[target] = true;
+      }
+      return targets;
+   }
+
+   /**
+    * Removes the deleted instructions from the code store, relocating every code address. A reference to a deleted
+    * instruction is moved to the next instruction that is kept.
+    * 
+    * @param deleted - for each address in CB..CT-1, whether to remove the instruction
+    */
+   public void compact(boolean[] deleted) {
+      int[] newAddr = new int[CT + 1];
+      int next = CB;
+      for (int addr = CB; addr < CT; addr++) {
+         newAddr[addr] = next;
+         if (!deleted[addr])
+            next++;
+      }
+      newAddr[CT] = next;
+
+      for (int addr = CB; addr < CT; addr++) {
+         int target = codeOperand(addr);
+         if (target >= 0)
+            codeD[addr] = codeR[addr] == Reg.CP.ordinal() ? newAddr[target] - newAddr[addr] : newAddr[target];
+      }
+      for (int addr = CB; addr < CT; addr++) {
+         if (!deleted[addr])
+            setInstruction(newAddr[addr], codeOp[addr], codeN[addr], codeR[addr], codeD[addr]);
+      }
+      CT = next;
+   }
+}
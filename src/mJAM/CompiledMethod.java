@@ -0,0 +1,22 @@
+/**
+ * Interface of mJAM methods translated by the JIT
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+/**
+ * A method translated to JVM bytecode by {@link JitCompiler}. The generated classes are defined by their own class
+ * loader, so this interface and {@link JitRuntime} are public.
+ */
+public interface CompiledMethod {
+
+   /**
+    * Runs the method from the given code address, using and updating the registers of a run, until control leaves the
+    * compiled code. On return CP is the address of the next instruction for the interpreter.
+    * 
+    * @param m the state of the run
+    * @param entry an entry point of the method
+    */
+   void run(MachineState m, int entry);
+}
@@ -28,6 +28,7 @@ public class Disassembler {
    private FileWriter           asmOut;
    private boolean              error = false;
    private Map<Integer, String> addrToLabel;
+   private CodeStore            code = new CodeStore();
 
    public Disassembler(String objectFileName) {
       this.objectFileName = objectFileName;
@@ -180,6 +181,25 @@ public class Disassembler {
             writeN(instr.n);
             break;
 
+         case LOADLOP:
+            blankN();
+            writePrimitive(instr.n);
+            asmWrite(" ");
+            writeD(instr.d);
+            break;
+
+         case INCR:
+            writeN(instr.n);
+            writeD(instr.d);
+            writeR('[', instr.r, ']');
+            break;
+
+         case JUMPCMP:
+            blankN();
+            writePrimitive(instr.n);
+            asmWrite(targetLabel);
+            break;
+
          default:
             asmWrite("????  ");
             writeN(instr.n);
@@ -205,8 +225,8 @@ public class Disassembler {
 
       // collect all addresses that may be the target of a jump instruction
       SortedSet<Integer> targets = new TreeSet<Integer>();
-      for (int addr = Machine.CB; addr < Machine.CT; addr++) {
-         Instruction inst = Machine.code[addr];
+      for (int addr = Machine.CB; addr < code.CT; addr++) {
+         Instruction inst = code.instruction(addr);
          Machine.Op op = Machine.intToOp[inst.op];
          switch (op) {
             case CALL:
@@ -221,6 +241,7 @@ public class Disassembler {
                targets.add(inst.d);
                break;
             case JUMPIF:
+            case JUMPCMP:
                // a jump of any sort creates a branch target
                targets.add(inst.d);
                break;
@@ -238,7 +259,7 @@ public class Disassembler {
       }
 
       // disassemble each instruction
-      for (int addr = Machine.CB; addr < Machine.CT; addr++) {
+      for (int addr = Machine.CB; addr < code.CT; addr++) {
 
          // generate instruction address
          asmWrite(String.format("%3d  ", addr));
@@ -250,7 +271,7 @@ public class Disassembler {
             asmWrite("       ");
 
          // instruction
-         writeInstruction(Machine.code[addr]);
+         writeInstruction(code.instruction(addr));
 
          // newline
          asmWrite("\n");
@@ -292,7 +313,7 @@ public class Disassembler {
       ObjectFile objectFile = new ObjectFile(objectFileName);
 
       // read object file into code store
-      if (objectFile.read()) {
+      if (objectFile.read(code)) {
          System.out.println("Disassembler: unable to read object file" + objectFileName);
          return true;
       }
@@ -0,0 +1,208 @@
+/**
+ * Heap allocation and garbage collection for the mJAM interpreter
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+import java.util.Arrays;
+
+/**
+ * Allocates heap blocks for the interpreter and reclaims unreachable ones.
+ *
+ * Every heap block starts with a two word descriptor: a tag (the class object address of an instance, -2 for an array,
+ * FREE for a free block, RAW for storage from the alloc primitive) followed by the number of words that follow it. The
+ * blocks between HT and HB therefore form a walkable sequence.
+ *
+ * mJAM words are untagged, so the collector tells references from integers by checking every candidate word against the
+ * set of live block addresses built from that walk: a word is treated as a reference only if it points into an
+ * allocated block. Since an integer that happens to look like a reference can not be rewritten, blocks are never moved.
+ * Collection is mark-sweep: roots are OB and every word on the stack (the frames reachable through the LB chain and the
+ * class objects below them), unreachable blocks are coalesced into free blocks that later allocations reuse, and free
+ * space at the low end of the heap is handed back by raising HT.
+ */
+public class GarbageCollector {
+
+   // block tags, alongside the class object address of an instance and -2 for an array
+   static final int FREE = -3, RAW = -4;
+
+   static boolean   enabled = !"off".equalsIgnoreCase(System.getProperty("mJAM.gc"));
+
+   private final MachineState m;
+
+   // statistics
+   int                        collections;
+   long                       wordsReclaimed, totalPauseTime, maxPauseTime;
+   int                        maxHeapUsed;
+
+   // free blocks found by the last collection, in address order
+   private int[]              freeList  = new int[16];
+   private int                freeCount;
+
+   // block start addresses, in address order, built while marking
+   private int[]              blocks    = new int[16];
+   private int                blockCount;
+   private int[]              markStack = new int[16];
+
+   /**
+    * @param m the run whose heap is managed
+    */
+   GarbageCollector(MachineState m) {
+      this.m = m;
+   }
+
+   /**
+    * Allocates a block of size words, including its descriptor, collecting or growing the heap when needed.
+    *
+    * @param size the block size in words
+    * @return the address of the block, or -1 if size is less than a descriptor or the heap is exhausted (status is set)
+    */
+   int allocate(int size) {
+      // a negative array length or an overflowing size would corrupt the heap and the free list
+      if (size < 2) {
+         m.status = Interpreter.failedHeapRange;
+         return -1;
+      }
+      int addr = allocateFromFreeList(size);
+      if (addr >= 0)
+         return addr;
+
+      if (m.HT - size < m.heapBase && enabled) {
+         collect();
+         addr = allocateFromFreeList(size);
+         if (addr >= 0)
+            return addr;
+         // grow now if most of the heap survived, instead of collecting again on the next allocation
+         int used = m.HB - m.HT;
+         if (used > m.heap.length / 2 && m.heap.length < m.heapLimit)
+            m.growHeap(Math.max(used + size, m.heap.length * 2));
+      }
+
+      m.checkHeapSpace(size);
+      if (m.status != Interpreter.running)
+         return -1;
+      m.HT = m.HT - size;
+      maxHeapUsed = Math.max(maxHeapUsed, m.HB - m.HT);
+      return m.HT;
+   }
+
+   private int allocateFromFreeList(int size) {
+      for (int i = 0; i < freeCount; i++) {
+         int block = freeList[i];
+         int blockSize = m.load(block + 1) + 2;
+         if (blockSize == size) {
+            System.arraycopy(freeList, i + 1, freeList, i, freeCount - i - 1);
+            freeCount--;
+            return block;
+         }
+         if (blockSize >= size + 2) {
+            // keep the low part free and hand out the top of the block
+            m.store(block + 1, blockSize - size - 2);
+            return block + blockSize - size;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Reclaims all heap blocks that are not reachable from the stack or OB.
+    */
+   void collect() {
+      long startTime = System.nanoTime();
+      final int[] stack = m.data;
+      final int heapBase = m.heapBase;
+      final int ht = m.HT, hb = m.HB;
+
+      // find all blocks
+      blockCount = 0;
+      for (int addr = ht; addr < hb; addr += m.heap[addr - heapBase + 1] + 2) {
+         if (blockCount == blocks.length)
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+         blocks[blockCount++] = addr;
+      }
+
+      // mark from the roots
+      boolean[] marked = new boolean[blockCount];
+      int sp = 0;
+      sp = markCandidate(m.OB, marked, sp);
+      for (int addr = Interpreter.SB; addr < m.ST; addr++)
+         sp = markCandidate(stack[addr], marked, sp);
+      while (sp > 0) {
+         int block = blocks[markStack[--sp]];
+         int end = block + 2 + m.heap[block - heapBase + 1];
+         for (int addr = block + 2; addr < end; addr++)
+            sp = markCandidate(m.heap[addr - heapBase], marked, sp);
+      }
+
+      // sweep, coalescing neighbouring free blocks
+      long reclaimed = 0;
+      freeCount = 0;
+      int freeStart = -1;
+      for (int i = 0; i < blockCount; i++) {
+         int block = blocks[i];
+         int tag = m.heap[block - heapBase];
+         boolean free = tag == FREE || !marked[i];
+         if (free && tag != FREE)
+            reclaimed += m.heap[block - heapBase + 1] + 2;
+         if (free && freeStart < 0) {
+            freeStart = block;
+         }
+         else if (!free && freeStart >= 0) {
+            addFreeBlock(freeStart, block);
+            freeStart = -1;
+         }
+      }
+      if (freeStart >= 0)
+         addFreeBlock(freeStart, hb);
+
+      // return free space at the bottom of the heap
+      if (freeCount > 0 && freeList[0] == ht) {
+         m.HT = ht + m.heap[ht - heapBase + 1] + 2;
+         freeCount--;
+         System.arraycopy(freeList, 1, freeList, 0, freeCount);
+      }
+
+      long pause = System.nanoTime() - startTime;
+      collections++;
+      wordsReclaimed += reclaimed;
+      totalPauseTime += pause;
+      maxPauseTime = Math.max(maxPauseTime, pause);
+   }
+
+   private void addFreeBlock(int start, int end) {
+      m.store(start, FREE);
+      m.store(start + 1, end - start - 2);
+      if (freeCount == freeList.length)
+         freeList = Arrays.copyOf(freeList, freeCount * 2);
+      freeList[freeCount++] = start;
+   }
+
+   /**
+    * Marks the block that word points into, if any, and queues it for scanning.
+    *
+    * @return the new mark stack depth
+    */
+   private int markCandidate(int word, boolean[] marked, int sp) {
+      if (word < m.HT + 2 || word > m.HB)
+         return sp;
+      int i = Arrays.binarySearch(blocks, 0, blockCount, word - 2);
+      if (i < 0) {
+         // not the address of a block, but it may point into the fields of the block below it
+         i = -i - 2;
+         if (i < 0 || word >= blocks[i] + 2 + m.heap[blocks[i] - m.heapBase + 1])
+            return sp;
+      }
+      if (marked[i] || m.heap[blocks[i] - m.heapBase] == FREE)
+         return sp;
+      marked[i] = true;
+      if (sp == markStack.length)
+         markStack = Arrays.copyOf(markStack, sp * 2);
+      markStack[sp] = i;
+      return sp + 1;
+   }
+
+   void showStatistics() {
+      System.out.println("GC: " + collections + " collections, " + wordsReclaimed + " words reclaimed, " + (totalPauseTime / 1000000) + " ms total pause, "
+            + (maxPauseTime / 1000) + " us max pause, " + maxHeapUsed + " words max heap, " + m.heap.length + " words heap capacity");
+   }
+}
@@ -0,0 +1,84 @@
+/**
+ * Inline caches for dynamic method dispatch in the mJAM interpreter
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+/**
+ * Remembers, for every CALLD instruction, the method addresses it dispatched to for the last few class objects seen at
+ * that call site. A hit saves the method index check and the load of the method address from the class object.
+ *
+ * A call site starts out empty, becomes monomorphic with its first class object and polymorphic with up to WAYS of
+ * them; a site that sees more class objects than that is megamorphic and is no longer cached. Class objects are built
+ * once below the program's frames and never updated, so cached entries stay valid for the whole run.
+ */
+public class InlineCache {
+
+   static final int WAYS    = 4;
+
+   static boolean   enabled = !"off".equalsIgnoreCase(System.getProperty("mJAM.inlineCache"));
+
+   // statistics
+   long             hits, misses;
+   int              megamorphicSites;
+
+   // class object and method addresses cached for call site addr in entries addr * WAYS .. addr * WAYS + WAYS - 1
+   private final int[] classes, targets;
+   // number of entries in use at each call site, or -1 for a megamorphic site
+   private final int[] used;
+   private final int   ct;
+
+   /**
+    * Creates empty caches for the call sites of a program of ct instructions.
+    */
+   InlineCache(int ct) {
+      this.ct = ct;
+      classes = new int[ct * WAYS];
+      targets = new int[ct * WAYS];
+      used = new int[ct];
+   }
+
+   /**
+    * @return the method address cached at call site for the class object at classDescAddr, or -1 if there is none
+    */
+   int lookup(int site, int classDescAddr) {
+      if (!enabled)
+         return -1;
+      int entry = site * WAYS;
+      for (int i = 0; i < used[site]; i++, entry++) {
+         if (classes[entry] == classDescAddr) {
+            hits++;
+            return targets[entry];
+         }
+      }
+      misses++;
+      return -1;
+   }
+
+   /**
+    * Records that call site dispatched to target for the class object at classDescAddr.
+    */
+   void update(int site, int classDescAddr, int target) {
+      if (!enabled || target < Machine.CB || target >= ct)
+         return;
+      int count = used[site];
+      if (count == WAYS) {
+         // megamorphic: stop caching at this site
+         used[site] = -1;
+         megamorphicSites++;
+         return;
+      }
+      if (count < 0)
+         return;
+      classes[site * WAYS + count] = classDescAddr;
+      targets[site * WAYS + count] = target;
+      used[site] = count + 1;
+   }
+
+   void showStatistics() {
+      long calls = hits + misses;
+      System.out.println("Inline caches: " + hits + " hits, " + misses + " misses" + (calls > 0 ? " (" + (hits * 100 / calls) + "% hit rate)" : "")
+            + ", " + megamorphicSites + " megamorphic call sites");
+   }
+}
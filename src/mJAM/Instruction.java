@@ -26,7 +26,7 @@ public class Instruction {
    // assumed:
    //
    // type
-   // OpCode = 0..15; {4 bits unsigned}
+   // OpCode = 0..18; {5 bits unsigned}
    // Register = 0..15; (4 bits unsigned)
    // Length = 0..255; {8 bits unsigned}
    // Operand = -2147483648 .. +2147483647; (32 bits signed for use with LOADL)
@@ -13,6 +13,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Scanner;
 
 // import mJAM.Machine.Reg;
@@ -20,113 +21,88 @@ import java.util.Scanner;
 public class Interpreter {
 
    // DATA STORE
-   static int[] data = new int[1024];
+   // The registers and the data store of a run are held in its MachineState; the sizes here are the limits
+   // given to each run started afterwards.
+   final static int INITIAL_SEGMENT_SIZE = 1024;
 
-   // DATA STORE REGISTERS AND OTHER REGISTERS
-   final static int CB = 0, SB = 0, HB = 1024; // = upper bound of data array + 1
+   static int       stackLimit     = Machine.sizeProperty("mJAM.stackLimit", 1 << 20);
+   static int       heapLimit      = Machine.sizeProperty("mJAM.heapLimit", 1 << 22);
 
-   static int       CT, CP, ST, HT, LB, OB, status, temp;
+   // DATA STORE REGISTERS
+   final static int CB             = 0, SB = 0;
 
    // machine status values
    final static int running = 0, halted = 1, failedDataStoreFull = 2, failedInvalidCodeAddress = 3, failedInvalidInstruction = 4, failedOverflow = 5,
-         failedZeroDivide = 6, failedIOError = 7, failedArrayIndex = 8, failedNullRef = 9, failedHeapRef = 10, failedMethodIndex = 11;
-
-   static long      accumulator;
-
-   // Debugger state
-   enum DebuggerStatus {
-      PAUSED,
-      RUNNING
+         failedZeroDivide = 6, failedIOError = 7, failedArrayIndex = 8, failedNullRef = 9, failedHeapRef = 10, failedMethodIndex = 11,
+         failedHeapRange = 12;
+
+   // Run the arithmetic, comparison and logical primitives on int operands directly (see callArithmetic),
+   // rather than through callPrimitive and the long accumulator
+   static boolean   fastArithmetic = !"legacy".equalsIgnoreCase(System.getProperty("mJAM.arithmetic"));
+
+   // Execution engine
+   enum Engine {
+      SWITCH, // decode and dispatch one Instruction at a time
+      THREADED, // run pre-decoded threaded code (see ThreadedInterpreter)
+      JIT // interpret, compiling hot methods to JVM bytecode (see JitCompiler)
    }
 
-   static DebuggerStatus     debuggerStatus = DebuggerStatus.PAUSED;
-   static ArrayList<Integer> breakpoints    = new ArrayList<Integer>();
-   static ArrayList<String>  sourceLines;
-
-   static int content(int r) {
-      // Returns the current content of register r,
-      Machine.Reg reg = Machine.intToReg[r];
-      switch (reg) {
-         case CB:
-            return CB;
-         case CT:
-            return CT;
-         case PB:
-            return Machine.PB;
-         case PT:
-            return Machine.PT;
-         case SB:
-            return SB;
-         case ST:
-            return ST;
-         case HB:
-            return HB;
-         case HT:
-            return HT;
-         case LB:
-            return LB;
-         case OB:
-            return OB;
-         case CP:
-            return CP;
-         default:
-            return 0;
-      }
-   }
+   static Engine    engine         = Engine.SWITCH;
+   static boolean   showStatistics = false;
 
    // PROGRAM STATUS
 
-   static void dump() {
+   static void dump(MachineState m) {
       // Writes a summary of the machine state.
       int addr, dynamicLink;
       System.out.println("");
-      System.out.println("At instruction " + CP + ", state of mJAM data store and registers is:");
+      System.out.println("At instruction " + m.CP + ", state of mJAM data store and registers is:");
       System.out.println("");
-      if (HT == HB)
+      if (m.HT == m.HB)
          System.out.println("            |--------|          (heap is empty)");
       else {
          System.out.println("      HB--> ");
          System.out.println("            |--------|");
-         for (addr = HB - 1; addr >= HT; addr--) {
+         for (addr = m.HB - 1; addr >= m.HT; addr--) {
             System.out.print(rightPad(6, addr + ":"));
-            if (addr == OB)
+            if (addr == m.OB)
                System.out.print("OB--> ");
-            else if (addr == HT)
+            else if (addr == m.HT)
                System.out.print("HT--> ");
             else
                System.out.print("      ");
-            System.out.println("|" + leftPad(8, String.valueOf(data[addr])) + "|");
+            System.out.println("|" + leftPad(8, String.valueOf(m.load(addr))) + "|");
          }
          System.out.println("            |--------|");
       }
       System.out.println("            |////////|");
       System.out.println("            |////////|");
-      if (ST == SB)
+      if (m.ST == SB)
          System.out.println("            |--------|          (stack is empty)");
       else {
-         dynamicLink = LB;
+         dynamicLink = m.LB;
          System.out.println("      ST--> |////////|");
          System.out.println("            |--------|");
-         for (addr = ST - 1; addr >= SB; addr--) {
+         for (addr = m.ST - 1; addr >= SB; addr--) {
             System.out.print(rightPad(6, addr + ": "));
             if (addr == SB)
                System.out.print("SB--> ");
-            else if (addr == LB)
+            else if (addr == m.LB)
                System.out.print("LB--> ");
             else
                System.out.print("      ");
             if ((addr == dynamicLink) && (dynamicLink != SB))
-               System.out.print("|OB=" + leftPad(5, String.valueOf(data[addr])) + "|");
+               System.out.print("|OB=" + leftPad(5, String.valueOf(m.data[addr])) + "|");
             else if ((addr == dynamicLink + 1) && (dynamicLink != SB))
-               System.out.print("|DL=" + leftPad(5, String.valueOf(data[addr])) + "|");
+               System.out.print("|DL=" + leftPad(5, String.valueOf(m.data[addr])) + "|");
             else if ((addr == dynamicLink + 2) && (dynamicLink != SB))
-               System.out.print("|RA=" + leftPad(5, String.valueOf(data[addr])) + "|");
+               System.out.print("|RA=" + leftPad(5, String.valueOf(m.data[addr])) + "|");
             else
-               System.out.print("|" + leftPad(8, String.valueOf(data[addr])) + "|");
+               System.out.print("|" + leftPad(8, String.valueOf(m.data[addr])) + "|");
             System.out.println("");
             if (addr == dynamicLink) {
                System.out.println("            |--------|");
-               dynamicLink = data[addr + 1];
+               dynamicLink = m.data[addr + 1];
             }
          }
       }
@@ -146,11 +122,11 @@ public class Interpreter {
       return r.substring(0, aLen);
    }
 
-   static void showStatus() {
+   static void showStatus(MachineState m) {
       // Writes an indication of whether and why the program has terminated.
       System.out.println("");
       System.out.print("*** ");
-      switch (status) {
+      switch (m.status) {
          case running:
             System.out.println("Program is running.");
             break;
@@ -187,83 +163,122 @@ public class Interpreter {
          case failedMethodIndex:
             System.out.println("Program has failed due to an improper method index in CALLD.");
             break;
+         case failedHeapRange:
+            System.out.println("Program has failed due to a heap allocation of invalid size.");
+            break;
          default:
             System.out.println("Machine is in an unknown state.");
             break;
       }
-      if (status != halted)
-         dump();
+      if (m.status != halted)
+         dump(m);
    }
 
    // INTERPRETATION
 
-   static void checkSpace(int spaceNeeded) {
-      // Signals failure if there is not enough space to expand the stack or
-      // heap by spaceNeeded.
-      if (HT - ST < spaceNeeded)
-         status = failedDataStoreFull;
-   }
-
-   static boolean invalidHeapRef(int addr) {
-      // if addr is null ptr or outside of heap bounds, sets status to failure
-      if (addr == Machine.nullRep)
-         status = failedNullRef;
-      else if (addr < HT + 2 || addr >= HB)
-         status = failedHeapRef;
-      return (status != running);
-   }
-
    static boolean isTrue(int datum) {
       // Tests whether the given datum represents true.
       return (datum == Machine.trueRep);
    }
 
-   static int overflowChecked(long datum) {
-      // Signals failure if the datum is too large to fit into a single word,
-      // otherwise returns the datum as a single word.
-      if ((Machine.minintRep <= datum) && (datum <= Machine.maxintRep))
-         return (int) datum;
-      else {
-         status = failedOverflow;
-         return 0;
-      }
-   }
-
    static int toInt(boolean b) {
       return b ? Machine.trueRep : Machine.falseRep;
    }
 
-   static int currentChar;
-
-   static int readInt() throws java.io.IOException {
-      int temp = 0;
-      int sign = 1;
+   // Invoke primitive operation with argument(s) on the stack, using the fast
+   // path for arithmetic if it is enabled.
+   static void executePrimitive(MachineState m, int id) {
+      if (!fastArithmetic || !callArithmetic(m, id))
+         callPrimitive(m, id);
+   }
 
-      do {
-         currentChar = System.in.read();
+   // Fast path for the arithmetic, comparison and logical primitives: the operands are
+   // used as ints, and overflow of + and - is detected from the sign bits instead of
+   // by widening to long. Returns false, doing nothing, for any other primitive.
+   static boolean callArithmetic(MachineState m, int id) {
+      int x;
+      switch (Machine.intToPrim[id]) {
+         case not:
+            m.data[m.ST - 1] = toInt(!isTrue(m.data[m.ST - 1]));
+            return true;
+         case and:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(isTrue(m.data[m.ST - 1]) & isTrue(m.data[m.ST]));
+            return true;
+         case or:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(isTrue(m.data[m.ST - 1]) | isTrue(m.data[m.ST]));
+            return true;
+         case succ:
+            x = m.data[m.ST - 1];
+            m.data[m.ST - 1] = x == Integer.MAX_VALUE ? m.overflow() : x + 1;
+            return true;
+         case pred:
+            x = m.data[m.ST - 1];
+            m.data[m.ST - 1] = x == Integer.MIN_VALUE ? m.overflow() : x - 1;
+            return true;
+         case neg:
+            x = m.data[m.ST - 1];
+            m.data[m.ST - 1] = x == Integer.MIN_VALUE ? m.overflow() : -x;
+            return true;
+         case add:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = m.addChecked(m.data[m.ST - 1], m.data[m.ST]);
+            return true;
+         case sub:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = m.subChecked(m.data[m.ST - 1], m.data[m.ST]);
+            return true;
+         case mult:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = m.multChecked(m.data[m.ST - 1], m.data[m.ST]);
+            return true;
+         case div:
+            m.ST = m.ST - 1;
+            if (m.data[m.ST] != 0)
+               m.data[m.ST - 1] = m.data[m.ST - 1] / m.data[m.ST];
+            else
+               m.status = failedZeroDivide;
+            return true;
+         case mod:
+            m.ST = m.ST - 1;
+            if (m.data[m.ST] != 0)
+               m.data[m.ST - 1] = m.data[m.ST - 1] % m.data[m.ST];
+            else
+               m.status = failedZeroDivide;
+            return true;
+         case lt:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] < m.data[m.ST]);
+            return true;
+         case le:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] <= m.data[m.ST]);
+            return true;
+         case ge:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] >= m.data[m.ST]);
+            return true;
+         case gt:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] > m.data[m.ST]);
+            return true;
+         case eq:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] == m.data[m.ST]);
+            return true;
+         case ne:
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] != m.data[m.ST]);
+            return true;
+         default:
+            return false;
       }
-      while (Character.isWhitespace((char) currentChar));
-
-      if ((currentChar == '-') || (currentChar == '+'))
-         do {
-            sign = (currentChar == '-') ? -1 : 1;
-            currentChar = System.in.read();
-         }
-         while ((currentChar == '-') || currentChar == '+');
-
-      if (Character.isDigit((char) currentChar))
-         do {
-            temp = temp * 10 + (currentChar - '0');
-            currentChar = System.in.read();
-         }
-         while (Character.isDigit((char) currentChar));
-
-      return sign * temp;
    }
 
    // Invoke primitive operation with argument(s) on the stack
    // primitives are static and are not supplied an instance on the stack.
-   static void callPrimitive(int id) {
+   static void callPrimitive(MachineState m, int id) {
 
       int addr, size, index;
       char ch;
@@ -273,440 +288,521 @@ public class Interpreter {
          case id:
             break; // nothing to be done
          case not:
-            data[ST - 1] = toInt(!isTrue(data[ST - 1]));
+            m.data[m.ST - 1] = toInt(!isTrue(m.data[m.ST - 1]));
             break;
          case and:
-            ST = ST - 1;
-            data[ST - 1] = toInt(isTrue(data[ST - 1]) & isTrue(data[ST]));
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(isTrue(m.data[m.ST - 1]) & isTrue(m.data[m.ST]));
             break;
          case or:
-            ST = ST - 1;
-            data[ST - 1] = toInt(isTrue(data[ST - 1]) | isTrue(data[ST]));
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(isTrue(m.data[m.ST - 1]) | isTrue(m.data[m.ST]));
             break;
          case succ:
-            data[ST - 1] = overflowChecked(data[ST - 1] + 1);
+            m.accumulator = m.data[m.ST - 1];
+            m.data[m.ST - 1] = m.overflowChecked(m.accumulator + 1);
             break;
          case pred:
-            data[ST - 1] = overflowChecked(data[ST - 1] - 1);
+            m.accumulator = m.data[m.ST - 1];
+            m.data[m.ST - 1] = m.overflowChecked(m.accumulator - 1);
             break;
          case neg:
-            data[ST - 1] = overflowChecked(-data[ST - 1]);
+            m.accumulator = m.data[m.ST - 1];
+            m.data[m.ST - 1] = m.overflowChecked(-m.accumulator);
             break;
          case add:
-            ST = ST - 1;
-            accumulator = data[ST - 1];
-            data[ST - 1] = overflowChecked(accumulator + data[ST]);
+            m.ST = m.ST - 1;
+            m.accumulator = m.data[m.ST - 1];
+            m.data[m.ST - 1] = m.overflowChecked(m.accumulator + m.data[m.ST]);
             break;
          case sub:
-            ST = ST - 1;
-            accumulator = data[ST - 1];
-            data[ST - 1] = overflowChecked(accumulator - data[ST]);
+            m.ST = m.ST - 1;
+            m.accumulator = m.data[m.ST - 1];
+            m.data[m.ST - 1] = m.overflowChecked(m.accumulator - m.data[m.ST]);
             break;
          case mult:
-            ST = ST - 1;
-            accumulator = data[ST - 1];
-            data[ST - 1] = overflowChecked(accumulator * data[ST]);
+            m.ST = m.ST - 1;
+            m.accumulator = m.data[m.ST - 1];
+            m.data[m.ST - 1] = m.overflowChecked(m.accumulator * m.data[m.ST]);
             break;
          case div:
-            ST = ST - 1;
-            accumulator = data[ST - 1];
-            if (data[ST] != 0)
-               data[ST - 1] = (int) (accumulator / data[ST]);
+            m.ST = m.ST - 1;
+            m.accumulator = m.data[m.ST - 1];
+            if (m.data[m.ST] != 0)
+               m.data[m.ST - 1] = (int) (m.accumulator / m.data[m.ST]);
             else
-               status = failedZeroDivide;
+               m.status = failedZeroDivide;
             break;
          case mod:
-            ST = ST - 1;
-            accumulator = data[ST - 1];
-            if (data[ST] != 0)
-               data[ST - 1] = (int) (accumulator % data[ST]);
+            m.ST = m.ST - 1;
+            m.accumulator = m.data[m.ST - 1];
+            if (m.data[m.ST] != 0)
+               m.data[m.ST - 1] = (int) (m.accumulator % m.data[m.ST]);
             else
-               status = failedZeroDivide;
+               m.status = failedZeroDivide;
             break;
          case lt:
-            ST = ST - 1;
-            data[ST - 1] = toInt(data[ST - 1] < data[ST]);
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] < m.data[m.ST]);
             break;
          case le:
-            ST = ST - 1;
-            data[ST - 1] = toInt(data[ST - 1] <= data[ST]);
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] <= m.data[m.ST]);
             break;
          case ge:
-            ST = ST - 1;
-            data[ST - 1] = toInt(data[ST - 1] >= data[ST]);
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] >= m.data[m.ST]);
             break;
          case gt:
-            ST = ST - 1;
-            data[ST - 1] = toInt(data[ST - 1] > data[ST]);
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] > m.data[m.ST]);
             break;
          case eq:
-            ST = ST - 1;
-            data[ST - 1] = toInt(data[ST - 1] == data[ST]);
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] == m.data[m.ST]);
             break;
          case ne:
-            ST = ST - 1;
-            data[ST - 1] = toInt(data[ST - 1] != data[ST]);
+            m.ST = m.ST - 1;
+            m.data[m.ST - 1] = toInt(m.data[m.ST - 1] != m.data[m.ST]);
             break;
          case eol:
-            data[ST] = toInt(currentChar == '\n');
-            ST = ST + 1;
+            m.checkSpace(1);
+            if (m.status != running)
+               break;
+            m.data[m.ST] = toInt(m.currentChar == '\n');
+            m.ST = m.ST + 1;
             break;
          case eof:
-            data[ST] = toInt(currentChar == -1);
-            ST = ST + 1;
+            m.checkSpace(1);
+            if (m.status != running)
+               break;
+            m.data[m.ST] = toInt(m.currentChar == -1);
+            m.ST = m.ST + 1;
             break;
          case get:
-            ST = ST - 1;
-            addr = data[ST];
+            m.ST = m.ST - 1;
+            addr = m.data[m.ST];
             try {
-               currentChar = System.in.read();
+               m.currentChar = System.in.read();
             }
             catch (java.io.IOException s) {
-               status = failedIOError;
+               m.status = failedIOError;
             }
-            data[addr] = (int) currentChar;
+            m.store(addr, m.currentChar);
             break;
          case put:
-            ST = ST - 1;
-            ch = (char) data[ST];
+            m.ST = m.ST - 1;
+            ch = (char) m.data[m.ST];
             System.out.print(ch);
             break;
          case geteol:
             try {
-               while ((currentChar = System.in.read()) != '\n')
+               while ((m.currentChar = System.in.read()) != '\n')
                   ;
             }
             catch (java.io.IOException s) {
-               status = failedIOError;
+               m.status = failedIOError;
             }
             break;
          case puteol:
             System.out.println("");
             break;
          case getint:
-            ST = ST - 1;
-            addr = data[ST];
+            m.ST = m.ST - 1;
+            addr = m.data[m.ST];
             try {
-               accumulator = readInt();
+               m.accumulator = m.readInt();
             }
             catch (java.io.IOException s) {
-               status = failedIOError;
+               m.status = failedIOError;
             }
-            data[addr] = (int) accumulator;
+            m.store(addr, (int) m.accumulator);
             break;
          case putint:
-            ST = ST - 1;
-            accumulator = data[ST];
-            System.out.print(accumulator);
+            m.ST = m.ST - 1;
+            m.accumulator = m.data[m.ST];
+            System.out.print(m.accumulator);
             break;
          // output with prefix for tester
          case putintnl:
-            ST = ST - 1;
-            accumulator = data[ST];
-            System.out.print(">>> " + accumulator + "\n");
+            m.ST = m.ST - 1;
+            m.accumulator = m.data[m.ST];
+            System.out.print(">>> " + m.accumulator + "\n");
             break;
          case alloc:
-            size = data[ST - 1];
-            checkSpace(size);
-            HT = HT - size;
-            data[ST - 1] = HT;
+            size = m.data[m.ST - 1];
+            addr = m.gc.allocate(size + 2);
+            if (addr < 0)
+               break;
+            m.store(addr, GarbageCollector.RAW); // tag for unstructured storage
+            m.store(addr + 1, size);
+            m.data[m.ST - 1] = addr + 2;
             break;
          case dispose:
-            ST = ST - 1; // no action taken at present
+            m.ST = m.ST - 1; // no action taken at present
             break;
          case newobj:
             // ..., class obj addr, number of fields ==> ..., new obj addr
-            size = data[ST - 1] + 2; // number of fields + 2 word descriptor
-            checkSpace(size);
-            HT = HT - size; // reserve space
-            data[HT] = data[ST - 2]; // set class object addr
-            data[HT + 1] = size - 2; // set size of object
-            data[ST - 2] = HT + 2; // addr of new object instance, returned on stack
-            ST = ST - 1; // net effect of pop 2 args, push 1 result
+            size = m.data[m.ST - 1] + 2; // number of fields + 2 word descriptor
+            addr = m.gc.allocate(size); // reserve space
+            if (addr < 0)
+               break;
+            m.store(addr, m.data[m.ST - 2]); // set class object addr
+            m.store(addr + 1, size - 2); // set size of object
+            m.data[m.ST - 2] = addr + 2; // addr of new object instance, returned on stack
+            m.ST = m.ST - 1; // net effect of pop 2 args, push 1 result
             for (int i = 2; i < size; i++) {
-               data[HT + i] = 0; // zero all fields of new object
+               m.store(addr + i, 0); // zero all fields of new object
             }
             break;
          case newarr:
             // ..., number of elements ==> ..., new int[] addr
-            size = data[ST - 1] + 2; // array + 2 word descriptor
-            checkSpace(size);
-            HT = HT - size;
-            data[HT] = -2; // tag for array
-            data[HT + 1] = size - 2; // size of array
-            data[ST - 1] = HT + 2; // addr of array instance, returned on stack
+            size = m.data[m.ST - 1] + 2; // array + 2 word descriptor
+            addr = m.gc.allocate(size);
+            if (addr < 0)
+               break;
+            m.store(addr, -2); // tag for array
+            m.store(addr + 1, size - 2); // size of array
+            m.data[m.ST - 1] = addr + 2; // addr of array instance, returned on stack
             for (int i = 2; i < size; i++) {
-               data[HT + i] = 0; // zero all elements of new array
+               m.store(addr + i, 0); // zero all elements of new array
             }
             break;
          case arrayref:
             // ..., array addr a, element index i ==> ..., a[i]
-            addr = data[ST - 2];
-            if (invalidHeapRef(addr))
+            addr = m.data[m.ST - 2];
+            if (m.invalidHeapRef(addr))
                break;
-            index = data[ST - 1];
-            if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
-               status = failedArrayIndex;
+            index = m.data[m.ST - 1];
+            if (m.load(addr - 2) != -2 || index < 0 || index >= m.load(addr - 1)) {
+               m.status = failedArrayIndex;
                break;
             }
-            data[ST - 2] = data[addr + index]; // result element, returned on stack
-            ST = ST - 1; // pop two args, return one result
+            m.data[m.ST - 2] = m.load(addr + index); // result element, returned on stack
+            m.ST = m.ST - 1; // pop two args, return one result
             break;
          case arrayupd:
             // ..., array addr a, element index i, new value v ==> ...
             // and a[i] := v
-            addr = data[ST - 3];
-            if (invalidHeapRef(addr))
+            addr = m.data[m.ST - 3];
+            if (m.invalidHeapRef(addr))
                break;
-            index = data[ST - 2];
-            if (data[addr - 2] != -2 || index < 0 || index >= data[addr - 1]) {
-               status = failedArrayIndex;
+            index = m.data[m.ST - 2];
+            if (m.load(addr - 2) != -2 || index < 0 || index >= m.load(addr - 1)) {
+               m.status = failedArrayIndex;
                break;
             }
-            data[addr + index] = data[ST - 1]; // update array element
-            ST = ST - 3; // pop 3 args, return no result
+            m.store(addr + index, m.data[m.ST - 1]); // update array element
+            m.ST = m.ST - 3; // pop 3 args, return no result
             break;
          case fieldref:
             // ..., obj addr a, field index i ==> ..., value of ith field of a
-            addr = data[ST - 2];
-            if (invalidHeapRef(addr))
+            addr = m.data[m.ST - 2];
+            if (m.invalidHeapRef(addr))
                break;
-            index = data[ST - 1];
-            if (index < 0 || index >= data[addr - 1]) {
-               status = failedArrayIndex;
+            index = m.data[m.ST - 1];
+            if (index < 0 || index >= m.load(addr - 1)) {
+               m.status = failedArrayIndex;
                break;
             }
-            data[ST - 2] = data[addr + index]; // field to stack top
-            ST = ST - 1; // pop two args, return one result
+            m.data[m.ST - 2] = m.load(addr + index); // field to stack top
+            m.ST = m.ST - 1; // pop two args, return one result
             break;
          case fieldupd:
             // ..., obj addr a, field index i, new value v ==> ...
             // and a.i := v
-            addr = data[ST - 3];
-            if (invalidHeapRef(addr))
+            addr = m.data[m.ST - 3];
+            if (m.invalidHeapRef(addr))
                break;
-            index = data[ST - 2];
-            if (index < 0 || index >= data[addr - 1]) {
-               status = failedArrayIndex;
+            index = m.data[m.ST - 2];
+            if (index < 0 || index >= m.load(addr - 1)) {
+               m.status = failedArrayIndex;
                break;
             }
-            data[addr + index] = data[ST - 1]; // update field to new value
-            ST = ST - 3; // pop 3 args, return no result
+            m.store(addr + index, m.data[m.ST - 1]); // update field to new value
+            m.ST = m.ST - 3; // pop 3 args, return no result
             break;
       }
    }
 
-   static void interpretOneOperation() {
-      // Fetch instruction ...
-      Instruction currentInstr = Machine.code[CP];
-      // Decode instruction ...
-      int op = currentInstr.op;
-      int r = currentInstr.r;
-      int n = currentInstr.n;
-      int d = currentInstr.d;
-      int addr;
+   static void interpretOneOperation(MachineState m) {
+      // Fetch and decode instruction ...
+      int op = m.code.codeOp[m.CP];
+      int r = m.code.codeR[m.CP];
+      int n = m.code.codeN[m.CP];
+      int d = m.code.codeD[m.CP];
+      int addr, sum;
       // Execute instruction ...
 
       Machine.Op operation = Machine.intToOp[op];
 
       switch (operation) {
          case LOAD:
-            addr = d + content(r);
-            checkSpace(1);
-            data[ST] = data[addr];
-            ST = ST + 1;
-            CP = CP + 1;
+            addr = d + m.content(r);
+            m.checkSpace(1);
+            if (m.status != running)
+               break;
+            m.data[m.ST] = m.load(addr);
+            m.ST = m.ST + 1;
+            m.CP = m.CP + 1;
             break;
          case LOADA:
-            addr = d + content(r);
-            checkSpace(1);
-            data[ST] = addr;
-            ST = ST + 1;
-            CP = CP + 1;
+            addr = d + m.content(r);
+            m.checkSpace(1);
+            if (m.status != running)
+               break;
+            m.data[m.ST] = addr;
+            m.ST = m.ST + 1;
+            m.CP = m.CP + 1;
             break;
          case LOADI:
-            ST = ST - 1;
-            addr = data[ST];
-            checkSpace(1);
-            data[ST] = data[addr];
-            ST = ST + 1;
-            CP = CP + 1;
+            m.ST = m.ST - 1;
+            addr = m.data[m.ST];
+            m.data[m.ST] = m.load(addr);
+            m.ST = m.ST + 1;
+            m.CP = m.CP + 1;
             break;
          case LOADL:
-            checkSpace(1);
-            data[ST] = d;
-            ST = ST + 1;
-            CP = CP + 1;
+            m.checkSpace(1);
+            if (m.status != running)
+               break;
+            m.data[m.ST] = d;
+            m.ST = m.ST + 1;
+            m.CP = m.CP + 1;
             break;
          case STORE:
-            addr = d + content(r);
-            ST = ST - 1;
-            data[addr] = data[ST];
-            CP = CP + 1;
+            addr = d + m.content(r);
+            m.ST = m.ST - 1;
+            m.store(addr, m.data[m.ST]);
+            m.CP = m.CP + 1;
             break;
          case STOREI:
-            ST = ST - 1;
-            addr = data[ST];
-            ST = ST - 1;
-            data[addr] = data[ST];
-            CP = CP + 1;
+            m.ST = m.ST - 1;
+            addr = m.data[m.ST];
+            m.ST = m.ST - 1;
+            m.store(addr, m.data[m.ST]);
+            m.CP = m.CP + 1;
             break;
 
          case CALL:
             // call static method, including primitives
             // arguments are on stack
-            addr = d + content(r); // effective address
+            if (r == Machine.Reg.PB.ordinal() && fastArithmetic && callArithmetic(m, d)) {
+               // primitive arithmetic, skipping the address calculation
+               m.CP = m.CP + 1;
+               break;
+            }
+            addr = d + m.content(r); // effective address
             if (addr >= Machine.PB) {
-               callPrimitive(addr - Machine.PB);
-               CP = CP + 1;
+               callPrimitive(m, addr - Machine.PB);
+               m.CP = m.CP + 1;
             }
             else {
                // static method in code segment, no instance addr on stack
-               checkSpace(3);
-               data[ST] = OB; // save caller OB in callee frame
-               data[ST + 1] = LB; // save caller LB in callee frame (dynamic link)
-               data[ST + 2] = CP + 1; // save caller return address in callee frame
-               OB = Machine.nullRep; // set callee OB (null since no instance)
-               LB = ST; // set LB = start of callee frame
-               ST = ST + 3; // set ST = end of callee frame
-               CP = addr; // execution resumes at addr specified in CALL inst
+               m.checkSpace(3);
+               if (m.status != running)
+                  break;
+               m.data[m.ST] = m.OB; // save caller OB in callee frame
+               m.data[m.ST + 1] = m.LB; // save caller LB in callee frame (dynamic link)
+               m.data[m.ST + 2] = m.CP + 1; // save caller return address in callee frame
+               m.OB = Machine.nullRep; // set callee OB (null since no instance)
+               m.LB = m.ST; // set LB = start of callee frame
+               m.ST = m.ST + 3; // set ST = end of callee frame
+               m.CP = addr; // execution resumes at addr specified in CALL inst
             }
             break;
 
          case CALLI:
             // call instance method
             // arguments on stack, followed by instance address
-            addr = d + content(r); // effective address
-            if (addr >= Machine.CT) {
+            addr = d + m.content(r); // effective address
+            if (addr >= m.code.CT) {
                // no instance methods outside of code segment
-               status = failedInvalidInstruction;
+               m.status = failedInvalidInstruction;
                break;
             }
             // instance address is last arg on stack and is overwritten by frame
-            checkSpace(2);
-            temp = data[ST - 1]; // save instance address temporarily
-            data[ST - 1] = OB; // save caller OB in callee frame
-            data[ST] = LB; // save caller LB in callee frame (dynamic link)
-            data[ST + 1] = CP + 1; // save caller return address in callee frame
-            OB = temp; // set OB for callee
-            LB = ST - 1; // set LB = start of callee frame
-            ST = ST + 2; // set ST = end of callee frame
-            CP = addr; // execution resumes at addr specified in CALL inst
+            m.checkSpace(2);
+            if (m.status != running)
+               break;
+            m.temp = m.data[m.ST - 1]; // save instance address temporarily
+            m.data[m.ST - 1] = m.OB; // save caller OB in callee frame
+            m.data[m.ST] = m.LB; // save caller LB in callee frame (dynamic link)
+            m.data[m.ST + 1] = m.CP + 1; // save caller return address in callee frame
+            m.OB = m.temp; // set OB for callee
+            m.LB = m.ST - 1; // set LB = start of callee frame
+            m.ST = m.ST + 2; // set ST = end of callee frame
+            m.CP = addr; // execution resumes at addr specified in CALL inst
             break;
 
          case RETURN:
             // d = number of method args (does not include instance addr for CALLI)
             // n = size of result (0 or 1)
             if (n < 0 || n > 1) {
-               status = failedInvalidInstruction;
+               m.status = failedInvalidInstruction;
                break;
             }
-            addr = LB - d; // addr of caller args
-            OB = data[LB]; // restore caller OB, LB, CP
-            CP = data[LB + 2];
-            LB = data[LB + 1];
+            addr = m.LB - d; // addr of caller args
+            m.OB = m.data[m.LB]; // restore caller OB, LB, CP
+            m.CP = m.data[m.LB + 2];
+            m.LB = m.data[m.LB + 1];
             if (n == 1)
-               data[addr] = data[ST - 1]; // return value if any
-            ST = addr + n; // caller stack top
+               m.data[addr] = m.data[m.ST - 1]; // return value if any
+            m.ST = addr + n; // caller stack top
             break;
 
          case CALLD:
          // dynamic method dispatch of method with index d (origin 0)
          // arguments on stack, followed by instance addr
          {
-            addr = data[ST - 1]; // instance addr
-            if (invalidHeapRef(addr))
-               break;
-            int classDescAddr = data[addr - 2];
-            if (classDescAddr >= ST || classDescAddr <= SB || d >= data[classDescAddr + 1] || d < 0) {
-               status = failedMethodIndex;
+            addr = m.data[m.ST - 1]; // instance addr
+            if (m.invalidHeapRef(addr))
                break;
+            int classDescAddr = m.load(addr - 2);
+            int target = m.inlineCache.lookup(m.CP, classDescAddr);
+            if (target < 0) {
+               if (classDescAddr >= m.ST || classDescAddr <= SB || d >= m.data[classDescAddr + 1] || d < 0) {
+                  m.status = failedMethodIndex;
+                  break;
+               }
+               target = m.data[classDescAddr + 2 + n];
+               m.inlineCache.update(m.CP, classDescAddr, target);
             }
-            ST = ST - 1;
-            checkSpace(3);
-            data[ST] = OB;
-            data[ST + 1] = LB;
-            data[ST + 2] = CP + 1;
-            OB = addr;
-            LB = ST;
-            ST = ST + 3;
-            CP = data[classDescAddr + 2 + n];
+            m.checkSpace(2);
+            if (m.status != running)
+               break;
+            m.ST = m.ST - 1;
+            m.data[m.ST] = m.OB;
+            m.data[m.ST + 1] = m.LB;
+            m.data[m.ST + 2] = m.CP + 1;
+            m.OB = addr;
+            m.LB = m.ST;
+            m.ST = m.ST + 3;
+            m.CP = target;
          }
             break;
          case PUSH: // push d elements on stack
-            checkSpace(d);
-            ST = ST + d;
-            CP = CP + 1;
+            m.checkSpace(d);
+            if (m.status != running)
+               break;
+            m.ST = m.ST + d;
+            m.CP = m.CP + 1;
             break;
          case POP: // pop d elements off stack
-            ST = ST - d;
-            CP = CP + 1;
+            m.ST = m.ST - d;
+            m.CP = m.CP + 1;
             break;
          case JUMP:
-            CP = d + content(r);
+            m.CP = d + m.content(r);
             break;
          case JUMPI:
-            ST = ST - 1;
-            CP = data[ST];
+            m.ST = m.ST - 1;
+            m.CP = m.data[m.ST];
             break;
          case JUMPIF:
-            ST = ST - 1;
-            if (data[ST] == n)
-               CP = d + content(r);
+            m.ST = m.ST - 1;
+            if (m.data[m.ST] == n)
+               m.CP = d + m.content(r);
             else
-               CP = CP + 1;
+               m.CP = m.CP + 1;
             break;
          case HALT:
             if (n > 0) {
                // halt n > 0 --> snapshot machine state and continue execution
-               dump();
-               CP = CP + 1;
+               dump(m);
+               m.CP = m.CP + 1;
             }
             else
-               status = halted;
+               m.status = halted;
             break;
-      }
 
-      if ((CP < CB) || (CP >= CT))
-         status = failedInvalidCodeAddress;
-
-      if (breakpoints.indexOf(CP) != -1) {
-         debuggerStatus = DebuggerStatus.PAUSED;
-         System.out.println("Breakpoint hit: " + sourceLines.get(CP));
+         case LOADLOP: // LOADL d; CALL n[PB]
+            m.checkSpace(1);
+            if (m.status != running)
+               break;
+            m.data[m.ST] = d;
+            m.ST = m.ST + 1;
+            executePrimitive(m, n);
+            m.CP = m.CP + 1;
+            break;
+         case INCR: // LOAD d[r]; LOADL n; CALL add[PB]; STORE d[r]
+            addr = d + m.content(r);
+            sum = m.addChecked(m.load(addr), n);
+            // on overflow memory is left as the unfused sequence leaves it, without the STORE
+            if (m.status != running)
+               break;
+            m.store(addr, sum);
+            m.CP = m.CP + 1;
+            break;
+         case JUMPCMP: // CALL n[PB]; JUMPIF (1) d[r]
+            executePrimitive(m, n);
+            m.ST = m.ST - 1;
+            if (m.data[m.ST] == Machine.trueRep)
+               m.CP = d + m.content(r);
+            else
+               m.CP = m.CP + 1;
+            break;
       }
-   }
 
-   static void initMachine() {
-      // Initialize registers ...
-      ST = SB;
-      HT = HB;
-      LB = SB;
-      CP = CB;
-      OB = -1; // invalid instance addr
-      CT = Machine.CT;
-      status = running;
+      if ((m.CP < CB) || (m.CP >= m.CT))
+         m.status = failedInvalidCodeAddress;
    }
 
-   static void interpretProgram() {
-      // Runs the program in code store.
-      initMachine();
-      do {
-         interpretOneOperation();
+   static boolean debugOneOperation(MachineState m, BitSet breakpoints, ArrayList<String> sourceLines) {
+      // Executes one instruction, returning true if it leads to a breakpoint.
+      interpretOneOperation(m);
+      if (m.CP >= 0 && breakpoints.get(m.CP)) {
+         System.out.println("Breakpoint hit: " + sourceLines.get(m.CP));
+         return true;
       }
-      while (status == running);
+      return false;
    }
 
-   static void runProgramFromStart() {
-      initMachine();
-      continueProgram();
+   static void interpretProgram(MachineState m) {
+      // Runs the program from the start of its code store.
+      long startTime = System.nanoTime();
+      if (engine == Engine.THREADED) {
+         ThreadedInterpreter.run(m);
+      }
+      else if (engine == Engine.JIT) {
+         m.jit = new JitCompiler(m);
+         m.jit.run();
+      }
+      else {
+         long count = 0;
+         do {
+            interpretOneOperation(m);
+            count++;
+         }
+         while (m.status == running);
+         m.instructionCount += count;
+      }
+      long elapsed = System.nanoTime() - startTime;
+
+      if (showStatistics) {
+         System.out.println("");
+         if (engine == Engine.JIT) {
+            // compiled code does not count the instructions it runs, so there is no rate to give
+            System.out.println("Engine: jit, " + m.instructionCount + " instructions interpreted, " + (elapsed / 1000000) + " ms");
+            m.jit.showStatistics();
+         }
+         else {
+            long perSecond = elapsed > 0 ? (long) (m.instructionCount * 1e9 / elapsed) : 0;
+            System.out.println("Engine: " + engine.toString().toLowerCase() + ", " + m.instructionCount + " instructions in " + (elapsed / 1000000)
+                  + " ms (" + perSecond + " instructions/sec)");
+         }
+         m.inlineCache.showStatistics();
+         m.gc.showStatistics();
+      }
    }
 
-   static void continueProgram() {
-      debuggerStatus = DebuggerStatus.RUNNING;
+   static void continueProgram(MachineState m, BitSet breakpoints, ArrayList<String> sourceLines) {
+      // Runs until the program stops or reaches a breakpoint.
+      boolean paused;
       do {
-         interpretOneOperation();
+         paused = debugOneOperation(m, breakpoints, sourceLines);
       }
-      while (status == running && debuggerStatus == DebuggerStatus.RUNNING);
+      while (m.status == running && !paused);
    }
 
    static void printHelp() {
@@ -723,8 +819,9 @@ public class Interpreter {
       }
    }
 
-   static void debugProgram() {
-      initMachine();
+   static void debugProgram(CodeStore program, ArrayList<String> sourceLines) {
+      MachineState m = new MachineState(program);
+      BitSet breakpoints = new BitSet(); // indexed by code address
 
       BufferedReader inputReader = new BufferedReader(new InputStreamReader(System.in));
 
@@ -752,7 +849,7 @@ public class Interpreter {
             printHelp();
          }
          else if (command.equalsIgnoreCase("p") || command.equalsIgnoreCase("print")) {
-            dump();
+            dump(m);
          }
          else if (command.equalsIgnoreCase("l") || command.equalsIgnoreCase("list")) {
             int offset = 0, size = 2;
@@ -761,22 +858,26 @@ public class Interpreter {
             if (scanner.hasNextInt())
                size = scanner.nextInt();
 
-            for (int i = CP + offset - size; i <= CP + offset + size; ++i) {
+            for (int i = m.CP + offset - size; i <= m.CP + offset + size; ++i) {
                if (i >= 0 && i < sourceLines.size())
-                  System.out.println((i == CP ? " >" : "  ") + sourceLines.get(i));
+                  System.out.println((i == m.CP ? " >" : "  ") + sourceLines.get(i));
             }
          }
          else if (command.equalsIgnoreCase("b") || command.equalsIgnoreCase("break")) {
-            int addr = scanner.hasNextInt() ? scanner.nextInt() : CP;
-            if (!breakpoints.contains(addr))
-               breakpoints.add(addr);
-            System.out.println("Added breakpoint at " + sourceLines.get(addr));
+            int addr = scanner.hasNextInt() ? scanner.nextInt() : m.CP;
+            if (addr < 0 || addr >= sourceLines.size()) {
+               System.out.println("No instruction at " + addr);
+            }
+            else {
+               breakpoints.set(addr);
+               System.out.println("Added breakpoint at " + sourceLines.get(addr));
+            }
          }
          else if (command.equalsIgnoreCase("del")) {
             while (scanner.hasNextInt()) {
-               int addr = scanner.nextInt(), idx = breakpoints.indexOf(addr);
-               if (idx != -1) {
-                  breakpoints.remove(idx);
+               int addr = scanner.nextInt();
+               if (addr >= 0 && breakpoints.get(addr)) {
+                  breakpoints.clear(addr);
                }
                else {
                   System.out.println("No breakpoint at " + addr);
@@ -784,22 +885,23 @@ public class Interpreter {
             }
          }
          else if (command.equalsIgnoreCase("n") || command.equalsIgnoreCase("next")) {
-            if (status == running) {
-               interpretOneOperation();
+            if (m.status == running) {
+               debugOneOperation(m, breakpoints, sourceLines);
             }
             else {
                System.out.println("Program is not running");
             }
          }
          else if (command.equalsIgnoreCase("c") || command.equalsIgnoreCase("continue")) {
-            continueProgram();
+            continueProgram(m, breakpoints, sourceLines);
          }
          else if (command.equalsIgnoreCase("r") || command.equalsIgnoreCase("run")) {
-            runProgramFromStart();
+            m = new MachineState(program);
+            continueProgram(m, breakpoints, sourceLines);
          }
          else if (command.equalsIgnoreCase("i") || command.equalsIgnoreCase("info")) {
             System.out.println("Breakpoints:");
-            for (int b : breakpoints) {
+            for (int b = breakpoints.nextSetBit(0); b >= 0; b = breakpoints.nextSetBit(b + 1)) {
                System.out.println("\t" + sourceLines.get(b));
             }
          }
@@ -819,15 +921,49 @@ public class Interpreter {
    public static void main(String[] args) {
       System.out.println("********** mJAM Interpreter (Version 1.2) **********");
 
+      // options may appear anywhere, e.g. -engine=threaded -stats -heap=8m
+      ArrayList<String> fileNames = new ArrayList<String>();
+      try {
+         String engineName = System.getProperty("mJAM.engine");
+         if (engineName != null)
+            engine = parseEngine(engineName);
+         for (String arg : args) {
+            if (arg.startsWith("-engine="))
+               engine = parseEngine(arg.substring("-engine=".length()));
+            else if (arg.equals("-stats"))
+               showStatistics = true;
+            else if (arg.startsWith("-stack="))
+               stackLimit = Machine.parseSize(arg.substring("-stack=".length()));
+            else if (arg.startsWith("-heap="))
+               heapLimit = Machine.parseSize(arg.substring("-heap=".length()));
+            else if (arg.startsWith("-code="))
+               Machine.maxCodeSize = Math.min(Machine.parseSize(arg.substring("-code=".length())), Machine.PB - Machine.CB);
+            else if (arg.equals("-gc=off"))
+               GarbageCollector.enabled = false;
+            else if (arg.equals("-inlineCache=off"))
+               InlineCache.enabled = false;
+            else if (arg.startsWith("-jitThreshold="))
+               JitCompiler.threshold = Machine.parseSize(arg.substring("-jitThreshold=".length()));
+            else if (arg.startsWith("-arithmetic="))
+               fastArithmetic = parseArithmetic(arg.substring("-arithmetic=".length()));
+            else
+               fileNames.add(arg);
+         }
+      }
+      catch (IllegalArgumentException e) {
+         System.out.println("Invalid option: " + e.getMessage());
+         return;
+      }
+
       String objectFileName;
-      if (args.length >= 1)
-         objectFileName = args[0];
+      if (fileNames.size() >= 1)
+         objectFileName = fileNames.get(0);
       else
          objectFileName = "obj.mJAM";
 
       String sourceFileName;
-      if (args.length >= 2) {
-         sourceFileName = args[1];
+      if (fileNames.size() >= 2) {
+         sourceFileName = fileNames.get(1);
          debug(objectFileName, sourceFileName);
       }
       else {
@@ -835,25 +971,51 @@ public class Interpreter {
       }
    }
 
+   static Engine parseEngine(String name) {
+      for (Engine e : Engine.values()) {
+         if (e.toString().equalsIgnoreCase(name))
+            return e;
+      }
+      throw new IllegalArgumentException("unknown engine '" + name + "', expected 'switch', 'threaded' or 'jit'");
+   }
+
+   static boolean parseArithmetic(String mode) {
+      if (mode.equalsIgnoreCase("fast"))
+         return true;
+      if (mode.equalsIgnoreCase("legacy"))
+         return false;
+      throw new IllegalArgumentException("unknown arithmetic mode '" + mode + "', expected 'fast' or 'legacy'");
+   }
+
    public static void interpret(String objectFileName) {
 
+      CodeStore program = new CodeStore();
       ObjectFile objectFile = new ObjectFile(objectFileName);
-      if (objectFile.read()) {
+      if (objectFile.read(program)) {
          System.out.println("Unable to load object file " + objectFileName);
          return;
       }
-      interpretProgram();
-      showStatus();
+      interpret(program);
+   }
+
+   /**
+    * Runs program on a machine state of its own, so runs on different threads do not interfere.
+    */
+   public static void interpret(CodeStore program) {
+      MachineState m = new MachineState(program);
+      interpretProgram(m);
+      showStatus(m);
    }
 
    public static void debug(String objectFileName, String sourceFileName) {
+      CodeStore program = new CodeStore();
       ObjectFile objectFile = new ObjectFile(objectFileName);
-      if (objectFile.read()) {
+      if (objectFile.read(program)) {
          System.out.println("Unable to load object file " + objectFileName);
          return;
       }
 
-      sourceLines = new ArrayList<String>();
+      ArrayList<String> sourceLines = new ArrayList<String>();
       try {
          BufferedReader reader = new BufferedReader(new FileReader(new File(sourceFileName)));
          String line = reader.readLine();
@@ -872,6 +1034,6 @@ public class Interpreter {
          return;
       }
 
-      debugProgram();
+      debugProgram(program, sourceLines);
    }
 }
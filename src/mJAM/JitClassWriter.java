@@ -0,0 +1,306 @@
+/**
+ * Minimal JVM class file writer for the mJAM JIT
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assembles a class with a default constructor and a single public method implementing an interface. The class file
+ * version is 49, which predates StackMapTable, so the JVM verifies the generated code by type inference and the writer
+ * does not have to compute stack map frames. Branch offsets are 16 bits, so the method code must stay under 32k.
+ */
+class JitClassWriter {
+
+   // JVM opcodes used by the JIT
+   static final int ICONST_0 = 3, BIPUSH = 16, SIPUSH = 17, LDC = 18, LDC_W = 19, ILOAD = 21, LLOAD = 22, ALOAD = 25, IALOAD = 46, ISTORE = 54,
+         LSTORE = 55, ASTORE = 58, IASTORE = 79, IADD = 96, ISUB = 100, IMUL = 104, LMUL = 105, IDIV = 108, IREM = 112, INEG = 116, IAND = 126,
+         IOR = 128, IXOR = 130, IINC = 132, I2L = 133, L2I = 136, LCMP = 148, IFEQ = 153, IFNE = 154, IFLT = 155, IF_ICMPEQ = 159,
+         IF_ICMPNE = 160, IF_ICMPLT = 161, IF_ICMPGE = 162, IF_ICMPGT = 163, IF_ICMPLE = 164, GOTO = 167, LOOKUPSWITCH = 171, RETURN = 177,
+         ARRAYLENGTH = 190, INVOKESPECIAL = 183, INVOKESTATIC = 184, WIDE = 196;
+
+   static final int MAX_CODE_LENGTH = 32767;
+
+   static class Label {
+      int position = -1;
+   }
+
+   // a branch offset to fill in once its label is placed
+   private static class Fixup {
+      int   instruction, offset;
+      boolean wide;
+      Label label;
+   }
+
+   private final String               className, interfaceName;
+
+   private ByteArrayOutputStream      pool      = new ByteArrayOutputStream();
+   private DataOutputStream           poolOut   = new DataOutputStream(pool);
+   private int                        poolCount = 1;
+   private Map<String, Integer>       poolIndex = new HashMap<String, Integer>();
+
+   private byte[]                     code      = new byte[256];
+   private int                        length;
+   private ArrayList<Fixup>           fixups    = new ArrayList<Fixup>();
+
+   JitClassWriter(String className, String interfaceName) {
+      this.className = className;
+      this.interfaceName = interfaceName;
+   }
+
+   // CONSTANT POOL
+
+   private int constant(String key, int tag, int a, int b, String utf8) {
+      Integer index = poolIndex.get(key);
+      if (index != null)
+         return index;
+      try {
+         poolOut.writeByte(tag);
+         if (utf8 != null)
+            poolOut.writeUTF(utf8);
+         else if (tag == 3)
+            poolOut.writeInt(a);
+         else {
+            poolOut.writeShort(a);
+            if (tag != 7)
+               poolOut.writeShort(b);
+         }
+      }
+      catch (IOException e) {
+         throw new IllegalStateException(e);
+      }
+      poolIndex.put(key, poolCount);
+      return poolCount++;
+   }
+
+   private int utf8(String s) {
+      return constant("U" + s, 1, 0, 0, s);
+   }
+
+   private int classRef(String name) {
+      return constant("C" + name, 7, utf8(name), 0, null);
+   }
+
+   private int methodRef(String owner, String name, String descriptor) {
+      int nameAndType = constant("N" + name + descriptor, 12, utf8(name), utf8(descriptor), null);
+      return constant("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType, null);
+   }
+
+   // CODE
+
+   int length() {
+      return length;
+   }
+
+   private void put(int b) {
+      if (length == code.length) {
+         byte[] larger = new byte[code.length * 2];
+         System.arraycopy(code, 0, larger, 0, length);
+         code = larger;
+      }
+      code[length++] = (byte) b;
+   }
+
+   private void put2(int s) {
+      put(s >> 8);
+      put(s);
+   }
+
+   private void put4(int i) {
+      put2(i >> 16);
+      put2(i);
+   }
+
+   void op(int opcode) {
+      put(opcode);
+   }
+
+   void loadInt(int value) {
+      if (value >= -1 && value <= 5)
+         put(ICONST_0 + value);
+      else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+         put(BIPUSH);
+         put(value);
+      }
+      else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+         put(SIPUSH);
+         put2(value);
+      }
+      else {
+         int index = constant("I" + value, 3, value, 0, null);
+         if (index < 256) {
+            put(LDC);
+            put(index);
+         }
+         else {
+            put(LDC_W);
+            put2(index);
+         }
+      }
+   }
+
+   void local(int opcode, int local) {
+      if (local > 255) {
+         put(WIDE);
+         put(opcode);
+         put2(local);
+      }
+      else {
+         put(opcode);
+         put(local);
+      }
+   }
+
+   void iinc(int local, int delta) {
+      if (delta == 0)
+         return;
+      if (local > 255 || delta < Byte.MIN_VALUE || delta > Byte.MAX_VALUE) {
+         put(WIDE);
+         put(IINC);
+         put2(local);
+         put2(delta);
+      }
+      else {
+         put(IINC);
+         put(local);
+         put(delta);
+      }
+   }
+
+   void invokeStatic(String owner, String name, String descriptor) {
+      put(INVOKESTATIC);
+      put2(methodRef(owner, name, descriptor));
+   }
+
+   void mark(Label label) {
+      label.position = length;
+   }
+
+   /**
+    * Emits a goto or a conditional branch to label.
+    */
+   void jump(int opcode, Label label) {
+      Fixup fixup = new Fixup();
+      fixup.instruction = length;
+      put(opcode);
+      fixup.offset = length;
+      fixup.label = label;
+      put2(0);
+      fixups.add(fixup);
+   }
+
+   void lookupSwitch(Label defaultLabel, int[] keys, Label[] labels) {
+      int instruction = length;
+      put(LOOKUPSWITCH);
+      while (length % 4 != 0)
+         put(0);
+      switchOffset(instruction, defaultLabel);
+      put4(keys.length);
+      for (int i = 0; i < keys.length; i++) {
+         put4(keys[i]);
+         switchOffset(instruction, labels[i]);
+      }
+   }
+
+   private void switchOffset(int instruction, Label label) {
+      Fixup fixup = new Fixup();
+      fixup.instruction = instruction;
+      fixup.offset = length;
+      fixup.label = label;
+      fixup.wide = true;
+      put4(0);
+      fixups.add(fixup);
+   }
+
+   // CLASS FILE
+
+   /**
+    * @return the class file, with the code emitted so far as the body of the given method, or null if the code is too
+    *         long
+    */
+   byte[] toClassFile(String methodName, String descriptor, int maxStack, int maxLocals) {
+      if (length > MAX_CODE_LENGTH)
+         return null;
+      for (Fixup fixup : fixups) {
+         int offset = fixup.label.position - fixup.instruction;
+         if (fixup.wide) {
+            code[fixup.offset] = (byte) (offset >> 24);
+            code[fixup.offset + 1] = (byte) (offset >> 16);
+            code[fixup.offset + 2] = (byte) (offset >> 8);
+            code[fixup.offset + 3] = (byte) offset;
+         }
+         else {
+            code[fixup.offset] = (byte) (offset >> 8);
+            code[fixup.offset + 1] = (byte) offset;
+         }
+      }
+
+      int thisClass = classRef(className);
+      int superClass = classRef("java/lang/Object");
+      int superInit = methodRef("java/lang/Object", "<init>", "()V");
+      int implemented = classRef(interfaceName);
+      int codeName = utf8("Code");
+      int initName = utf8("<init>"), initDescriptor = utf8("()V");
+      int name = utf8(methodName), type = utf8(descriptor);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      try {
+         out.writeInt(0xCAFEBABE);
+         out.writeShort(0);
+         out.writeShort(49);
+         out.writeShort(poolCount);
+         pool.writeTo(out);
+         out.writeShort(0x0031); // public final super
+         out.writeShort(thisClass);
+         out.writeShort(superClass);
+         out.writeShort(1);
+         out.writeShort(implemented);
+         out.writeShort(0); // fields
+         out.writeShort(2); // methods
+
+         // public <init>() { super(); }
+         out.writeShort(0x0001);
+         out.writeShort(initName);
+         out.writeShort(initDescriptor);
+         out.writeShort(1);
+         out.writeShort(codeName);
+         out.writeInt(12 + 5);
+         out.writeShort(1);
+         out.writeShort(1);
+         out.writeInt(5);
+         out.writeByte(ALOAD + 17); // aload_0
+         out.writeByte(INVOKESPECIAL);
+         out.writeShort(superInit);
+         out.writeByte(RETURN);
+         out.writeShort(0);
+         out.writeShort(0);
+
+         out.writeShort(0x0001);
+         out.writeShort(name);
+         out.writeShort(type);
+         out.writeShort(1);
+         out.writeShort(codeName);
+         out.writeInt(12 + length);
+         out.writeShort(maxStack);
+         out.writeShort(maxLocals);
+         out.writeInt(length);
+         out.write(code, 0, length);
+         out.writeShort(0);
+         out.writeShort(0);
+
+         out.writeShort(0); // class attributes
+      }
+      catch (IOException e) {
+         throw new IllegalStateException(e);
+      }
+      return bytes.toByteArray();
+   }
+}
@@ -0,0 +1,805 @@
+/**
+ * Baseline JIT compiler for mJAM methods
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+import java.util.Arrays;
+
+import mJAM.JitClassWriter.Label;
+import mJAM.Machine.Op;
+import mJAM.Machine.Prim;
+import mJAM.Machine.Reg;
+
+/**
+ * Tiered execution: the program starts in the switch interpreter, which counts invocations and backward jumps per
+ * method. Once a method reaches the threshold, every instruction reachable from its entry address is translated to
+ * the body of a JVM method, loaded through its own class loader and entered whenever the interpreter reaches one of its
+ * entry points (the method entry, branch targets and the instructions following calls).
+ *
+ * Compiled code works directly on the data store of the run it is given, with ST, LB and OB held in JVM locals, so frames are
+ * the same whether they were built by compiled or interpreted code. Calls, returns and the other instructions the
+ * translator does not handle leave the compiled code, as do instructions that would fail or need a larger stack: the
+ * compiled code then stops in the state before that instruction and the interpreter executes it, reporting the fault
+ * or growing the stack as usual.
+ */
+public class JitCompiler {
+
+   static int                      threshold = Machine.sizeProperty("mJAM.jitThreshold", 1000);
+
+   private final MachineState      m;
+
+   // statistics
+   int                             methodsCompiled, compileFailures, bytecodeSize;
+   long                            compiledEntries;
+
+   // method entry address owning each code address, or -1
+   private int[]                   owner;
+   private int[]                   counters;
+   private boolean[]               attempted;
+   private CompiledMethod[]        entryPoints;
+   private boolean[]               branchTargets;
+   private CodeStore               code;
+   private JitClassLoader          loader;
+
+   private static class JitClassLoader extends ClassLoader {
+
+      JitClassLoader() {
+         super(JitCompiler.class.getClassLoader());
+      }
+
+      Class<?> define(String name, byte[] classFile) {
+         return defineClass(name, classFile, 0, classFile.length);
+      }
+   }
+
+   /**
+    * Prepares to run the program of m, finding the methods that may be compiled.
+    */
+   JitCompiler(MachineState m) {
+      this.m = m;
+      int ct = m.CT;
+      code = m.code;
+      owner = new int[ct];
+      counters = new int[ct];
+      attempted = new boolean[ct];
+      entryPoints = new CompiledMethod[ct + 1];
+      loader = new JitClassLoader();
+
+      // method entries are the targets of calls and of the LOADAs that build class objects; each method owns the
+      // addresses reachable from its entry that no earlier method owns
+      branchTargets = code.branchTargets();
+      Arrays.fill(owner, -1);
+      int[] work = new int[ct];
+      for (int addr = Interpreter.CB; addr < ct; addr++) {
+         Op op = Machine.intToOp[code.codeOp[addr]];
+         int target = code.codeOperand(addr);
+         if ((op == Op.CALL || op == Op.CALLI || op == Op.LOADA) && target >= 0 && target < ct && owner[target] < 0) {
+            int pending = 0;
+            work[pending++] = target;
+            owner[target] = target;
+            while (pending > 0) {
+               int next = work[--pending];
+               int jump = branchTarget(next), following = fallsThrough(next) ? next + 1 : -1;
+               if (jump >= 0 && jump < ct && owner[jump] < 0) {
+                  owner[jump] = target;
+                  work[pending++] = jump;
+               }
+               if (following >= 0 && following < ct && owner[following] < 0) {
+                  owner[following] = target;
+                  work[pending++] = following;
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Runs the program in the code store from the current registers until the machine stops running.
+    */
+   void run() {
+      do {
+         int addr = m.CP;
+         CompiledMethod method = entryPoints[addr];
+         if (method != null) {
+            compiledEntries++;
+            method.run(m, addr);
+            // continue in compiled code, unless it stopped before its first instruction
+            if (m.status != Interpreter.running || m.CP != addr)
+               continue;
+         }
+         int op = code.codeOp[addr];
+         Interpreter.interpretOneOperation(m);
+         m.instructionCount++;
+         if (m.status == Interpreter.running)
+            profile(addr, op);
+      }
+      while (m.status == Interpreter.running);
+   }
+
+   /**
+    * Counts method invocations and backward jumps, compiling methods that become hot.
+    *
+    * @param addr the address of the instruction just interpreted
+    * @param op its operation
+    */
+   private void profile(int addr, int op) {
+      switch (Machine.intToOp[op]) {
+         case CALL:
+         case CALLI:
+         case CALLD:
+            if (m.CP != addr + 1 && m.CP < owner.length && owner[m.CP] == m.CP)
+               count(m.CP);
+            break;
+         case JUMP:
+         case JUMPIF:
+         case JUMPCMP:
+            if (m.CP <= addr)
+               count(owner[addr]);
+            break;
+         default:
+            break;
+      }
+   }
+
+   private void count(int method) {
+      if (method >= 0 && !attempted[method] && ++counters[method] >= threshold)
+         compile(method);
+   }
+
+   // lowest and highest address found by the last call of reachable
+   private int low, high;
+
+   /**
+    * @return the addresses reachable from entry without following calls
+    */
+   private boolean[] reachable(int entry) {
+      int ct = m.CT;
+      boolean[] body = new boolean[ct];
+      int[] work = new int[ct];
+      int pending = 0;
+      work[pending++] = entry;
+      body[entry] = true;
+      low = high = entry;
+      while (pending > 0) {
+         int addr = work[--pending];
+         low = Math.min(low, addr);
+         high = Math.max(high, addr);
+         int target = branchTarget(addr);
+         if (target >= 0 && target < ct && !body[target]) {
+            body[target] = true;
+            work[pending++] = target;
+         }
+         if (fallsThrough(addr) && addr + 1 < ct && !body[addr + 1]) {
+            body[addr + 1] = true;
+            work[pending++] = addr + 1;
+         }
+      }
+      return body;
+   }
+
+   /**
+    * @return the code address the jump at addr may continue at, or -1 if addr is not a jump with a known target
+    */
+   private int branchTarget(int addr) {
+      switch (Machine.intToOp[code.codeOp[addr]]) {
+         case JUMP:
+         case JUMPIF:
+         case JUMPCMP:
+            return code.codeOperand(addr);
+         default:
+            return -1;
+      }
+   }
+
+   /**
+    * @return true if control may continue at addr + 1 after the instruction at addr
+    */
+   private boolean fallsThrough(int addr) {
+      switch (Machine.intToOp[code.codeOp[addr]]) {
+         case JUMP:
+         case RETURN:
+         case JUMPI:
+            return false;
+         case HALT:
+            return code.codeN[addr] > 0;
+         default:
+            return true;
+      }
+   }
+
+   // TRANSLATION
+
+   // JVM locals of the generated method
+   private static final int   STATE = 1, ENTRY = 2, DATA = 3, ST = 4, LB = 5, OB = 6, X = 7, Y = 8, R = 9, P = 10, MAX_LOCALS = 12, MAX_STACK = 8;
+
+   private static final String RUNTIME = "mJAM/JitRuntime";
+
+   private JitClassWriter w;
+   private Label[]        labels;
+   private Label[]        exits;
+   private Label          exit;
+
+   private void compile(int entry) {
+      attempted[entry] = true;
+      boolean[] body = reachable(entry);
+      String className = "mJAM/jit/Method" + entry;
+      byte[] classFile = translate(entry, body, className);
+      CompiledMethod method = null;
+      if (classFile != null) {
+         try {
+            method = (CompiledMethod) loader.define(className.replace('/', '.'), classFile).getDeclaredConstructor().newInstance();
+         }
+         catch (Exception e) {
+            // fall back to the interpreter
+            method = null;
+         }
+         catch (LinkageError e) {
+            // e.g. rejected by the verifier
+            method = null;
+         }
+      }
+      if (method == null) {
+         compileFailures++;
+         return;
+      }
+      methodsCompiled++;
+      bytecodeSize += classFile.length;
+
+      // control may arrive from the interpreter at the entry, at branch targets and after instructions left to the
+      // interpreter (e.g. at the return address of a call)
+      for (int addr = low; addr <= high; addr++) {
+         boolean entryPoint = addr == entry || (!isExit(addr) && (branchTargets[addr] || (addr > Interpreter.CB && body[addr - 1] && isExit(addr - 1))));
+         if (body[addr] && entryPoint && entryPoints[addr] == null)
+            entryPoints[addr] = method;
+      }
+   }
+
+   /**
+    * @return true if the instruction at addr is always left to the interpreter
+    */
+   private boolean isExit(int addr) {
+      Instruction instr = code.instruction(addr);
+      Reg reg = instr.r >= 0 && instr.r < Machine.intToReg.length ? Machine.intToReg[instr.r] : Reg.ZR;
+      switch (Machine.intToOp[instr.op]) {
+         case LOAD:
+         case LOADA:
+         case STORE:
+         case INCR:
+            return reg == Reg.HT;
+         case LOADI:
+         case LOADL:
+         case STOREI:
+         case PUSH:
+         case POP:
+            return false;
+         case CALL:
+            return primitiveCalled(addr) < 0;
+         case LOADLOP:
+            return instr.n < 0 || instr.n >= Machine.intToPrim.length;
+         case JUMP:
+         case JUMPIF:
+            return code.codeOperand(addr) < 0;
+         case JUMPCMP:
+            return code.codeOperand(addr) < 0 || SuperinstructionFuser.inverse(primitiveOf(instr.n)) == null;
+         default:
+            return true;
+      }
+   }
+
+   /**
+    * @return the primitive called by the CALL at addr, or -1 if it calls a method
+    */
+   private int primitiveCalled(int addr) {
+      Instruction instr = code.instruction(addr);
+      if (isDynamic(instr.r))
+         return -1;
+      int target = fixedContent(instr.r, addr) + instr.d;
+      return target >= Machine.PB && target < Machine.PT ? target - Machine.PB : -1;
+   }
+
+   private static Prim primitiveOf(int id) {
+      return id >= 0 && id < Machine.intToPrim.length ? Machine.intToPrim[id] : Prim.id;
+   }
+
+   private static boolean isDynamic(int r) {
+      Reg reg = Machine.intToReg[r];
+      return reg == Reg.ST || reg == Reg.LB || reg == Reg.OB || reg == Reg.HT;
+   }
+
+   private int fixedContent(int r, int addr) {
+      return Machine.intToReg[r] == Reg.CP ? addr : m.content(r);
+   }
+
+   /**
+    * Translates the instructions in body to the class implementing {@link CompiledMethod}.
+    *
+    * @return the class file, or null if the method can not be compiled
+    */
+   private byte[] translate(int entry, boolean[] body, String className) {
+      int ct = m.CT;
+      w = new JitClassWriter(className, "mJAM/CompiledMethod");
+      labels = new Label[ct];
+      exits = new Label[ct + 1];
+      exit = new JitClassWriter.Label();
+
+      int entryCount = 0;
+      for (int addr = low; addr <= high; addr++) {
+         if (body[addr]) {
+            labels[addr] = new JitClassWriter.Label();
+            entryCount++;
+         }
+      }
+
+      // load the registers, then dispatch on the entry address
+      runtime("data", "()[I");
+      w.local(JitClassWriter.ASTORE, DATA);
+      runtime("st", "()I");
+      w.local(JitClassWriter.ISTORE, ST);
+      runtime("lb", "()I");
+      w.local(JitClassWriter.ISTORE, LB);
+      runtime("ob", "()I");
+      w.local(JitClassWriter.ISTORE, OB);
+      int[] keys = new int[entryCount];
+      Label[] targets = new Label[entryCount];
+      entryCount = 0;
+      for (int addr = low; addr <= high; addr++) {
+         if (body[addr]) {
+            keys[entryCount] = addr;
+            targets[entryCount++] = labels[addr];
+         }
+      }
+      Label unknown = new JitClassWriter.Label();
+      w.local(JitClassWriter.ILOAD, ENTRY);
+      w.lookupSwitch(unknown, keys, targets);
+      w.mark(unknown);
+      w.local(JitClassWriter.ILOAD, ENTRY);
+      w.jump(JitClassWriter.GOTO, exit);
+
+      for (int addr = low; addr <= high; addr++) {
+         if (body[addr]) {
+            w.mark(labels[addr]);
+            translateInstruction(addr, body);
+            if (w.length() > JitClassWriter.MAX_CODE_LENGTH)
+               return null;
+         }
+      }
+
+      // leave with the next code address on the stack
+      for (int addr = low; addr <= high + 1; addr++) {
+         if (exits[addr] != null) {
+            w.mark(exits[addr]);
+            w.loadInt(addr);
+            w.jump(JitClassWriter.GOTO, exit);
+         }
+      }
+      w.mark(exit);
+      w.local(JitClassWriter.ILOAD, ST);
+      w.local(JitClassWriter.ILOAD, LB);
+      w.local(JitClassWriter.ILOAD, OB);
+      runtime("leave", "(IIII)V");
+      w.op(JitClassWriter.RETURN);
+
+      byte[] classFile = w.toClassFile("run", "(LmJAM/MachineState;I)V", MAX_STACK, MAX_LOCALS);
+      w = null;
+      return classFile;
+   }
+
+   /**
+    * Calls a JitRuntime method, passing the state of the run after the arguments on the JVM stack.
+    */
+   private void runtime(String name, String descriptor) {
+      w.local(JitClassWriter.ALOAD, STATE);
+      w.invokeStatic(RUNTIME, name, descriptor.replace(")", "LmJAM/MachineState;)"));
+   }
+
+   /**
+    * @return a label that leaves the compiled code, continuing in the interpreter at addr
+    */
+   private Label exitTo(int addr) {
+      if (exits[addr] == null)
+         exits[addr] = new JitClassWriter.Label();
+      return exits[addr];
+   }
+
+   /**
+    * @return the label of the compiled code for addr, or one leaving for the interpreter if addr is not compiled
+    */
+   private Label jumpTarget(int addr, boolean[] body) {
+      return addr >= 0 && addr < body.length && body[addr] ? labels[addr] : exitTo(addr);
+   }
+
+   private void translateInstruction(int addr, boolean[] body) {
+      Instruction instr = code.instruction(addr);
+      if (isExit(addr)) {
+         w.jump(JitClassWriter.GOTO, exitTo(addr));
+         return;
+      }
+
+      int d = instr.d;
+      boolean dynamic = isDynamic(instr.r);
+      int base = dynamic ? 0 : fixedContent(instr.r, addr);
+      int regLocal = dynamic ? registerLocal(instr.r) : -1;
+
+      switch (Machine.intToOp[instr.op]) {
+         case LOAD:
+            checkSpace(addr, 1);
+            beginPush();
+            if (regLocal == LB || regLocal == ST) {
+               w.local(JitClassWriter.ALOAD, DATA);
+               address(regLocal, d);
+               w.op(JitClassWriter.IALOAD);
+            }
+            else {
+               address(regLocal, base + d);
+               runtime("load", "(I)I");
+            }
+            endPush();
+            break;
+         case LOADA:
+            checkSpace(addr, 1);
+            beginPush();
+            address(regLocal, base + d);
+            endPush();
+            break;
+         case LOADI:
+            w.local(JitClassWriter.ALOAD, DATA);
+            top(1);
+            w.local(JitClassWriter.ALOAD, DATA);
+            top(1);
+            w.op(JitClassWriter.IALOAD);
+            runtime("load", "(I)I");
+            w.op(JitClassWriter.IASTORE);
+            break;
+         case LOADL:
+            checkSpace(addr, 1);
+            beginPush();
+            w.loadInt(d);
+            endPush();
+            break;
+         case STORE:
+            if (regLocal == ST) {
+               // the address is relative to ST before the pop
+               w.local(JitClassWriter.ALOAD, DATA);
+               address(ST, d);
+               pushTop(1);
+               w.op(JitClassWriter.IASTORE);
+               w.iinc(ST, -1);
+            }
+            else if (regLocal == LB) {
+               w.iinc(ST, -1);
+               w.local(JitClassWriter.ALOAD, DATA);
+               address(LB, d);
+               pushTop(0);
+               w.op(JitClassWriter.IASTORE);
+            }
+            else {
+               w.iinc(ST, -1);
+               address(regLocal, base + d);
+               pushTop(0);
+               runtime("store", "(II)V");
+            }
+            break;
+         case STOREI:
+            pushTop(1);
+            pushTop(2);
+            runtime("store", "(II)V");
+            w.iinc(ST, -2);
+            break;
+         case CALL:
+            primitive(addr, primitiveCalled(addr), false, 0);
+            break;
+         case LOADLOP:
+            primitive(addr, instr.n, true, d);
+            break;
+         case INCR:
+            increment(addr, regLocal, base + d, instr.n);
+            break;
+         case PUSH:
+            checkSpace(addr, d);
+            w.iinc(ST, d);
+            break;
+         case POP:
+            w.iinc(ST, -d);
+            break;
+         case JUMP:
+            w.jump(JitClassWriter.GOTO, jumpTarget(code.codeOperand(addr), body));
+            return;
+         case JUMPIF:
+            w.iinc(ST, -1);
+            pushTop(0);
+            w.loadInt(instr.n);
+            w.jump(JitClassWriter.IF_ICMPEQ, jumpTarget(code.codeOperand(addr), body));
+            break;
+         case JUMPCMP:
+            w.iinc(ST, -2);
+            pushTop(0);
+            pushTop(-1);
+            w.jump(comparisonOpcode(primitiveOf(instr.n)), jumpTarget(code.codeOperand(addr), body));
+            break;
+         default:
+            w.jump(JitClassWriter.GOTO, exitTo(addr));
+            return;
+      }
+
+      // fall through to the next instruction
+      if (addr + 1 >= m.CT || !body[addr + 1])
+         w.jump(JitClassWriter.GOTO, exitTo(addr + 1));
+   }
+
+   private static int registerLocal(int r) {
+      switch (Machine.intToReg[r]) {
+         case ST:
+            return ST;
+         case LB:
+            return LB;
+         default:
+            return OB;
+      }
+   }
+
+   /**
+    * Pushes d plus the content of the register held in regLocal, or just d if regLocal is -1.
+    */
+   private void address(int regLocal, int d) {
+      if (regLocal < 0) {
+         w.loadInt(d);
+         return;
+      }
+      w.local(JitClassWriter.ILOAD, regLocal);
+      if (d != 0) {
+         w.loadInt(d);
+         w.op(JitClassWriter.IADD);
+      }
+   }
+
+   /**
+    * Pushes ST - depth.
+    */
+   private void top(int depth) {
+      address(ST, -depth);
+   }
+
+   /**
+    * Pushes data[ST - depth].
+    */
+   private void pushTop(int depth) {
+      w.local(JitClassWriter.ALOAD, DATA);
+      top(depth);
+      w.op(JitClassWriter.IALOAD);
+   }
+
+   private void beginPush() {
+      w.local(JitClassWriter.ALOAD, DATA);
+      w.local(JitClassWriter.ILOAD, ST);
+   }
+
+   private void endPush() {
+      w.op(JitClassWriter.IASTORE);
+      w.iinc(ST, 1);
+   }
+
+   /**
+    * Leaves for the interpreter, before the instruction at addr, if there is no room to push words on the stack.
+    */
+   private void checkSpace(int addr, int words) {
+      if (words <= 0)
+         return;
+      address(ST, words);
+      w.local(JitClassWriter.ALOAD, DATA);
+      w.op(JitClassWriter.ARRAYLENGTH);
+      w.jump(JitClassWriter.IF_ICMPGT, exitTo(addr));
+   }
+
+   private void increment(int addr, int regLocal, int d, int n) {
+      // Y = address, X = old value, R = new value
+      address(regLocal, d);
+      w.local(JitClassWriter.ISTORE, Y);
+      if (regLocal == LB) {
+         w.local(JitClassWriter.ALOAD, DATA);
+         w.local(JitClassWriter.ILOAD, Y);
+         w.op(JitClassWriter.IALOAD);
+      }
+      else {
+         w.local(JitClassWriter.ILOAD, Y);
+         runtime("load", "(I)I");
+      }
+      w.local(JitClassWriter.ISTORE, X);
+      w.local(JitClassWriter.ILOAD, X);
+      w.loadInt(n);
+      w.op(JitClassWriter.IADD);
+      w.local(JitClassWriter.ISTORE, R);
+      // overflow if both operands differ in sign from the result
+      w.local(JitClassWriter.ILOAD, X);
+      w.local(JitClassWriter.ILOAD, R);
+      w.op(JitClassWriter.IXOR);
+      w.loadInt(n);
+      w.local(JitClassWriter.ILOAD, R);
+      w.op(JitClassWriter.IXOR);
+      w.op(JitClassWriter.IAND);
+      w.jump(JitClassWriter.IFLT, exitTo(addr));
+      if (regLocal == LB) {
+         w.local(JitClassWriter.ALOAD, DATA);
+         w.local(JitClassWriter.ILOAD, Y);
+         w.local(JitClassWriter.ILOAD, R);
+         w.op(JitClassWriter.IASTORE);
+      }
+      else {
+         w.local(JitClassWriter.ILOAD, Y);
+         w.local(JitClassWriter.ILOAD, R);
+         runtime("store", "(II)V");
+      }
+   }
+
+   /**
+    * Translates a call of primitive id, with its last argument either on the stack or the given literal.
+    */
+   private void primitive(int addr, int id, boolean hasLiteral, int literal) {
+      Prim prim = primitiveOf(id);
+      boolean unary = prim == Prim.not || prim == Prim.neg;
+      boolean binary = prim == Prim.and || prim == Prim.or || prim == Prim.add || prim == Prim.sub || prim == Prim.mult || prim == Prim.div
+            || prim == Prim.mod || comparisonOpcode(prim) >= 0;
+
+      if (binary || (unary && !hasLiteral)) {
+         // X and Y are the operands, R the result
+         if (binary) {
+            pushTop(hasLiteral ? 1 : 2);
+            w.local(JitClassWriter.ISTORE, X);
+            if (hasLiteral)
+               w.loadInt(literal);
+            else
+               pushTop(1);
+            w.local(JitClassWriter.ISTORE, Y);
+         }
+         else {
+            pushTop(1);
+            w.local(JitClassWriter.ISTORE, X);
+         }
+         arithmetic(addr, prim);
+         w.local(JitClassWriter.ALOAD, DATA);
+         top(binary && !hasLiteral ? 2 : 1);
+         w.local(JitClassWriter.ILOAD, R);
+         w.op(JitClassWriter.IASTORE);
+         if (binary && !hasLiteral)
+            w.iinc(ST, -1);
+         return;
+      }
+
+      if (hasLiteral) {
+         checkSpace(addr, 1);
+         beginPush();
+         w.loadInt(literal);
+         endPush();
+      }
+      w.loadInt(id);
+      w.local(JitClassWriter.ILOAD, ST);
+      w.local(JitClassWriter.ILOAD, LB);
+      w.local(JitClassWriter.ILOAD, OB);
+      runtime("primitive", "(IIII)I");
+      w.local(JitClassWriter.ISTORE, ST);
+      runtime("data", "()[I");
+      w.local(JitClassWriter.ASTORE, DATA);
+      // a failed primitive stops the machine after the instruction, as in the interpreter
+      runtime("running", "()Z");
+      w.jump(JitClassWriter.IFEQ, exitTo(addr + 1));
+   }
+
+   /**
+    * Computes R from X (and Y), leaving for the interpreter before addr if the operation would fail.
+    */
+   private void arithmetic(int addr, Prim prim) {
+      Label yes = new JitClassWriter.Label(), done = new JitClassWriter.Label();
+      switch (prim) {
+         case not:
+            w.local(JitClassWriter.ILOAD, X);
+            w.loadInt(Machine.trueRep);
+            w.jump(JitClassWriter.IF_ICMPNE, yes);
+            break;
+         case and:
+         case or: {
+            // R = isTrue(X) and/or isTrue(Y)
+            Label no = new JitClassWriter.Label();
+            int opcode = prim == Prim.and ? JitClassWriter.IF_ICMPNE : JitClassWriter.IF_ICMPEQ;
+            Label decided = prim == Prim.and ? no : yes;
+            w.local(JitClassWriter.ILOAD, X);
+            w.loadInt(Machine.trueRep);
+            w.jump(opcode, decided);
+            w.local(JitClassWriter.ILOAD, Y);
+            w.loadInt(Machine.trueRep);
+            w.jump(JitClassWriter.IF_ICMPEQ, yes);
+            w.mark(no);
+            break;
+         }
+         case neg:
+            w.local(JitClassWriter.ILOAD, X);
+            w.loadInt(Integer.MIN_VALUE);
+            w.jump(JitClassWriter.IF_ICMPEQ, exitTo(addr));
+            w.local(JitClassWriter.ILOAD, X);
+            w.op(JitClassWriter.INEG);
+            w.local(JitClassWriter.ISTORE, R);
+            return;
+         case add:
+         case sub:
+            w.local(JitClassWriter.ILOAD, X);
+            w.local(JitClassWriter.ILOAD, Y);
+            w.op(prim == Prim.add ? JitClassWriter.IADD : JitClassWriter.ISUB);
+            w.local(JitClassWriter.ISTORE, R);
+            // add overflows if both operands differ in sign from the result,
+            // sub if the operands differ in sign and X differs in sign from the result
+            w.local(JitClassWriter.ILOAD, X);
+            w.local(JitClassWriter.ILOAD, prim == Prim.add ? R : Y);
+            w.op(JitClassWriter.IXOR);
+            w.local(JitClassWriter.ILOAD, prim == Prim.add ? Y : X);
+            w.local(JitClassWriter.ILOAD, R);
+            w.op(JitClassWriter.IXOR);
+            w.op(JitClassWriter.IAND);
+            w.jump(JitClassWriter.IFLT, exitTo(addr));
+            return;
+         case mult:
+            w.local(JitClassWriter.ILOAD, X);
+            w.op(JitClassWriter.I2L);
+            w.local(JitClassWriter.ILOAD, Y);
+            w.op(JitClassWriter.I2L);
+            w.op(JitClassWriter.LMUL);
+            w.local(JitClassWriter.LSTORE, P);
+            w.local(JitClassWriter.LLOAD, P);
+            w.op(JitClassWriter.L2I);
+            w.local(JitClassWriter.ISTORE, R);
+            w.local(JitClassWriter.ILOAD, R);
+            w.op(JitClassWriter.I2L);
+            w.local(JitClassWriter.LLOAD, P);
+            w.op(JitClassWriter.LCMP);
+            w.jump(JitClassWriter.IFNE, exitTo(addr));
+            return;
+         case div:
+         case mod:
+            w.local(JitClassWriter.ILOAD, Y);
+            w.jump(JitClassWriter.IFEQ, exitTo(addr));
+            w.local(JitClassWriter.ILOAD, X);
+            w.local(JitClassWriter.ILOAD, Y);
+            w.op(prim == Prim.div ? JitClassWriter.IDIV : JitClassWriter.IREM);
+            w.local(JitClassWriter.ISTORE, R);
+            return;
+         default:
+            w.local(JitClassWriter.ILOAD, X);
+            w.local(JitClassWriter.ILOAD, Y);
+            w.jump(comparisonOpcode(prim), yes);
+            break;
+      }
+      // R = condition ? true : false
+      w.loadInt(Machine.falseRep);
+      w.jump(JitClassWriter.GOTO, done);
+      w.mark(yes);
+      w.loadInt(Machine.trueRep);
+      w.mark(done);
+      w.local(JitClassWriter.ISTORE, R);
+   }
+
+   /**
+    * @return the JVM branch taken when the comparison holds, or -1 if prim is not a comparison
+    */
+   private static int comparisonOpcode(Prim prim) {
+      switch (prim) {
+         case lt:
+            return JitClassWriter.IF_ICMPLT;
+         case le:
+            return JitClassWriter.IF_ICMPLE;
+         case ge:
+            return JitClassWriter.IF_ICMPGE;
+         case gt:
+            return JitClassWriter.IF_ICMPGT;
+         case eq:
+            return JitClassWriter.IF_ICMPEQ;
+         case ne:
+            return JitClassWriter.IF_ICMPNE;
+         default:
+            return -1;
+      }
+   }
+
+   void showStatistics() {
+      System.out.println("JIT: " + methodsCompiled + " methods compiled (" + bytecodeSize + " bytes), " + compileFailures + " failed, "
+            + compiledEntries + " entries into compiled code");
+   }
+}
@@ -0,0 +1,68 @@
+/**
+ * Runtime support for JIT-compiled mJAM code
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+/**
+ * The interpreter state and operations that code generated by {@link JitCompiler} may use. The generated classes live
+ * in their own class loader and can not see the package-private members of {@link MachineState}, so each method takes
+ * the state of the run as its last argument.
+ */
+public final class JitRuntime {
+
+   private JitRuntime() {
+   }
+
+   public static int[] data(MachineState m) {
+      return m.data;
+   }
+
+   public static int st(MachineState m) {
+      return m.ST;
+   }
+
+   public static int lb(MachineState m) {
+      return m.LB;
+   }
+
+   public static int ob(MachineState m) {
+      return m.OB;
+   }
+
+   /**
+    * Writes the registers back when compiled code hands control to the interpreter.
+    */
+   public static void leave(int cp, int st, int lb, int ob, MachineState m) {
+      m.CP = cp;
+      m.ST = st;
+      m.LB = lb;
+      m.OB = ob;
+   }
+
+   public static int load(int addr, MachineState m) {
+      return m.load(addr);
+   }
+
+   public static void store(int addr, int value, MachineState m) {
+      m.store(addr, value);
+   }
+
+   /**
+    * Calls primitive id with the given registers.
+    * 
+    * @return the new stack top
+    */
+   public static int primitive(int id, int st, int lb, int ob, MachineState m) {
+      m.ST = st;
+      m.LB = lb;
+      m.OB = ob;
+      Interpreter.executePrimitive(m, id);
+      return m.ST;
+   }
+
+   public static boolean running(MachineState m) {
+      return m.status == Interpreter.running;
+   }
+}
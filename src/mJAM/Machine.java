@@ -27,7 +27,11 @@ public final class Machine {
       JUMP,
       JUMPI,
       JUMPIF,
-      HALT;
+      HALT,
+      // superinstructions, produced by SuperinstructionFuser
+      LOADLOP, // LOADL d; CALL n[PB]
+      INCR, // LOAD d[r]; LOADL n; CALL add[PB]; STORE d[r]
+      JUMPCMP; // CALL n[PB]; JUMPIF (1) d[r], where n is a comparison primitive
    }
 
    public static Op[] intToOp = Op.values();
@@ -100,123 +104,11 @@ public final class Machine {
 
    // CODE STORE REGISTERS
    public final static int     CB        = 0;                                  // start of code space
-   public final static int     PB        = 1024;                               // size of code space reserved for
-                                                                                // instructions
+   public final static int     PB        = 1 << 30;                            // primitives base, above any code
    public final static int     PT        = PB + Prim.values().length;          // code space reserved for primitives
 
-   // CODE STORE
-   public static Instruction[] code      = new Instruction[PB];
-   public static int           CT        = CB;
-
-   public static void initCodeGen() {
-      CT = CB;
-   }
-
-   /**
-    * Places an instruction, with the given fields, into the next position in the code store
-    * 
-    * @param op - operation
-    * @param n - length
-    * @param r - register
-    * @param d - displacement
-    */
-   public static void emit(Op op, int n, Reg r, Prim d) {
-      emit(op.ordinal(), n, r.ordinal(), d.ordinal());
-   }
-
-   /**
-    * emit operation with single literal argument d (n,r not used). These are
-    * operations like LOADL 44, PUSH 3, and CALLD 1
-    */
-   public static void emit(Op op, int d) {
-      emit(op.ordinal(), 0, 0, d);
-   }
-
-   /**
-    * emit "call primitive operation" (operation built-in to mJAM). This
-    * generates CALL primitiveop[PB]
-    */
-   public static void emit(Prim d) {
-      emit(Op.CALL.ordinal(), 0, Machine.Reg.PB.ordinal(), d.ordinal());
-   }
-
-   /**
-    * emit operations without arguments. These are operations like
-    * LOADI and STOREI
-    */
-   public static void emit(Op op) {
-      emit(op, 0, 0, 0);
-   }
-
-   /**
-    * emit operation with register r and integer displacement. These are
-    * operations like JUMP 25[CB] and LOAD 6[LB]
-    */
-   public static void emit(Op op, Reg r, int d) {
-      emit(op.ordinal(), 0, r.ordinal(), d);
-   }
-
-   /**
-    * emit operation with n field, and register r and integer displacement. These are
-    * operations like JUMPIF (1) 25[CB]. In the assembly code the value of n is shown
-    * in parens.
-    */
-   public static void emit(Op op, int n, Reg r, int d) {
-      emit(op.ordinal(), n, r.ordinal(), d);
-   }
-
-   /**
-    * emit operation with integer n, r, d. These are operations
-    * like RETURN (1) 3 and HALT (4) 0. For RETURN the value
-    * of d is the number of caller args to pop off the callers
-    * stack and n is the number of values to return at caller stack
-    * top. n must be 0 or 1.
-    */
-   public static void emit(Op op, int n, int r, int d) {
-      emit(op.ordinal(), n, r, d);
-   }
-
-   /**
-    * helper operation for emit using integer values
-    */
-   private static void emit(int op, int n, int r, int d) {
-      if (n > 255) {
-         System.out.println("length of operand can't exceed 255 words");
-         n = 255; // to allow code generation to continue
-      }
-      if (CT >= Machine.PB)
-         System.out.println("mJAM: code segment capacity exceeded");
-
-      Instruction nextInstr = new Instruction(op, n, r, d);
-      Machine.code[CT] = nextInstr;
-      CT = CT + 1;
-   }
-
-   /**
-    * @return address (relative to CB) of next instruction to be generated
-    */
-   public static int nextInstrAddr() {
-      return CT;
-   }
-
-   /**
-    * Update the displacement component of the (JUMP or CALL) instruction at addr
-    * 
-    * @param addr
-    * @param displacement
-    */
-   public static void patch(int addr, int displacement) {
-      if (addr < 0 || addr >= CT) {
-         System.out.println("patch:  address of instruction to be patched is out of range");
-         return;
-      }
-      if (displacement < 0 || displacement > CT) {
-         System.out.println("patch:  target address of patch is out of range");
-         return;
-      }
-      Machine.code[addr].d = displacement;
-      return;
-   }
+   // default maximum number of instructions in a code store
+   public static int           maxCodeSize = Math.min(sizeProperty("mJAM.maxCodeSize", 1 << 22), PB - CB);
 
    // DATA REPRESENTATION
 
@@ -226,4 +118,27 @@ public final class Machine {
                                                                                                                                  // CP
          falseRep = 0, trueRep = 1, nullRep = 0;
 
+   // SIZE SETTINGS
+
+   static int sizeProperty(String name, int defaultSize) {
+      // Returns the size set by a system property, or defaultSize if it is not set.
+      String value = System.getProperty(name);
+      return value == null ? defaultSize : parseSize(value);
+   }
+
+   static int parseSize(String value) {
+      // Parses a word count such as 4096, 512k or 8m.
+      long scale = 1;
+      String digits = value.trim().toLowerCase();
+      if (digits.endsWith("k"))
+         scale = 1 << 10;
+      else if (digits.endsWith("m"))
+         scale = 1 << 20;
+      if (scale != 1)
+         digits = digits.substring(0, digits.length() - 1);
+      long size = Long.parseLong(digits) * scale;
+      if (size <= 0 || size > Integer.MAX_VALUE / 2)
+         throw new NumberFormatException("size out of range: " + value);
+      return (int) size;
+   }
 }
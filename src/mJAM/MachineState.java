@@ -0,0 +1,236 @@
+/**
+ * State of one run of an mJAM program
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+import java.util.Arrays;
+
+/**
+ * The registers, the data store and the run-time tables (heap allocator, inline caches, JIT-compiled methods) of one
+ * program run. Every run has its own, and the execution engines, the collector and JIT-compiled code work on the state
+ * they are given, so several programs can run on different threads of one JVM at the same time.
+ *
+ * The class is public because JIT-compiled code, defined by its own class loader, is passed the state it runs on.
+ */
+public final class MachineState {
+
+   // DATA STORE
+   // The stack occupies addresses SB..stackLimit-1 and is held in data[], the heap occupies
+   // addresses stackLimit..HB-1 and is held in heap[], where heap[0] is address heapBase.
+   // Both arrays start small and grow on demand up to their limits.
+   int[]                  data;
+   int[]                  heap;
+   int                    heapBase;
+
+   final int              stackLimit, heapLimit;
+
+   // DATA STORE REGISTERS AND OTHER REGISTERS
+   final int              HB;                   // = stackLimit + heapLimit = upper bound of data store + 1
+
+   int                    CT, CP, ST, HT, LB, OB, status, temp;
+
+   // CODE STORE
+   final CodeStore        code;
+
+   long                   accumulator;
+   int                    currentChar;
+
+   long                   instructionCount;
+
+   // RUN-TIME TABLES
+   final GarbageCollector gc;
+   final InlineCache      inlineCache;
+   JitCompiler            jit;
+
+   /**
+    * Initializes the machine to run program from its first instruction, with the data store limits currently set in
+    * Interpreter.
+    */
+   MachineState(CodeStore program) {
+      code = program;
+      stackLimit = Interpreter.stackLimit;
+      heapLimit = Interpreter.heapLimit;
+
+      // Initialize data store ...
+      HB = stackLimit + heapLimit;
+      data = new int[Math.min(Interpreter.INITIAL_SEGMENT_SIZE, stackLimit)];
+      heap = new int[Math.min(Interpreter.INITIAL_SEGMENT_SIZE, heapLimit)];
+      heapBase = HB - heap.length;
+
+      // Initialize registers ...
+      ST = Interpreter.SB;
+      HT = HB;
+      LB = Interpreter.SB;
+      CP = Interpreter.CB;
+      OB = -1; // invalid instance addr
+      CT = code.CT;
+      status = Interpreter.running;
+      gc = new GarbageCollector(this);
+      inlineCache = new InlineCache(CT);
+   }
+
+   int content(int r) {
+      // Returns the current content of register r,
+      Machine.Reg reg = Machine.intToReg[r];
+      switch (reg) {
+         case CB:
+            return Interpreter.CB;
+         case CT:
+            return CT;
+         case PB:
+            return Machine.PB;
+         case PT:
+            return Machine.PT;
+         case SB:
+            return Interpreter.SB;
+         case ST:
+            return ST;
+         case HB:
+            return HB;
+         case HT:
+            return HT;
+         case LB:
+            return LB;
+         case OB:
+            return OB;
+         case CP:
+            return CP;
+         default:
+            return 0;
+      }
+   }
+
+   // DATA STORE ACCESS
+
+   int load(int addr) {
+      // Returns the word at addr, which may lie in the stack or the heap.
+      if (addr >= heapBase)
+         return heap[addr - heapBase];
+      return data[addr];
+   }
+
+   void store(int addr, int value) {
+      // Updates the word at addr, which may lie in the stack or the heap.
+      if (addr >= heapBase)
+         heap[addr - heapBase] = value;
+      else
+         data[addr] = value;
+   }
+
+   boolean growStack(int size) {
+      // Grows the stack segment to hold at least size words, signalling
+      // failure if that exceeds the stack limit.
+      if (size > stackLimit) {
+         status = Interpreter.failedDataStoreFull;
+         return false;
+      }
+      int newSize = (int) Math.min(Math.max((long) data.length * 2, size), stackLimit);
+      data = Arrays.copyOf(data, newSize);
+      return true;
+   }
+
+   boolean growHeap(int size) {
+      // Grows the heap segment downwards to hold at least size words, signalling
+      // failure if that exceeds the heap limit.
+      if (size > heapLimit) {
+         status = Interpreter.failedDataStoreFull;
+         return false;
+      }
+      int newSize = (int) Math.min(Math.max((long) heap.length * 2, size), heapLimit);
+      int[] newHeap = new int[newSize];
+      System.arraycopy(heap, 0, newHeap, newSize - heap.length, heap.length);
+      heap = newHeap;
+      heapBase = HB - newSize;
+      return true;
+   }
+
+   void checkSpace(int spaceNeeded) {
+      // Signals failure if there is not enough space to expand the stack
+      // by spaceNeeded.
+      if (ST + spaceNeeded > data.length)
+         growStack(ST + spaceNeeded);
+   }
+
+   void checkHeapSpace(int spaceNeeded) {
+      // Signals failure if there is not enough space to expand the heap
+      // by spaceNeeded.
+      if (HT - spaceNeeded < heapBase)
+         growHeap(HB - HT + spaceNeeded);
+   }
+
+   boolean invalidHeapRef(int addr) {
+      // if addr is null ptr or outside of heap bounds, sets status to failure
+      if (addr == Machine.nullRep)
+         status = Interpreter.failedNullRef;
+      else if (addr < HT + 2 || addr >= HB)
+         status = Interpreter.failedHeapRef;
+      return (status != Interpreter.running);
+   }
+
+   // ARITHMETIC
+
+   int overflowChecked(long datum) {
+      // Signals failure if the datum is too large to fit into a single word,
+      // otherwise returns the datum as a single word.
+      if ((Machine.minintRep <= datum) && (datum <= Machine.maxintRep))
+         return (int) datum;
+      else {
+         status = Interpreter.failedOverflow;
+         return 0;
+      }
+   }
+
+   int addChecked(int x, int y) {
+      // Returns x + y, signalling failure if it overflows.
+      int sum = x + y;
+      return ((x ^ sum) & (y ^ sum)) < 0 ? overflow() : sum;
+   }
+
+   int subChecked(int x, int y) {
+      // Returns x - y, signalling failure if it overflows.
+      int difference = x - y;
+      return ((x ^ y) & (x ^ difference)) < 0 ? overflow() : difference;
+   }
+
+   int multChecked(int x, int y) {
+      // Returns x * y, signalling failure if it overflows.
+      long product = (long) x * y;
+      return (int) product == product ? (int) product : overflow();
+   }
+
+   int overflow() {
+      // Signals an overflowing int operation, returning the value left in its result.
+      status = Interpreter.failedOverflow;
+      return 0;
+   }
+
+   // INPUT
+
+   int readInt() throws java.io.IOException {
+      int temp = 0;
+      int sign = 1;
+
+      do {
+         currentChar = System.in.read();
+      }
+      while (Character.isWhitespace((char) currentChar));
+
+      if ((currentChar == '-') || (currentChar == '+'))
+         do {
+            sign = (currentChar == '-') ? -1 : 1;
+            currentChar = System.in.read();
+         }
+         while ((currentChar == '-') || currentChar == '+');
+
+      if (Character.isDigit((char) currentChar))
+         do {
+            temp = temp * 10 + (currentChar - '0');
+            currentChar = System.in.read();
+         }
+         while (Character.isDigit((char) currentChar));
+
+      return sign * temp;
+   }
+}
@@ -1,18 +1,38 @@
 /**
  * Reads and writes mJAM object files
- * 
+ *
  * @author prins
  * @version COMP 520 V2.2
  */
 package mJAM;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
-import java.io.DataInputStream;
 import java.io.FileOutputStream;
-import java.io.DataOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
 
+/**
+ * Object files start with a header: the magic number "mJAM", a format version, a flags word (reserved, 0) and the
+ * number of instructions. Each instruction is then packed as
+ *
+ * <pre>
+ * op (4 bits) r (4 bits), [op - 15 (1 byte) if op >= 15], n (1 byte), d (zigzag varint)
+ * </pre>
+ *
+ * and the file ends with the CRC-32 of everything before it. Files without the magic number are read as the original
+ * format of four 32 bit words (op, n, r, d) per instruction.
+ */
 public class ObjectFile {
 
+   static final int MAGIC   = 0x6D4A414D; // "mJAM"
+   static final int VERSION = 1;
+
+   // op field value announcing an op that does not fit into 4 bits
+   private static final int OP_ESCAPE = 15;
+
    String objectFileName;
 
    public ObjectFile(String objectFileName) {
@@ -22,22 +42,42 @@ public class ObjectFile {
 
    /**
     * Write code store as object file
-    * 
-    * @param output object file
+    *
+    * @param code - code store to write
     * @return true if write fails
     */
-   public boolean write() {
+   public boolean write(CodeStore code) {
       boolean failed = false;
       try {
-         FileOutputStream objectFile = new FileOutputStream(objectFileName);
-         DataOutputStream is = new DataOutputStream(objectFile);
-         for (int i = Machine.CB; i < Machine.CT; i++) {
-            Instruction inst = Machine.code[i];
-            is.writeInt(inst.op);
-            is.writeInt(inst.n);
-            is.writeInt(inst.r);
-            is.writeInt(inst.d);
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + 4 * (code.CT - Machine.CB));
+         writeInt(bytes, MAGIC);
+         writeInt(bytes, VERSION << 16); // version, flags
+         writeInt(bytes, code.CT - Machine.CB);
+         for (int i = Machine.CB; i < code.CT; i++) {
+            int op = code.codeOp[i], n = code.codeN[i], r = code.codeR[i];
+            if (op < 0 || op > OP_ESCAPE + 255 || r < 0 || r > 15 || n < 0 || n > 255)
+               throw new IllegalArgumentException("instruction " + i + " can not be encoded");
+            if (op < OP_ESCAPE)
+               bytes.write(op << 4 | r);
+            else {
+               bytes.write(OP_ESCAPE << 4 | r);
+               bytes.write(op - OP_ESCAPE);
+            }
+            bytes.write(n);
+            // zigzag encoding keeps small negative operands short
+            int d = (code.codeD[i] << 1) ^ (code.codeD[i] >> 31);
+            while ((d & ~0x7F) != 0) {
+               bytes.write(d & 0x7F | 0x80);
+               d >>>= 7;
+            }
+            bytes.write(d);
          }
+         CRC32 crc = new CRC32();
+         crc.update(bytes.toByteArray());
+         writeInt(bytes, (int) crc.getValue());
+
+         FileOutputStream objectFile = new FileOutputStream(objectFileName);
+         bytes.writeTo(objectFile);
          objectFile.close();
       }
       catch (Exception e) {
@@ -46,31 +86,105 @@ public class ObjectFile {
       return failed;
    }
 
+   private static void writeInt(ByteArrayOutputStream bytes, int value) {
+      bytes.write(value >>> 24);
+      bytes.write(value >>> 16);
+      bytes.write(value >>> 8);
+      bytes.write(value);
+   }
+
    /**
     * Read object file into code store, setting CT
-    * 
+    *
+    * @param code - code store to fill
     * @return true if object code read fails
     */
-   public boolean read() {
+   public boolean read(CodeStore code) {
       boolean failed = false;
       try {
          FileInputStream objectFile = new FileInputStream(objectFileName);
-         DataInputStream is = new DataInputStream(objectFile);
-
-         Machine.CT = Machine.CB;
-         while (is.available() > 0 && Machine.CT < Machine.PB) {
-            Instruction inst = new Instruction();
-            inst.op = is.readInt();
-            inst.n = is.readInt();
-            inst.r = is.readInt();
-            inst.d = is.readInt();
-            Machine.code[Machine.CT++] = inst;
-         }
+         FileChannel channel = objectFile.getChannel();
+         ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+         while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+            ;
          objectFile.close();
+         buffer.flip();
+
+         if (buffer.remaining() >= 4 && buffer.getInt(0) == MAGIC)
+            failed = readPacked(buffer, code);
+         else
+            failed = readLegacy(buffer, code);
       }
       catch (Exception e) {
          failed = true;
       }
       return failed;
    }
+
+   private static boolean readPacked(ByteBuffer buffer, CodeStore code) {
+      int end = buffer.limit() - 4;
+      if (end < 12)
+         return true;
+      CRC32 crc = new CRC32();
+      crc.update(buffer.array(), 0, end);
+      if ((int) crc.getValue() != buffer.getInt(end))
+         return true;
+
+      buffer.position(4);
+      if (buffer.getInt() >>> 16 != VERSION)
+         return true;
+      int count = buffer.getInt();
+      if (count < 0 || count > code.maxCodeSize)
+         return true;
+      buffer.limit(end);
+      code.ensureCodeCapacity(Machine.CB + count);
+
+      try {
+         code.CT = Machine.CB;
+         for (int i = 0; i < count; i++) {
+            int opAndReg = buffer.get() & 0xFF;
+            int op = opAndReg >>> 4;
+            if (op == OP_ESCAPE)
+               op += buffer.get() & 0xFF;
+            int n = buffer.get() & 0xFF;
+            int d = 0;
+            for (int shift = 0;; shift += 7) {
+               int b = buffer.get();
+               d |= (b & 0x7F) << shift;
+               if (b >= 0)
+                  break;
+            }
+            int r = opAndReg & 0xF;
+            if (!valid(op, r))
+               return true;
+            code.setInstruction(code.CT++, op, n, r, (d >>> 1) ^ -(d & 1));
+         }
+      }
+      catch (BufferUnderflowException e) {
+         return true;
+      }
+      return buffer.hasRemaining();
+   }
+
+   private static boolean readLegacy(ByteBuffer buffer, CodeStore code) {
+      if (buffer.remaining() / 16 > code.maxCodeSize)
+         return true;
+      code.ensureCodeCapacity(Machine.CB + buffer.remaining() / 16);
+      code.CT = Machine.CB;
+      while (buffer.remaining() >= 16) {
+         int op = buffer.getInt(), n = buffer.getInt(), r = buffer.getInt(), d = buffer.getInt();
+         if (!valid(op, r))
+            return true;
+         code.setInstruction(code.CT++, op, n, r, d);
+      }
+      return false;
+   }
+
+   /**
+    * @return true if op and r name an instruction and a register, so that a corrupt file fails to load instead of
+    *         failing when the instruction is run
+    */
+   private static boolean valid(int op, int r) {
+      return op >= 0 && op < Machine.intToOp.length && r >= 0 && r < Machine.intToReg.length;
+   }
 }
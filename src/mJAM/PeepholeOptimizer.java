@@ -0,0 +1,251 @@
+/**
+ * Removes redundant mJAM instructions from generated code
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+import java.util.EnumSet;
+
+import mJAM.Machine.Op;
+import mJAM.Machine.Prim;
+import mJAM.Machine.Reg;
+
+/**
+ * Rewrites the code store after code generation, before superinstructions are fused, removing instructions that have
+ * no effect:
+ *
+ * <pre>
+ * JUMP d[CB], where d is the next instruction         ==>   (removed)
+ * JUMPIF (v) d[CB], where d is the next instruction   ==>   POP 1
+ * JUMP or JUMPIF to a JUMP e[CB]                      ==>   JUMP or JUMPIF to e
+ * LOADL v; JUMPIF (v) d[r]                            ==>   JUMP d[r]
+ * LOADL w; JUMPIF (v) d[r], where w != v              ==>   (removed)
+ * LOADL 0; CALL add[PB], and similarly for sub, mult and div by 1   ==>   (removed)
+ * LOAD d[r]; STORE d[r]                               ==>   (removed)
+ * instructions after JUMP, RETURN or HALT that are not branch targets   ==>   (removed)
+ * </pre>
+ *
+ * Each removal may expose another, so the patterns are applied until none matches. A sequence is only rewritten if
+ * none of its instructions except the first is a branch target, and the code store is compacted with all code
+ * addresses relocated. The STORE d[r]; LOAD d[r] pairs left by assignments are kept, as mJAM has no shorter way to
+ * keep a stored value on the stack.
+ *
+ * The patterns applied are chosen with the system property mJAM.peephole: "off", or a comma separated list of pattern
+ * names such as "jump_to_next,jump_chain". All are applied by default.
+ */
+public class PeepholeOptimizer {
+
+   public enum Pattern {
+      JUMP_TO_NEXT, // jumps to the next instruction, counting a JUMPIF replaced by POP 1 as removed
+      JUMP_CHAIN, // jumps to jumps, counted as jumps shortened
+      CONSTANT_BRANCH, // conditional jumps on a literal
+      IDENTITY_OP, // arithmetic that leaves its operand unchanged
+      SELF_ASSIGN, // stores of a value just loaded from the same place
+      UNREACHABLE; // code that control cannot reach
+   }
+
+   public static EnumSet<Pattern> patterns       = parsePatterns(System.getProperty("mJAM.peephole"));
+
+   public static boolean          showStatistics = Boolean.getBoolean("mJAM.peepholeStats");
+
+   private static final int       CB             = Machine.CB;
+
+   /**
+    * Optimizes the instructions CB..CT-1 of code.
+    *
+    * @return for each pattern, indexed by ordinal, the number of instructions it removed
+    */
+   public static int[] optimize(CodeStore code) {
+      int[] removed = new int[Pattern.values().length];
+      if (patterns.isEmpty())
+         return removed;
+
+      boolean changed = true;
+      while (changed) {
+         changed = false;
+         if (patterns.contains(Pattern.JUMP_CHAIN))
+            changed |= shortenJumpChains(code, removed);
+
+         boolean[] targets = code.branchTargets();
+         boolean[] deleted = new boolean[code.CT];
+         int count = 0;
+         for (int addr = CB; addr < code.CT; addr++) {
+            int length = optimizeAt(code, addr, targets, deleted, removed);
+            if (length > 0) {
+               addr += length - 1;
+               count++;
+            }
+         }
+         if (count > 0) {
+            code.compact(deleted);
+            changed = true;
+         }
+      }
+
+      if (showStatistics)
+         System.out.println(describe(removed));
+      return removed;
+   }
+
+   /**
+    * Removes or rewrites the sequence starting at addr, if a pattern matches it.
+    *
+    * @return the length of the sequence matched, or 0 if none matched
+    */
+   private static int optimizeAt(CodeStore code, int addr, boolean[] targets, boolean[] deleted, int[] removed) {
+      int[] n = code.codeN, r = code.codeR, d = code.codeD;
+
+      if (patterns.contains(Pattern.JUMP_TO_NEXT) && isCodeJump(code, addr) && d[addr] == addr + 1) {
+         if (is(code, addr, Op.JUMP)) {
+            deleted[addr] = true;
+            removed[Pattern.JUMP_TO_NEXT.ordinal()]++;
+            return 1;
+         }
+         if (is(code, addr, Op.JUMPIF)) {
+            // The condition is still popped.
+            code.setInstruction(addr, Op.POP.ordinal(), 0, 0, 1);
+            removed[Pattern.JUMP_TO_NEXT.ordinal()]++;
+            return 1;
+         }
+      }
+
+      if (patterns.contains(Pattern.CONSTANT_BRANCH) && is(code, addr, Op.LOADL) && rewritable(code, addr, 2, targets) && is(code, addr + 1, Op.JUMPIF)) {
+         if (d[addr] == n[addr + 1])
+            code.setInstruction(addr, Op.JUMP.ordinal(), 0, r[addr + 1], d[addr + 1]);
+         else
+            deleted[addr] = true;
+         deleted[addr + 1] = true;
+         removed[Pattern.CONSTANT_BRANCH.ordinal()] += deleted[addr] ? 2 : 1;
+         return 2;
+      }
+
+      if (patterns.contains(Pattern.IDENTITY_OP) && is(code, addr, Op.LOADL) && rewritable(code, addr, 2, targets) && isIdentity(code, addr + 1, d[addr])) {
+         deleted[addr] = deleted[addr + 1] = true;
+         removed[Pattern.IDENTITY_OP.ordinal()] += 2;
+         return 2;
+      }
+
+      if (patterns.contains(Pattern.SELF_ASSIGN) && is(code, addr, Op.LOAD) && rewritable(code, addr, 2, targets) && is(code, addr + 1, Op.STORE)
+            && n[addr] == n[addr + 1] && r[addr] == r[addr + 1] && d[addr] == d[addr + 1] && isStableRegister(r[addr])) {
+         deleted[addr] = deleted[addr + 1] = true;
+         removed[Pattern.SELF_ASSIGN.ordinal()] += 2;
+         return 2;
+      }
+
+      if (patterns.contains(Pattern.UNREACHABLE) && endsFlow(code, addr)) {
+         int length = 1;
+         while (addr + length < code.CT && !targets[addr + length]) {
+            deleted[addr + length] = true;
+            length++;
+         }
+         removed[Pattern.UNREACHABLE.ordinal()] += length - 1;
+         return length > 1 ? length : 0;
+      }
+
+      return 0;
+   }
+
+   /**
+    * Points every jump whose target is an unconditional jump at the end of the chain of jumps instead.
+    *
+    * @return true if any jump was changed
+    */
+   private static boolean shortenJumpChains(CodeStore code, int[] removed) {
+      boolean changed = false;
+      for (int addr = CB; addr < code.CT; addr++) {
+         if (!isCodeJump(code, addr))
+            continue;
+         int target = code.codeD[addr];
+         // A chain longer than the code store is a loop of jumps, which is left alone.
+         for (int hops = 0; hops < code.CT && target < code.CT && is(code, target, Op.JUMP) && isCodeJump(code, target) && code.codeD[target] != target; hops++)
+            target = code.codeD[target];
+         if (target != code.codeD[addr] && target < code.CT && !(is(code, target, Op.JUMP) && isCodeJump(code, target))) {
+            code.codeD[addr] = target;
+            removed[Pattern.JUMP_CHAIN.ordinal()]++;
+            changed = true;
+         }
+      }
+      return changed;
+   }
+
+   /**
+    * @return a line listing the number of instructions removed by each pattern
+    */
+   public static String describe(int[] removed) {
+      StringBuilder s = new StringBuilder("Peephole:");
+      for (Pattern p : Pattern.values())
+         s.append(' ').append(p.name().toLowerCase()).append('=').append(removed[p.ordinal()]);
+      return s.toString();
+   }
+
+   static EnumSet<Pattern> parsePatterns(String value) {
+      if (value == null || value.trim().isEmpty() || value.equalsIgnoreCase("on"))
+         return EnumSet.allOf(Pattern.class);
+      EnumSet<Pattern> set = EnumSet.noneOf(Pattern.class);
+      if (value.equalsIgnoreCase("off"))
+         return set;
+      for (String name : value.split(","))
+         set.add(Pattern.valueOf(name.trim().toUpperCase()));
+      return set;
+   }
+
+   /**
+    * @return true if the length instructions starting at addr exist and control can only enter them at addr
+    */
+   private static boolean rewritable(CodeStore code, int addr, int length, boolean[] targets) {
+      if (addr + length > code.CT)
+         return false;
+      for (int i = addr + 1; i < addr + length; i++) {
+         if (targets[i])
+            return false;
+      }
+      return true;
+   }
+
+   private static boolean is(CodeStore code, int addr, Op op) {
+      return code.codeOp[addr] == op.ordinal();
+   }
+
+   /**
+    * @return true if the instruction at addr is a JUMP or JUMPIF to an address relative to CB
+    */
+   private static boolean isCodeJump(CodeStore code, int addr) {
+      return (is(code, addr, Op.JUMP) || is(code, addr, Op.JUMPIF)) && code.codeR[addr] == Reg.CB.ordinal();
+   }
+
+   /**
+    * @return true if the instruction at addr applies a primitive that leaves its left operand unchanged when the right
+    *         operand is the literal value
+    */
+   private static boolean isIdentity(CodeStore code, int addr, int value) {
+      int d = code.codeD[addr];
+      if (!is(code, addr, Op.CALL) || code.codeR[addr] != Reg.PB.ordinal() || d < 0 || d >= Machine.intToPrim.length)
+         return false;
+      switch (Machine.intToPrim[d]) {
+         case add:
+         case sub:
+            return value == 0;
+         case mult:
+         case div:
+            return value == 1;
+         default:
+            return false;
+      }
+   }
+
+   /**
+    * @return true if control never passes from the instruction at addr to the next one
+    */
+   private static boolean endsFlow(CodeStore code, int addr) {
+      return is(code, addr, Op.JUMP) || is(code, addr, Op.JUMPI) || is(code, addr, Op.RETURN) || (is(code, addr, Op.HALT) && code.codeN[addr] == 0);
+   }
+
+   /**
+    * @return true if register r has the same content before and after a push, i.e. d[r] names the same word
+    */
+   private static boolean isStableRegister(int r) {
+      Reg reg = Machine.intToReg[r];
+      return reg != Reg.ST && reg != Reg.HT && reg != Reg.CP;
+   }
+}
@@ -0,0 +1,145 @@
+/**
+ * Fuses common mJAM instruction sequences into superinstructions
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+import mJAM.Machine.Op;
+import mJAM.Machine.Prim;
+import mJAM.Machine.Reg;
+
+/**
+ * Rewrites the code store after code generation, replacing short instruction sequences by a single superinstruction
+ * that the interpreter executes with one dispatch:
+ *
+ * <pre>
+ * LOAD d[r]; LOADL n; CALL add[PB]; STORE d[r]   ==>   INCR (n) d[r]
+ * CALL cmp[PB]; JUMPIF (v) d[r]                   ==>   JUMPCMP cmp d[r]   (cmp inverted when v is false)
+ * LOADL d; CALL prim[PB]                          ==>   LOADLOP prim d
+ * </pre>
+ *
+ * A sequence is only fused if none of its instructions except the first is a branch target, and the code store is
+ * then compacted with all code addresses relocated.
+ */
+public class SuperinstructionFuser {
+
+   public static boolean enabled = !"off".equalsIgnoreCase(System.getProperty("mJAM.fuse"));
+
+   /**
+    * Fuses the instructions CB..CT-1 of code.
+    *
+    * @return the number of superinstructions produced
+    */
+   public static int fuse(CodeStore code) {
+      if (!enabled)
+         return 0;
+
+      boolean[] targets = code.branchTargets();
+      boolean[] deleted = new boolean[code.CT];
+      int fused = 0;
+      for (int addr = Machine.CB; addr < code.CT; addr++) {
+         int length = fuseAt(code, addr, targets);
+         if (length > 1) {
+            for (int i = addr + 1; i < addr + length; i++)
+               deleted[i] = true;
+            addr += length - 1;
+            fused++;
+         }
+      }
+      if (fused > 0)
+         code.compact(deleted);
+      return fused;
+   }
+
+   /**
+    * Replaces the sequence starting at addr by a superinstruction, if there is one for it.
+    *
+    * @return the length of the replaced sequence, or 1 if nothing was fused
+    */
+   private static int fuseAt(CodeStore code, int addr, boolean[] targets) {
+      int[] n = code.codeN, r = code.codeR, d = code.codeD;
+
+      if (is(code, addr, Op.LOAD) && fusible(code, addr, 4, targets) && is(code, addr + 1, Op.LOADL) && isPrimitiveCall(code, addr + 2, Prim.add)
+            && is(code, addr + 3, Op.STORE)) {
+         int increment = d[addr + 1];
+         if (isStableRegister(r[addr]) && r[addr + 3] == r[addr] && d[addr + 3] == d[addr] && increment >= 0 && increment <= 255) {
+            code.setInstruction(addr, Op.INCR.ordinal(), increment, r[addr], d[addr]);
+            return 4;
+         }
+      }
+
+      if (isPrimitiveCall(code, addr) && fusible(code, addr, 2, targets) && is(code, addr + 1, Op.JUMPIF)) {
+         Prim comparison = Machine.intToPrim[d[addr]];
+         if (inverse(comparison) != null && (n[addr + 1] == Machine.trueRep || n[addr + 1] == Machine.falseRep)) {
+            if (n[addr + 1] == Machine.falseRep)
+               comparison = inverse(comparison);
+            code.setInstruction(addr, Op.JUMPCMP.ordinal(), comparison.ordinal(), r[addr + 1], d[addr + 1]);
+            return 2;
+         }
+      }
+
+      if (is(code, addr, Op.LOADL) && fusible(code, addr, 2, targets) && isPrimitiveCall(code, addr + 1)) {
+         code.setInstruction(addr, Op.LOADLOP.ordinal(), d[addr + 1], 0, d[addr]);
+         return 2;
+      }
+
+      return 1;
+   }
+
+   /**
+    * @return true if the length instructions starting at addr exist and control can only enter them at addr
+    */
+   private static boolean fusible(CodeStore code, int addr, int length, boolean[] targets) {
+      if (addr + length > code.CT)
+         return false;
+      for (int i = addr + 1; i < addr + length; i++) {
+         if (targets[i])
+            return false;
+      }
+      return true;
+   }
+
+   private static boolean is(CodeStore code, int addr, Op op) {
+      return code.codeOp[addr] == op.ordinal();
+   }
+
+   private static boolean isPrimitiveCall(CodeStore code, int addr) {
+      int d = code.codeD[addr];
+      return is(code, addr, Op.CALL) && code.codeR[addr] == Reg.PB.ordinal() && d >= 0 && d < Machine.intToPrim.length;
+   }
+
+   private static boolean isPrimitiveCall(CodeStore code, int addr, Prim prim) {
+      return isPrimitiveCall(code, addr) && code.codeD[addr] == prim.ordinal();
+   }
+
+   /**
+    * @return true if register r has the same content before and after a push, i.e. d[r] names the same word
+    */
+   private static boolean isStableRegister(int r) {
+      Reg reg = Machine.intToReg[r];
+      return reg != Reg.ST && reg != Reg.HT && reg != Reg.CP;
+   }
+
+   /**
+    * @return the comparison that is true exactly when prim is false, or null if prim is not a comparison
+    */
+   static Prim inverse(Prim prim) {
+      switch (prim) {
+         case lt:
+            return Prim.ge;
+         case le:
+            return Prim.gt;
+         case ge:
+            return Prim.lt;
+         case gt:
+            return Prim.le;
+         case eq:
+            return Prim.ne;
+         case ne:
+            return Prim.eq;
+         default:
+            return null;
+      }
+   }
+}
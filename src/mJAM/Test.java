@@ -15,7 +15,7 @@ public class Test {
 
    public static void main(String[] args) {
 
-      Machine.initCodeGen();
+      CodeStore code = new CodeStore();
       System.out.println("Generating test program object code");
 
       /*
@@ -24,23 +24,23 @@ public class Test {
        * int p(){return x;}
        * }
        */
-      Machine.emit(Op.LOADL, 11); // hello
-      Machine.emit(Prim.putintnl);
-      int patchme_coA = Machine.nextInstrAddr();
-      Machine.emit(Op.JUMP, Reg.CB, 0); // jump around methods of class A (branch to /*coA*/)
+      code.emit(Op.LOADL, 11); // hello
+      code.emit(Prim.putintnl);
+      int patchme_coA = code.nextInstrAddr();
+      code.emit(Op.JUMP, Reg.CB, 0); // jump around methods of class A (branch to /*coA*/)
 
       // code for p() in A
-      int label_pA = Machine.nextInstrAddr();
-      /* pA */Machine.emit(Op.LOAD, Reg.OB, 0); // x at offset 0 in current instance of A
-      Machine.emit(Op.HALT, 4, 0, 0);
-      Machine.emit(Op.RETURN, 1, 0, 0); // return one value, pop zero args
+      int label_pA = code.nextInstrAddr();
+      /* pA */code.emit(Op.LOAD, Reg.OB, 0); // x at offset 0 in current instance of A
+      code.emit(Op.HALT, 4, 0, 0);
+      code.emit(Op.RETURN, 1, 0, 0); // return one value, pop zero args
 
       // build class object for A at 0[SB]
-      int label_coA = Machine.nextInstrAddr();
-      Machine.patch(patchme_coA, label_coA);
-      /* coA */Machine.emit(Op.LOADL, -1); // no superclass object
-      Machine.emit(Op.LOADL, 1); // number of methods
-      Machine.emit(Op.LOADA, Reg.CB, label_pA); // code addr of p_A
+      int label_coA = code.nextInstrAddr();
+      code.patch(patchme_coA, label_coA);
+      /* coA */code.emit(Op.LOADL, -1); // no superclass object
+      code.emit(Op.LOADL, 1); // number of methods
+      code.emit(Op.LOADA, Reg.CB, label_pA); // code addr of p_A
 
       /*
        * class B extends A {
@@ -48,23 +48,23 @@ public class Test {
        * int p(){return x + 22;}
        * }
        */
-      int patchme_coB = Machine.nextInstrAddr();
-      Machine.emit(Op.JUMP, Reg.CB, 0); // branch around methods in class B
+      int patchme_coB = code.nextInstrAddr();
+      code.emit(Op.JUMP, Reg.CB, 0); // branch around methods in class B
 
       // code for p() in B
-      int label_pB = Machine.nextInstrAddr();
-      /* pB */Machine.emit(Op.LOAD, Reg.OB, 0); // x at offset 0 in current instance
-      Machine.emit(Op.LOADL, 22);
-      Machine.emit(Op.HALT, 4, 0, 0);
-      Machine.emit(Prim.add);
-      Machine.emit(Op.RETURN, 1, 0, 0); // return one value, pop zero args
+      int label_pB = code.nextInstrAddr();
+      /* pB */code.emit(Op.LOAD, Reg.OB, 0); // x at offset 0 in current instance
+      code.emit(Op.LOADL, 22);
+      code.emit(Op.HALT, 4, 0, 0);
+      code.emit(Prim.add);
+      code.emit(Op.RETURN, 1, 0, 0); // return one value, pop zero args
 
       // build class object for B at 3[SB]
-      int label_coB = Machine.nextInstrAddr();
-      Machine.patch(patchme_coB, label_coB);
-      /* coB */Machine.emit(Op.LOADA, Reg.SB, 0); // addr of superclass object
-      Machine.emit(Op.LOADL, 1); // number of methods
-      Machine.emit(Op.LOADA, Reg.CB, label_pB); // code addr of p_B
+      int label_coB = code.nextInstrAddr();
+      code.patch(patchme_coB, label_coB);
+      /* coB */code.emit(Op.LOADA, Reg.SB, 0); // addr of superclass object
+      code.emit(Op.LOADL, 1); // number of methods
+      code.emit(Op.LOADA, Reg.CB, label_pB); // code addr of p_B
 
       /*
        * class C {
@@ -74,24 +74,24 @@ public class Test {
        * System.out.println(a.p());
        * ...
        */
-      int patchme_coC = Machine.nextInstrAddr();
-      Machine.emit(Op.JUMP, Reg.CB, 0); // branch around methods of class C
+      int patchme_coC = code.nextInstrAddr();
+      code.emit(Op.JUMP, Reg.CB, 0); // branch around methods of class C
 
       // code for main() in C
-      int label_mainC = Machine.nextInstrAddr();
-      /* mainC */Machine.emit(Op.HALT, 4, 0, 0);
+      int label_mainC = code.nextInstrAddr();
+      /* mainC */code.emit(Op.HALT, 4, 0, 0);
       // local var "a" will be at 3[LB] after init
-      Machine.emit(Op.LOADA, Reg.SB, 0); // class descriptor for A
-      Machine.emit(Op.LOADL, 1); // size of A
-      Machine.emit(Prim.newobj); // result addr becomes value of "a"
-      Machine.emit(Op.LOAD, Reg.LB, 3); // value of "a" (heap addr)
-      Machine.emit(Op.LOADL, 0); // "x" is field 0 in A
-      Machine.emit(Op.LOADL, 33); // new value 33
-      Machine.emit(Op.HALT, 4, 0, 0);
-      Machine.emit(Prim.fieldupd); // a.x = 33
-      Machine.emit(Op.LOAD, Reg.LB, 3); // addr of instance "a" on heap
-      Machine.emit(Op.CALLI, Reg.CB, label_pA); // call to known instance method p_A
-      Machine.emit(Prim.putintnl); // print result
+      code.emit(Op.LOADA, Reg.SB, 0); // class descriptor for A
+      code.emit(Op.LOADL, 1); // size of A
+      code.emit(Prim.newobj); // result addr becomes value of "a"
+      code.emit(Op.LOAD, Reg.LB, 3); // value of "a" (heap addr)
+      code.emit(Op.LOADL, 0); // "x" is field 0 in A
+      code.emit(Op.LOADL, 33); // new value 33
+      code.emit(Op.HALT, 4, 0, 0);
+      code.emit(Prim.fieldupd); // a.x = 33
+      code.emit(Op.LOAD, Reg.LB, 3); // addr of instance "a" on heap
+      code.emit(Op.CALLI, Reg.CB, label_pA); // call to known instance method p_A
+      code.emit(Prim.putintnl); // print result
 
       /*
        * ...
@@ -102,39 +102,39 @@ public class Test {
        * } // end class C
        */
       // local var "b" will be at 4[LB] after init
-      Machine.emit(Op.LOADA, Reg.SB, 3); // class descriptor for B
-      Machine.emit(Op.LOADL, 2); // size of B
-      Machine.emit(Prim.newobj); // result addr becomes value of "b"
-      Machine.emit(Op.LOAD, Reg.LB, 4); // fetch b
-      Machine.emit(Op.LOADL, 0); // field 0
-      Machine.emit(Op.LOADL, 44); // b.x = 44
-      Machine.emit(Prim.fieldupd);
-      Machine.emit(Op.HALT, 4, 0, 0);
-      Machine.emit(Op.LOAD, Reg.LB, 4); // addr of instance "b"
-      Machine.emit(Op.CALLD, 0); // dynamic call, method index 0 (= method p)
-      Machine.emit(Prim.putintnl); // print result
-      Machine.emit(Op.RETURN, 0, 0, 1); // return no value (void), pop 1 arg (= String [] args)
+      code.emit(Op.LOADA, Reg.SB, 3); // class descriptor for B
+      code.emit(Op.LOADL, 2); // size of B
+      code.emit(Prim.newobj); // result addr becomes value of "b"
+      code.emit(Op.LOAD, Reg.LB, 4); // fetch b
+      code.emit(Op.LOADL, 0); // field 0
+      code.emit(Op.LOADL, 44); // b.x = 44
+      code.emit(Prim.fieldupd);
+      code.emit(Op.HALT, 4, 0, 0);
+      code.emit(Op.LOAD, Reg.LB, 4); // addr of instance "b"
+      code.emit(Op.CALLD, 0); // dynamic call, method index 0 (= method p)
+      code.emit(Prim.putintnl); // print result
+      code.emit(Op.RETURN, 0, 0, 1); // return no value (void), pop 1 arg (= String [] args)
 
       // build class descriptor for C at 6[SB]
-      int label_coC = Machine.nextInstrAddr();
-      Machine.patch(patchme_coC, label_coC);
-      /* coC */Machine.emit(Op.LOADL, -1); // no superclass object
-      Machine.emit(Op.LOADL, 0); // number of methods = 0
+      int label_coC = code.nextInstrAddr();
+      code.patch(patchme_coC, label_coC);
+      /* coC */code.emit(Op.LOADL, -1); // no superclass object
+      code.emit(Op.LOADL, 0); // number of methods = 0
 
       /*
        * End of class declarations - call main
        */
-      Machine.emit(Op.LOADL, Machine.nullRep); // put null on stack as value of main's arg
-      Machine.emit(Op.CALL, Reg.CB, label_mainC); // call known static main()
-      Machine.emit(Op.LOADL, 88); // goodbye
-      Machine.emit(Prim.putintnl);
-      Machine.emit(Machine.Op.HALT, 0, 0, 0); // halt
+      code.emit(Op.LOADL, Machine.nullRep); // put null on stack as value of main's arg
+      code.emit(Op.CALL, Reg.CB, label_mainC); // call known static main()
+      code.emit(Op.LOADL, 88); // goodbye
+      code.emit(Prim.putintnl);
+      code.emit(Machine.Op.HALT, 0, 0, 0); // halt
 
       /* write code as an object file */
       String objectCodeFileName = "test.mJAM";
       ObjectFile objF = new ObjectFile(objectCodeFileName);
       System.out.print("Writing object code file " + objectCodeFileName + " ... ");
-      if (objF.write()) {
+      if (objF.write(code)) {
          System.out.println("FAILED!");
          return;
       }
@@ -0,0 +1,730 @@
+/**
+ * Threaded-code execution engine for mJAM programs
+ *
+ * @version COMP 520 V2.2
+ */
+package mJAM;
+
+/**
+ * Alternative to the instruction-at-a-time engine in {@link Interpreter}. The code store is decoded once into a flat
+ * int array with three words per instruction: a specialized operation, and up to two operands. Registers whose content
+ * cannot change while the program runs (CB, CT, CP, PB, PT, SB, HB) are folded into absolute addresses at decode time,
+ * so the run loop never has to resolve a register. The dynamic registers (ST, LB, OB) are kept in locals and written
+ * back to the run's MachineState whenever control leaves the loop.
+ *
+ * Calls of the arithmetic, comparison and logical primitives, on their own or fused with a literal operand or a
+ * conditional jump, are decoded into one operation per primitive, so they run without a second dispatch through
+ * {@link Interpreter#callPrimitive(MachineState, int)} (unless legacy arithmetic is selected).
+ *
+ * Instructions that are rare or can not be specialized (e.g. addressing relative to HT) are decoded as GENERIC and
+ * handed to {@link Interpreter#interpretOneOperation(MachineState)}.
+ */
+public class ThreadedInterpreter {
+
+   // decoded operations
+   static final int LOAD_ABS = 0, LOAD_LB = 1, LOAD_OB = 2, LOAD_ST = 3, LOADA = 4, LOADA_LB = 5, LOADA_OB = 6, LOADA_ST = 7, LOADI = 8, LOADL = 9,
+         STORE_ABS = 10, STORE_LB = 11, STORE_OB = 12, STORE_ST = 13, STOREI = 14, CALL_PRIM = 15, CALL = 16, CALLI = 17, CALLD = 18, RETURN = 19,
+         PUSH = 20, POP = 21, JUMP = 22, JUMPI = 23, JUMPIF = 24, HALT = 25, LOADL_PRIM = 26, INCR_LB = 27, JUMP_LT = 28, JUMP_LE = 29,
+         JUMP_GE = 30, JUMP_GT = 31, JUMP_EQ = 32, JUMP_NE = 33, NOT = 34, AND = 35, OR = 36, NEG = 37, ADD = 38, SUB = 39, MULT = 40, DIV = 41,
+         MOD = 42, LT = 43, LE = 44, GE = 45, GT = 46, EQ = 47, NE = 48, ADD_L = 49, SUB_L = 50, MULT_L = 51, LT_L = 52, LE_L = 53, GE_L = 54,
+         GT_L = 55, EQ_L = 56, NE_L = 57, GENERIC = 58, END = 59;
+
+   // words per decoded instruction
+   static final int STRIDE = 3;
+
+   /**
+    * Decodes the code store of a run, CB..CT-1, into threaded form. An END operation is appended at CT so that running
+    * off the end of the code fails the same way it does in the switch engine.
+    */
+   static int[] decode(MachineState m) {
+      int ct = m.CT;
+      int[] decoded = new int[(ct + 1) * STRIDE];
+      for (int addr = Interpreter.CB; addr < ct; addr++) {
+         decodeInstruction(m, decoded, addr, m.code.instruction(addr));
+      }
+      decoded[ct * STRIDE] = END;
+      return decoded;
+   }
+
+   private static void decodeInstruction(MachineState m, int[] decoded, int addr, Instruction instr) {
+      int pc = addr * STRIDE;
+      int op = GENERIC, a = 0, b = 0;
+      boolean fixed = isFixedRegister(instr.r);
+      int base = fixed ? fixedContent(m, instr.r, addr) : 0;
+      Machine.Reg reg = Machine.intToReg[instr.r];
+
+      switch (Machine.intToOp[instr.op]) {
+         case LOAD:
+            if (fixed) {
+               op = LOAD_ABS;
+               a = base + instr.d;
+            }
+            else if (reg != Machine.Reg.HT) {
+               op = reg == Machine.Reg.LB ? LOAD_LB : reg == Machine.Reg.OB ? LOAD_OB : LOAD_ST;
+               a = instr.d;
+            }
+            break;
+         case LOADA:
+            if (fixed) {
+               op = LOADA;
+               a = base + instr.d;
+            }
+            else if (reg != Machine.Reg.HT) {
+               op = reg == Machine.Reg.LB ? LOADA_LB : reg == Machine.Reg.OB ? LOADA_OB : LOADA_ST;
+               a = instr.d;
+            }
+            break;
+         case LOADI:
+            op = LOADI;
+            break;
+         case LOADL:
+            op = LOADL;
+            a = instr.d;
+            break;
+         case STORE:
+            if (fixed) {
+               op = STORE_ABS;
+               a = base + instr.d;
+            }
+            else if (reg != Machine.Reg.HT) {
+               op = reg == Machine.Reg.LB ? STORE_LB : reg == Machine.Reg.OB ? STORE_OB : STORE_ST;
+               a = instr.d;
+            }
+            break;
+         case STOREI:
+            op = STOREI;
+            break;
+         case CALL:
+            if (fixed) {
+               a = base + instr.d;
+               if (a >= Machine.PB && a < Machine.PT) {
+                  op = CALL_PRIM;
+                  a = a - Machine.PB;
+                  if (Interpreter.fastArithmetic && primitiveOp(a) >= 0)
+                     op = primitiveOp(a);
+               }
+               else if (validCodeAddress(m, a)) {
+                  op = CALL;
+               }
+            }
+            break;
+         case CALLI:
+            if (fixed && base + instr.d < m.CT) {
+               op = CALLI;
+               a = base + instr.d;
+            }
+            break;
+         case CALLD:
+            op = CALLD;
+            a = instr.d;
+            b = instr.n;
+            break;
+         case RETURN:
+            if (instr.n >= 0 && instr.n <= 1) {
+               op = RETURN;
+               a = instr.d;
+               b = instr.n;
+            }
+            break;
+         case PUSH:
+            op = PUSH;
+            a = instr.d;
+            break;
+         case POP:
+            op = POP;
+            a = instr.d;
+            break;
+         case JUMP:
+            if (fixed && validCodeAddress(m, base + instr.d)) {
+               op = JUMP;
+               a = base + instr.d;
+            }
+            break;
+         case JUMPI:
+            op = JUMPI;
+            break;
+         case JUMPIF:
+            if (fixed && validCodeAddress(m, base + instr.d)) {
+               op = JUMPIF;
+               a = base + instr.d;
+               b = instr.n;
+            }
+            break;
+         case HALT:
+            op = HALT;
+            b = instr.n;
+            break;
+         case LOADLOP:
+            if (instr.n >= 0 && instr.n < Machine.intToPrim.length) {
+               op = LOADL_PRIM;
+               a = instr.d;
+               b = instr.n;
+               if (Interpreter.fastArithmetic && literalOp(instr.n) >= 0)
+                  op = literalOp(instr.n);
+            }
+            break;
+         case INCR:
+            if (reg == Machine.Reg.LB) {
+               op = INCR_LB;
+               a = instr.d;
+               b = instr.n;
+            }
+            break;
+         case JUMPCMP:
+            if (fixed && validCodeAddress(m, base + instr.d) && comparisonJumpOp(instr.n) >= 0) {
+               op = comparisonJumpOp(instr.n);
+               a = base + instr.d;
+            }
+            break;
+      }
+
+      decoded[pc] = op;
+      decoded[pc + 1] = a;
+      decoded[pc + 2] = b;
+   }
+
+   /**
+    * @return the operation for CALL prim[PB], or -1 if prim has no operation of its own
+    */
+   private static int primitiveOp(int prim) {
+      switch (Machine.intToPrim[prim]) {
+         case not:
+            return NOT;
+         case and:
+            return AND;
+         case or:
+            return OR;
+         case neg:
+            return NEG;
+         case add:
+            return ADD;
+         case sub:
+            return SUB;
+         case mult:
+            return MULT;
+         case div:
+            return DIV;
+         case mod:
+            return MOD;
+         case lt:
+            return LT;
+         case le:
+            return LE;
+         case ge:
+            return GE;
+         case gt:
+            return GT;
+         case eq:
+            return EQ;
+         case ne:
+            return NE;
+         default:
+            return -1;
+      }
+   }
+
+   /**
+    * @return the operation for LOADLOP prim d, or -1 if prim has no operation of its own
+    */
+   private static int literalOp(int prim) {
+      switch (Machine.intToPrim[prim]) {
+         case add:
+            return ADD_L;
+         case sub:
+            return SUB_L;
+         case mult:
+            return MULT_L;
+         case lt:
+            return LT_L;
+         case le:
+            return LE_L;
+         case ge:
+            return GE_L;
+         case gt:
+            return GT_L;
+         case eq:
+            return EQ_L;
+         case ne:
+            return NE_L;
+         default:
+            return -1;
+      }
+   }
+
+   /**
+    * @return the operation for JUMPCMP prim d[r], or -1 if prim is not a comparison
+    */
+   private static int comparisonJumpOp(int prim) {
+      if (prim < 0 || prim >= Machine.intToPrim.length)
+         return -1;
+      switch (Machine.intToPrim[prim]) {
+         case lt:
+            return JUMP_LT;
+         case le:
+            return JUMP_LE;
+         case ge:
+            return JUMP_GE;
+         case gt:
+            return JUMP_GT;
+         case eq:
+            return JUMP_EQ;
+         case ne:
+            return JUMP_NE;
+         default:
+            return -1;
+      }
+   }
+
+   private static boolean isFixedRegister(int r) {
+      switch (Machine.intToReg[r]) {
+         case ST:
+         case LB:
+         case OB:
+         case HT:
+            return false;
+         default:
+            return true;
+      }
+   }
+
+   private static int fixedContent(MachineState m, int r, int addr) {
+      if (Machine.intToReg[r] == Machine.Reg.CP)
+         return addr;
+      return m.content(r);
+   }
+
+   private static boolean validCodeAddress(MachineState m, int addr) {
+      return addr >= Interpreter.CB && addr < m.CT;
+   }
+
+   /**
+    * Decodes and runs the program of a run from its current registers until the machine stops running.
+    */
+   static void run(MachineState m) {
+      final int[] code = decode(m);
+      int[] data = m.data;
+      final int ct = m.CT;
+      int cp = m.CP, st = m.ST, lb = m.LB, ob = m.OB;
+      int pc, addr, x, y;
+      long count = 0;
+
+      loop: while (true) {
+         pc = cp * STRIDE;
+         count++;
+         switch (code[pc]) {
+            case LOAD_ABS:
+               if (st >= data.length && (data = growStack(m, st + 1)) == null)
+                  break loop;
+               data[st++] = m.load(code[pc + 1]);
+               cp++;
+               break;
+            case LOAD_LB:
+               if (st >= data.length && (data = growStack(m, st + 1)) == null)
+                  break loop;
+               data[st] = data[lb + code[pc + 1]];
+               st++;
+               cp++;
+               break;
+            case LOAD_OB:
+               if (st >= data.length && (data = growStack(m, st + 1)) == null)
+                  break loop;
+               data[st] = m.load(ob + code[pc + 1]);
+               st++;
+               cp++;
+               break;
+            case LOAD_ST:
+               if (st >= data.length && (data = growStack(m, st + 1)) == null)
+                  break loop;
+               data[st] = data[st + code[pc + 1]];
+               st++;
+               cp++;
+               break;
+            case LOADA:
+               if (st >= data.length && (data = growStack(m, st + 1)) == null)
+                  break loop;
+               data[st++] = code[pc + 1];
+               cp++;
+               break;
+            case LOADA_LB:
+               if (st >= data.length && (data = growStack(m, st + 1)) == null)
+                  break loop;
+               data[st++] = lb + code[pc + 1];
+               cp++;
+               break;
+            case LOADA_OB:
+               if (st >= data.length && (data = growStack(m, st + 1)) == null)
+                  break loop;
+               data[st++] = ob + code[pc + 1];
+               cp++;
+               break;
+            case LOADA_ST:
+               if (st >= data.length && (data = growStack(m, st + 1)) == null)
+                  break loop;
+               data[st] = st + code[pc + 1];
+               st++;
+               cp++;
+               break;
+            case LOADI:
+               data[st - 1] = m.load(data[st - 1]);
+               cp++;
+               break;
+            case LOADL:
+               if (st >= data.length && (data = growStack(m, st + 1)) == null)
+                  break loop;
+               data[st++] = code[pc + 1];
+               cp++;
+               break;
+            case STORE_ABS:
+               m.store(code[pc + 1], data[--st]);
+               cp++;
+               break;
+            case STORE_LB:
+               data[lb + code[pc + 1]] = data[--st];
+               cp++;
+               break;
+            case STORE_OB:
+               m.store(ob + code[pc + 1], data[--st]);
+               cp++;
+               break;
+            case STORE_ST:
+               addr = st + code[pc + 1];
+               data[addr] = data[--st];
+               cp++;
+               break;
+            case STOREI:
+               m.store(data[st - 1], data[st - 2]);
+               st = st - 2;
+               cp++;
+               break;
+            case CALL_PRIM:
+               // OB is a collector root for allocating primitives
+               m.ST = st;
+               m.OB = ob;
+               Interpreter.callPrimitive(m, code[pc + 1]);
+               st = m.ST;
+               data = m.data;
+               cp++;
+               if (m.status != Interpreter.running)
+                  break loop;
+               break;
+            case CALL:
+               if (st + 3 > data.length && (data = growStack(m, st + 3)) == null)
+                  break loop;
+               data[st] = ob;
+               data[st + 1] = lb;
+               data[st + 2] = cp + 1;
+               ob = Machine.nullRep;
+               lb = st;
+               st = st + 3;
+               cp = code[pc + 1];
+               break;
+            case CALLI:
+               if (st + 2 > data.length && (data = growStack(m, st + 2)) == null)
+                  break loop;
+               addr = data[st - 1];
+               data[st - 1] = ob;
+               data[st] = lb;
+               data[st + 1] = cp + 1;
+               ob = addr;
+               lb = st - 1;
+               st = st + 2;
+               cp = code[pc + 1];
+               break;
+            case CALLD: {
+               addr = data[st - 1];
+               if (m.invalidHeapRef(addr))
+                  break loop;
+               int classDescAddr = m.load(addr - 2);
+               int target = m.inlineCache.lookup(cp, classDescAddr);
+               if (target < 0) {
+                  int d = code[pc + 1];
+                  if (classDescAddr >= st || classDescAddr <= Interpreter.SB || d >= data[classDescAddr + 1] || d < 0) {
+                     m.status = Interpreter.failedMethodIndex;
+                     break loop;
+                  }
+                  target = data[classDescAddr + 2 + code[pc + 2]];
+                  if (target < Interpreter.CB || target >= ct) {
+                     m.status = Interpreter.failedInvalidCodeAddress;
+                     break loop;
+                  }
+                  m.inlineCache.update(cp, classDescAddr, target);
+               }
+               if (st + 2 > data.length && (data = growStack(m, st + 2)) == null)
+                  break loop;
+               st = st - 1;
+               data[st] = ob;
+               data[st + 1] = lb;
+               data[st + 2] = cp + 1;
+               ob = addr;
+               lb = st;
+               st = st + 3;
+               cp = target;
+               break;
+            }
+            case RETURN:
+               addr = lb - code[pc + 1];
+               ob = data[lb];
+               cp = data[lb + 2];
+               lb = data[lb + 1];
+               if (code[pc + 2] == 1)
+                  data[addr] = data[st - 1];
+               st = addr + code[pc + 2];
+               if (cp < Interpreter.CB || cp >= ct) {
+                  m.status = Interpreter.failedInvalidCodeAddress;
+                  break loop;
+               }
+               break;
+            case PUSH:
+               if (st + code[pc + 1] > data.length && (data = growStack(m, st + code[pc + 1])) == null)
+                  break loop;
+               st = st + code[pc + 1];
+               cp++;
+               break;
+            case POP:
+               st = st - code[pc + 1];
+               cp++;
+               break;
+            case JUMP:
+               cp = code[pc + 1];
+               break;
+            case JUMPI:
+               cp = data[--st];
+               if (cp < Interpreter.CB || cp >= ct) {
+                  m.status = Interpreter.failedInvalidCodeAddress;
+                  break loop;
+               }
+               break;
+            case JUMPIF:
+               if (data[--st] == code[pc + 2])
+                  cp = code[pc + 1];
+               else
+                  cp++;
+               break;
+            case HALT:
+               if (code[pc + 2] > 0) {
+                  // snapshot machine state and continue execution
+                  sync(m, cp, st, lb, ob);
+                  Interpreter.dump(m);
+                  cp++;
+               }
+               else {
+                  m.status = Interpreter.halted;
+                  break loop;
+               }
+               break;
+            case LOADL_PRIM:
+               if (st >= data.length && (data = growStack(m, st + 1)) == null)
+                  break loop;
+               data[st++] = code[pc + 1];
+               m.ST = st;
+               m.OB = ob;
+               Interpreter.executePrimitive(m, code[pc + 2]);
+               st = m.ST;
+               data = m.data;
+               cp++;
+               if (m.status != Interpreter.running)
+                  break loop;
+               break;
+            case INCR_LB:
+               addr = lb + code[pc + 1];
+               x = m.addChecked(data[addr], code[pc + 2]);
+               if (m.status != Interpreter.running)
+                  break loop;
+               data[addr] = x;
+               cp++;
+               break;
+            case JUMP_LT:
+               st = st - 2;
+               cp = data[st] < data[st + 1] ? code[pc + 1] : cp + 1;
+               break;
+            case JUMP_LE:
+               st = st - 2;
+               cp = data[st] <= data[st + 1] ? code[pc + 1] : cp + 1;
+               break;
+            case JUMP_GE:
+               st = st - 2;
+               cp = data[st] >= data[st + 1] ? code[pc + 1] : cp + 1;
+               break;
+            case JUMP_GT:
+               st = st - 2;
+               cp = data[st] > data[st + 1] ? code[pc + 1] : cp + 1;
+               break;
+            case JUMP_EQ:
+               st = st - 2;
+               cp = data[st] == data[st + 1] ? code[pc + 1] : cp + 1;
+               break;
+            case JUMP_NE:
+               st = st - 2;
+               cp = data[st] != data[st + 1] ? code[pc + 1] : cp + 1;
+               break;
+            case NOT:
+               data[st - 1] = Interpreter.toInt(data[st - 1] != Machine.trueRep);
+               cp++;
+               break;
+            case AND:
+               st--;
+               data[st - 1] = Interpreter.toInt(data[st - 1] == Machine.trueRep & data[st] == Machine.trueRep);
+               cp++;
+               break;
+            case OR:
+               st--;
+               data[st - 1] = Interpreter.toInt(data[st - 1] == Machine.trueRep | data[st] == Machine.trueRep);
+               cp++;
+               break;
+            case NEG:
+               x = data[st - 1];
+               data[st - 1] = x == Integer.MIN_VALUE ? m.overflow() : -x;
+               cp++;
+               if (m.status != Interpreter.running)
+                  break loop;
+               break;
+            case ADD:
+               st--;
+               data[st - 1] = m.addChecked(data[st - 1], data[st]);
+               cp++;
+               if (m.status != Interpreter.running)
+                  break loop;
+               break;
+            case SUB:
+               st--;
+               data[st - 1] = m.subChecked(data[st - 1], data[st]);
+               cp++;
+               if (m.status != Interpreter.running)
+                  break loop;
+               break;
+            case MULT:
+               st--;
+               data[st - 1] = m.multChecked(data[st - 1], data[st]);
+               cp++;
+               if (m.status != Interpreter.running)
+                  break loop;
+               break;
+            case DIV:
+               y = data[--st];
+               cp++;
+               if (y == 0) {
+                  m.status = Interpreter.failedZeroDivide;
+                  break loop;
+               }
+               data[st - 1] = data[st - 1] / y;
+               break;
+            case MOD:
+               y = data[--st];
+               cp++;
+               if (y == 0) {
+                  m.status = Interpreter.failedZeroDivide;
+                  break loop;
+               }
+               data[st - 1] = data[st - 1] % y;
+               break;
+            case LT:
+               st--;
+               data[st - 1] = Interpreter.toInt(data[st - 1] < data[st]);
+               cp++;
+               break;
+            case LE:
+               st--;
+               data[st - 1] = Interpreter.toInt(data[st - 1] <= data[st]);
+               cp++;
+               break;
+            case GE:
+               st--;
+               data[st - 1] = Interpreter.toInt(data[st - 1] >= data[st]);
+               cp++;
+               break;
+            case GT:
+               st--;
+               data[st - 1] = Interpreter.toInt(data[st - 1] > data[st]);
+               cp++;
+               break;
+            case EQ:
+               st--;
+               data[st - 1] = Interpreter.toInt(data[st - 1] == data[st]);
+               cp++;
+               break;
+            case NE:
+               st--;
+               data[st - 1] = Interpreter.toInt(data[st - 1] != data[st]);
+               cp++;
+               break;
+            case ADD_L:
+               data[st - 1] = m.addChecked(data[st - 1], code[pc + 1]);
+               cp++;
+               if (m.status != Interpreter.running)
+                  break loop;
+               break;
+            case SUB_L:
+               data[st - 1] = m.subChecked(data[st - 1], code[pc + 1]);
+               cp++;
+               if (m.status != Interpreter.running)
+                  break loop;
+               break;
+            case MULT_L:
+               data[st - 1] = m.multChecked(data[st - 1], code[pc + 1]);
+               cp++;
+               if (m.status != Interpreter.running)
+                  break loop;
+               break;
+            case LT_L:
+               data[st - 1] = Interpreter.toInt(data[st - 1] < code[pc + 1]);
+               cp++;
+               break;
+            case LE_L:
+               data[st - 1] = Interpreter.toInt(data[st - 1] <= code[pc + 1]);
+               cp++;
+               break;
+            case GE_L:
+               data[st - 1] = Interpreter.toInt(data[st - 1] >= code[pc + 1]);
+               cp++;
+               break;
+            case GT_L:
+               data[st - 1] = Interpreter.toInt(data[st - 1] > code[pc + 1]);
+               cp++;
+               break;
+            case EQ_L:
+               data[st - 1] = Interpreter.toInt(data[st - 1] == code[pc + 1]);
+               cp++;
+               break;
+            case NE_L:
+               data[st - 1] = Interpreter.toInt(data[st - 1] != code[pc + 1]);
+               cp++;
+               break;
+            case GENERIC:
+               sync(m, cp, st, lb, ob);
+               Interpreter.interpretOneOperation(m);
+               cp = m.CP;
+               st = m.ST;
+               lb = m.LB;
+               ob = m.OB;
+               data = m.data;
+               if (m.status != Interpreter.running)
+                  break loop;
+               break;
+            case END:
+               m.status = Interpreter.failedInvalidCodeAddress;
+               break loop;
+         }
+      }
+
+      sync(m, cp, st, lb, ob);
+      m.instructionCount += count;
+   }
+
+   /**
+    * Grows the stack segment to at least size words.
+    * 
+    * @return the new stack segment, or null if the stack limit has been reached
+    */
+   private static int[] growStack(MachineState m, int size) {
+      if (!m.growStack(size))
+         return null;
+      return m.data;
+   }
+
+   private static void sync(MachineState m, int cp, int st, int lb, int ob) {
+      m.CP = cp;
+      m.ST = st;
+      m.LB = lb;
+      m.OB = ob;
+   }
+}
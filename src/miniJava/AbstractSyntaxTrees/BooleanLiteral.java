@@ -12,9 +12,16 @@ public class BooleanLiteral extends Literal {
 
    public BooleanLiteral(String spelling, SourcePosition posn) {
       super(spelling, posn);
+      value = spelling.equals("true");
+   }
+
+   public BooleanLiteral(boolean value, SourcePosition posn) {
+      this(Boolean.toString(value), posn);
    }
 
    public <A, R> R visit(Visitor<A, R> v, A o) {
       return v.visitBooleanLiteral(this, o);
    }
+
+   public boolean value;
 }
@@ -22,6 +22,10 @@ public class ClassDeclList implements Iterable<ClassDecl> {
       return classDeclList.get(i);
    }
 
+   public void set(int i, ClassDecl cd) {
+      classDeclList.set(i, cd);
+   }
+
    public int size() {
       return classDeclList.size();
    }
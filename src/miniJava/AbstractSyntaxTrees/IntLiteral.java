@@ -10,11 +10,23 @@ import miniJava.SyntacticAnalyzer.SourcePosition;
 
 public class IntLiteral extends Literal {
 
+   /**
+    * @throws NumberFormatException
+    *            if the spelling is out of the range of int
+    */
    public IntLiteral(String s, SourcePosition posn) {
       super(s, posn);
+      value = Integer.parseInt(s);
+   }
+
+   public IntLiteral(int value, SourcePosition posn) {
+      super(Integer.toString(value), posn);
+      this.value = value;
    }
 
    public <A, R> R visit(Visitor<A, R> v, A o) {
       return v.visitIntLiteral(this, o);
    }
+
+   public int value;
 }
\ No newline at end of file
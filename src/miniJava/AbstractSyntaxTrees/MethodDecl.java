@@ -28,4 +28,5 @@ public class MethodDecl extends MemberDecl {
    public Expression         returnExp;
    public boolean            isMain;
    public ArrayList<Integer> patchList = new ArrayList<Integer>();
+   public boolean            inlined;
 }
@@ -22,6 +22,10 @@ public class MethodDeclList implements Iterable<MethodDecl> {
       return methodDeclList.get(i);
    }
 
+   public void set(int i, MethodDecl cd) {
+      methodDeclList.set(i, cd);
+   }
+
    public int size() {
       return methodDeclList.size();
    }
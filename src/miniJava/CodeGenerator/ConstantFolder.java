@@ -0,0 +1,407 @@
+package miniJava.CodeGenerator;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import miniJava.Logger;
+import miniJava.AbstractSyntaxTrees.*;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.SyntacticAnalyzer.SourcePosition;
+import miniJava.SyntacticAnalyzer.TokenKind;
+
+/**
+ * Simplifies a type checked AST before it is encoded. Operators applied to literals are replaced by their result,
+ * unless the result would overflow or divide by zero, which is left to fail at run time. Operations that leave their
+ * other operand unchanged, such as x + 0 or true && b, are replaced by that operand, and false && b and true || b by
+ * their result without evaluating b. Local variables that are never assigned after their declaration, and whose
+ * initial value folds to a literal, are replaced by that literal where they are used.
+ *
+ * Expression visits return the expression to use in place of the one visited; all other visits return null.
+ */
+public class ConstantFolder implements Visitor<Void, Expression> {
+
+   private final Logger                    logger;
+   private Set<Declaration>                assignedLocals = new HashSet<Declaration>();
+   private Map<Declaration, LiteralExpr>   constantLocals = new HashMap<Declaration, LiteralExpr>();
+
+   public ConstantFolder(Logger logger) {
+      this.logger = logger;
+   }
+
+   private void log(String msg) {
+      logger.error(msg);
+   }
+
+   public void fold(AST ast) {
+      try {
+         ast.visit(this, null);
+      }
+      catch (Exception e) {
+         log(e.getMessage());
+      }
+   }
+
+   @Override
+   public Expression visitPackage(Package prog, Void none) {
+      for (ClassDecl c : prog.classDeclList) {
+         c.visit(this, null);
+      }
+      return null;
+   }
+
+   @Override
+   public Expression visitClassDecl(ClassDecl cd, Void none) {
+      for (MethodDecl m : cd.methodDeclList) {
+         m.visit(this, null);
+      }
+      return null;
+   }
+
+   @Override
+   public Expression visitFieldDecl(FieldDecl fd, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitMethodDecl(MethodDecl md, Void none) {
+      assignedLocals.clear();
+      constantLocals.clear();
+      for (Statement s : md.statementList) {
+         findAssignedLocals(s);
+      }
+
+      for (Statement s : md.statementList) {
+         s.visit(this, null);
+      }
+      if (md.returnExp != null) {
+         md.returnExp = md.returnExp.visit(this, null);
+      }
+      return null;
+   }
+
+   /**
+    * Finds the local variables assigned to in a statement, which cannot be replaced by their initial value.
+    *
+    * @param stmt
+    */
+   private void findAssignedLocals(Statement stmt) {
+      if (stmt instanceof AssignStmt) {
+         Reference ref = ((AssignStmt) stmt).ref;
+         if (ref instanceof IdRef && ref.decl instanceof LocalDecl) {
+            assignedLocals.add(ref.decl);
+         }
+      }
+      else if (stmt instanceof BlockStmt) {
+         for (Statement s : ((BlockStmt) stmt).sl) {
+            findAssignedLocals(s);
+         }
+      }
+      else if (stmt instanceof IfStmt) {
+         IfStmt ifStmt = (IfStmt) stmt;
+         findAssignedLocals(ifStmt.thenStmt);
+         if (ifStmt.elseStmt != null) {
+            findAssignedLocals(ifStmt.elseStmt);
+         }
+      }
+      else if (stmt instanceof WhileStmt) {
+         findAssignedLocals(((WhileStmt) stmt).body);
+      }
+   }
+
+   @Override
+   public Expression visitParameterDecl(ParameterDecl pd, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitVarDecl(VarDecl decl, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitBaseType(BaseType type, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitClassType(ClassType type, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitArrayType(ArrayType type, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitBlockStmt(BlockStmt stmt, Void none) {
+      for (Statement s : stmt.sl) {
+         s.visit(this, null);
+      }
+      return null;
+   }
+
+   @Override
+   public Expression visitVardeclStmt(VarDeclStmt stmt, Void none) {
+      stmt.initExp = stmt.initExp.visit(this, null);
+      if (stmt.initExp instanceof LiteralExpr && !assignedLocals.contains(stmt.varDecl)) {
+         constantLocals.put(stmt.varDecl, (LiteralExpr) stmt.initExp);
+      }
+      return null;
+   }
+
+   @Override
+   public Expression visitAssignStmt(AssignStmt stmt, Void none) {
+      stmt.ref.visit(this, null);
+      stmt.val = stmt.val.visit(this, null);
+      return null;
+   }
+
+   @Override
+   public Expression visitCallStmt(CallStmt stmt, Void none) {
+      stmt.methodRef.visit(this, null);
+      foldArguments(stmt.argList);
+      return null;
+   }
+
+   @Override
+   public Expression visitIfStmt(IfStmt stmt, Void none) {
+      stmt.cond = stmt.cond.visit(this, null);
+      stmt.thenStmt.visit(this, null);
+      if (stmt.elseStmt != null) {
+         stmt.elseStmt.visit(this, null);
+      }
+      return null;
+   }
+
+   @Override
+   public Expression visitWhileStmt(WhileStmt stmt, Void none) {
+      stmt.cond = stmt.cond.visit(this, null);
+      stmt.body.visit(this, null);
+      return null;
+   }
+
+   @Override
+   public Expression visitUnaryExpr(UnaryExpr expr, Void none) {
+      expr.expr = expr.expr.visit(this, null);
+      if (!(expr.expr instanceof LiteralExpr)) {
+         return expr;
+      }
+
+      Literal operand = ((LiteralExpr) expr.expr).literal;
+      TokenKind kind = expr.operator.token.kind;
+      if (kind == TokenKind.NOT && operand instanceof BooleanLiteral) {
+         return literal(!((BooleanLiteral) operand).value, expr.posn);
+      }
+      if (kind == TokenKind.SUB && operand instanceof IntLiteral && ((IntLiteral) operand).value != Integer.MIN_VALUE) {
+         return literal(-((IntLiteral) operand).value, expr.posn);
+      }
+      return expr;
+   }
+
+   @Override
+   public Expression visitBinaryExpr(BinaryExpr expr, Void none) {
+      expr.left = expr.left.visit(this, null);
+      expr.right = expr.right.visit(this, null);
+      TokenKind kind = expr.operator.token.kind;
+      Literal left = expr.left instanceof LiteralExpr ? ((LiteralExpr) expr.left).literal : null;
+      Literal right = expr.right instanceof LiteralExpr ? ((LiteralExpr) expr.right).literal : null;
+
+      if (left instanceof IntLiteral && right instanceof IntLiteral) {
+         Expression folded = foldInt(kind, ((IntLiteral) left).value, ((IntLiteral) right).value, expr.posn);
+         if (folded != null) {
+            return folded;
+         }
+      }
+      else if (left instanceof BooleanLiteral && right instanceof BooleanLiteral) {
+         boolean l = ((BooleanLiteral) left).value, r = ((BooleanLiteral) right).value;
+         if (kind == TokenKind.EQUALITY) {
+            return literal(l == r, expr.posn);
+         }
+         if (kind == TokenKind.NOT_EQUAL) {
+            return literal(l != r, expr.posn);
+         }
+      }
+
+      // Logical operators with a literal left operand decide without, or become, the right operand.
+      if (left instanceof BooleanLiteral && (kind == TokenKind.AND || kind == TokenKind.OR)) {
+         boolean l = ((BooleanLiteral) left).value;
+         if (kind == TokenKind.AND) {
+            return l ? expr.right : expr.left;
+         }
+         return l ? expr.left : expr.right;
+      }
+
+      // The right operand is evaluated either way, so only identities can be dropped.
+      if (right instanceof BooleanLiteral) {
+         boolean r = ((BooleanLiteral) right).value;
+         if ((kind == TokenKind.AND && r) || (kind == TokenKind.OR && !r)) {
+            return expr.left;
+         }
+      }
+      if (right instanceof IntLiteral) {
+         int r = ((IntLiteral) right).value;
+         if (((kind == TokenKind.ADD || kind == TokenKind.SUB) && r == 0) || ((kind == TokenKind.MULTI || kind == TokenKind.DIVIDE) && r == 1)) {
+            return expr.left;
+         }
+      }
+      if (left instanceof IntLiteral) {
+         int l = ((IntLiteral) left).value;
+         if ((kind == TokenKind.ADD && l == 0) || (kind == TokenKind.MULTI && l == 1)) {
+            return expr.right;
+         }
+      }
+      return expr;
+   }
+
+   /**
+    * Applies a binary operator to two int values.
+    *
+    * @return the result, or null if it cannot be computed at compile time
+    */
+   private Expression foldInt(TokenKind kind, int l, int r, SourcePosition posn) {
+      long result;
+      if (kind == TokenKind.ADD) {
+         result = (long) l + r;
+      }
+      else if (kind == TokenKind.SUB) {
+         result = (long) l - r;
+      }
+      else if (kind == TokenKind.MULTI) {
+         result = (long) l * r;
+      }
+      else if (kind == TokenKind.DIVIDE) {
+         if (r == 0) {
+            return null;
+         }
+         result = l / r;
+      }
+      else if (kind == TokenKind.GREATER_THAN) {
+         return literal(l > r, posn);
+      }
+      else if (kind == TokenKind.GT_EQUAL) {
+         return literal(l >= r, posn);
+      }
+      else if (kind == TokenKind.LESS_THAN) {
+         return literal(l < r, posn);
+      }
+      else if (kind == TokenKind.LT_EQUAL) {
+         return literal(l <= r, posn);
+      }
+      else if (kind == TokenKind.EQUALITY) {
+         return literal(l == r, posn);
+      }
+      else if (kind == TokenKind.NOT_EQUAL) {
+         return literal(l != r, posn);
+      }
+      else {
+         return null;
+      }
+
+      // Overflow is reported at run time.
+      if (result != (int) result) {
+         return null;
+      }
+      return literal((int) result, posn);
+   }
+
+   @Override
+   public Expression visitRefExpr(RefExpr expr, Void none) {
+      if (expr.ref instanceof IdRef && constantLocals.containsKey(expr.ref.decl)) {
+         Literal value = constantLocals.get(expr.ref.decl).literal;
+         if (value instanceof IntLiteral) {
+            return literal(((IntLiteral) value).value, expr.posn);
+         }
+         return literal(((BooleanLiteral) value).value, expr.posn);
+      }
+      expr.ref.visit(this, null);
+      return expr;
+   }
+
+   @Override
+   public Expression visitCallExpr(CallExpr expr, Void none) {
+      expr.functionRef.visit(this, null);
+      foldArguments(expr.argList);
+      return expr;
+   }
+
+   private void foldArguments(ExprList args) {
+      for (int i = 0; i < args.size(); i++) {
+         args.set(i, args.get(i).visit(this, null));
+      }
+   }
+
+   @Override
+   public Expression visitLiteralExpr(LiteralExpr expr, Void none) {
+      expr.literal.visit(this, null);
+      return expr;
+   }
+
+   @Override
+   public Expression visitNewObjectExpr(NewObjectExpr expr, Void none) {
+      return expr;
+   }
+
+   @Override
+   public Expression visitNewArrayExpr(NewArrayExpr expr, Void none) {
+      expr.sizeExpr = expr.sizeExpr.visit(this, null);
+      return expr;
+   }
+
+   @Override
+   public Expression visitQualifiedRef(QualifiedRef ref, Void none) {
+      ref.ref.visit(this, null);
+      return null;
+   }
+
+   @Override
+   public Expression visitIndexedRef(IndexedRef ref, Void none) {
+      ref.ref.visit(this, null);
+      ref.indexExpr = ref.indexExpr.visit(this, null);
+      return null;
+   }
+
+   @Override
+   public Expression visitIdRef(IdRef ref, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitThisRef(ThisRef ref, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitIdentifier(Identifier id, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitOperator(Operator op, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitIntLiteral(IntLiteral num, Void none) {
+      return null;
+   }
+
+   @Override
+   public Expression visitBooleanLiteral(BooleanLiteral bool, Void none) {
+      return null;
+   }
+
+   private static LiteralExpr literal(int value, SourcePosition posn) {
+      LiteralExpr expr = new LiteralExpr(new IntLiteral(value, posn), posn);
+      expr.type = new BaseType(TypeKind.INT, posn);
+      return expr;
+   }
+
+   private static LiteralExpr literal(boolean value, SourcePosition posn) {
+      LiteralExpr expr = new LiteralExpr(new BooleanLiteral(value, posn), posn);
+      expr.type = new BaseType(TypeKind.BOOLEAN, posn);
+      return expr;
+   }
+}
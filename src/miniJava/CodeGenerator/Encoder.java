@@ -1,7 +1,12 @@
 package miniJava.CodeGenerator;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
 
+import mJAM.CodeStore;
 import mJAM.Machine;
 import mJAM.Machine.Op;
 import mJAM.Machine.Prim;
@@ -10,6 +15,7 @@ import miniJava.Logger;
 import miniJava.AbstractSyntaxTrees.*;
 import miniJava.AbstractSyntaxTrees.Package;
 import miniJava.ContextualAnalyzer.BaseTypes;
+import miniJava.SyntacticAnalyzer.SourcePosition;
 import miniJava.SyntacticAnalyzer.TokenKind;
 
 /**
@@ -20,13 +26,44 @@ import miniJava.SyntacticAnalyzer.TokenKind;
  */
 public class Encoder implements Visitor<Object, Void> {
 
-   private final Logger logger;
-   private int          lbOffset = 3;
-   private boolean      visitingLeftValueOfAssignStmt;
-   private int          mainAddr;
-
-   public Encoder(Logger logger) {
+   // The largest return expression, in AST nodes, of a method inlined at its calls; 0 turns inlining off.
+   public static int       inlineBudget   = Integer.getInteger("miniJava.inlineBudget", 8);
+   public static boolean   reportInlining = Boolean.getBoolean("miniJava.inlineReport");
+   // Whether calls of a method by itself in tail position jump back to its entry instead.
+   public static boolean   tailCalls      = !"off".equalsIgnoreCase(System.getProperty("miniJava.tailCalls"));
+
+   private final Logger    logger;
+   private final CodeStore code;
+   private int             lbOffset       = 3;
+   private boolean         visitingLeftValueOfAssignStmt;
+   private int             mainAddr;
+
+   // Methods whose ASTs are complete and may be inlined, or null if all are.
+   private Set<MethodDecl> inlinable;
+   // While a program is encoded one class at a time: where its classes come from, and those read ahead of the one
+   // being encoded.
+   private ClassSource     source;
+   private Queue<ClassDecl> readAhead;
+   // While a method is inlined: the method, the words given to it on the stack, and the words pushed since.
+   private MethodDecl      inlinedMethod;
+   private int             inlineSlots;
+   private int             inlineDepth;
+   private boolean         inlineReceiverOnStack;
+
+   /**
+    * Hands over the classes of a program in program order, each checked and folded, while later classes are still
+    * being parsed and checked.
+    */
+   public interface ClassSource {
+      /**
+       * @return the next class, or null at the end of the program
+       */
+      ClassDecl next();
+   }
+
+   public Encoder(Logger logger, CodeStore code) {
       this.logger = logger;
+      this.code = code;
    }
 
    private void log(String msg) {
@@ -42,56 +79,148 @@ public class Encoder implements Visitor<Object, Void> {
       }
    }
 
+   /**
+    * Encodes a single method at the end of the code store, as when a method is compiled again after an edit. Calls to
+    * other methods use the addresses they were given when the program was encoded.
+    * 
+    * @param md
+    */
+   public void encodeMethod(MethodDecl md) {
+      try {
+         md.address = code.nextInstrAddr();
+         if (md.isMain) {
+            this.mainAddr = md.address;
+         }
+         md.visit(this, null);
+      }
+      catch (Exception e) {
+         log(e.getMessage());
+      }
+   }
+
+   /**
+    * Encodes a program one class at a time, as its classes are checked. A call of a method in a class not yet handed
+    * over reads ahead to that class before deciding whether to inline it, so the code is the same as for the whole
+    * program encoded at once.
+    * 
+    * @param classes
+    */
+   public void encodeProgram(ClassSource classes) {
+      source = classes;
+      readAhead = new ArrayDeque<ClassDecl>();
+      inlinable = new HashSet<MethodDecl>();
+      code.initCodeGen();
+      encodeArrayClass();
+      for (ClassDecl cd = nextClass(); cd != null; cd = nextClass()) {
+         // An encoding error ends the encoding, as it would for the whole program.
+         if (logger.hasErrors()) {
+            continue;
+         }
+         try {
+            cd.visit(this, null);
+         }
+         catch (Exception e) {
+            log(e.getMessage());
+         }
+      }
+      encodeMainCall();
+      inlinable = null;
+   }
+
+   private ClassDecl nextClass() {
+      return readAhead.isEmpty() ? readClass() : readAhead.remove();
+   }
+
+   /**
+    * @return the next class from the source, or null at the end of the program
+    */
+   private ClassDecl readClass() {
+      if (source == null) {
+         return null;
+      }
+      ClassDecl cd = source.next();
+      if (cd == null) {
+         source = null;
+         return null;
+      }
+      for (MethodDecl m : cd.methodDeclList) {
+         inlinable.add(m);
+      }
+      return cd;
+   }
+
+   /**
+    * Reads classes ahead until the one declaring md has been handed over.
+    * 
+    * @return false if the program ended first
+    */
+   private boolean readAheadTo(MethodDecl md) {
+      while (!inlinable.contains(md)) {
+         ClassDecl cd = readClass();
+         if (cd == null) {
+            return false;
+         }
+         readAhead.add(cd);
+      }
+      return true;
+   }
+
    @Override
    public Void visitPackage(Package prog, Object arg) {
-      Machine.initCodeGen();
-
-      // Array.
-      int p_ArrayClass = Machine.nextInstrAddr();
-      Machine.emit(Op.JUMP, Reg.CB, 0);
-      // Array length method.
-      int addr = Machine.nextInstrAddr();
-      BaseTypes.ARRAY_LENGTH_DECL.address = addr;
-      Machine.emit(Op.LOAD, Reg.OB, -1);
-      Machine.emit(Op.RETURN, 1, 0, 0);
-      // Array class object.
-      int l_ArrayClass = Machine.nextInstrAddr();
-      Machine.patch(p_ArrayClass, l_ArrayClass);
-      Machine.emit(Op.LOADL, -1); // No super class.
-      Machine.emit(Op.LOADL, 1); // Number of methods.
-      Machine.emit(Op.LOADA, Reg.CB, addr); // Address of methods
+      code.initCodeGen();
+      encodeArrayClass();
 
       // Other classes.
       for (ClassDecl c : prog.classDeclList) {
          c.visit(this, null);
       }
 
-      // Call to main.
-      Machine.emit(Op.LOADL, Machine.nullRep); // 'args' param to main is null.
-      Machine.emit(Op.CALL, Reg.CB, this.mainAddr); // call main.
-      Machine.emit(Op.HALT);
-
+      encodeMainCall();
       return null;
    }
 
+   private void encodeArrayClass() {
+
+      // Array.
+      int p_ArrayClass = code.nextInstrAddr();
+      code.emit(Op.JUMP, Reg.CB, 0);
+      // Array length method.
+      int addr = code.nextInstrAddr();
+      BaseTypes.ARRAY_LENGTH_DECL.address = addr;
+      code.emit(Op.LOAD, Reg.OB, -1);
+      code.emit(Op.RETURN, 1, 0, 0);
+      // Array class object.
+      int l_ArrayClass = code.nextInstrAddr();
+      code.patch(p_ArrayClass, l_ArrayClass);
+      code.emit(Op.LOADL, -1); // No super class.
+      code.emit(Op.LOADL, 1); // Number of methods.
+      code.emit(Op.LOADA, Reg.CB, addr); // Address of methods
+   }
+
+   private void encodeMainCall() {
+      code.emit(Op.LOADL, Machine.nullRep); // 'args' param to main is null.
+      code.emit(Op.CALL, Reg.CB, this.mainAddr); // call main.
+      code.emit(Op.HALT);
+   }
+
    @Override
    public Void visitClassDecl(ClassDecl cd, Object arg) {
       for (FieldDecl f : cd.fieldDeclList) {
          f.visit(this, null);
       }
 
-      int p_ClassObject = Machine.nextInstrAddr();
-      Machine.emit(Op.JUMP, Reg.CB, 0);
+      int p_ClassObject = code.nextInstrAddr();
+      code.emit(Op.JUMP, Reg.CB, 0);
 
       ArrayList<Integer> methodAddr = new ArrayList<Integer>();
       for (MethodDecl m : cd.methodDeclList) {
-         int addr = Machine.nextInstrAddr();
+         int addr = code.nextInstrAddr();
          methodAddr.add(addr);
          m.address = addr;
 
          // Patch
          for (Integer p : m.patchList) {
-            Machine.patch(p, m.address);
+            code.patch(p, m.address);
          }
 
          if (m.isMain) {
@@ -102,12 +231,12 @@ public class Encoder implements Visitor<Object, Void> {
       }
 
       // Build class object.
-      int l_ClassObject = Machine.nextInstrAddr();
-      Machine.patch(p_ClassObject, l_ClassObject);
-      Machine.emit(Op.LOADL, -1); // No super class.
-      Machine.emit(Op.LOADL, cd.methodDeclList.size()); // Number of methods.
+      int l_ClassObject = code.nextInstrAddr();
+      code.patch(p_ClassObject, l_ClassObject);
+      code.emit(Op.LOADL, -1); // No super class.
+      code.emit(Op.LOADL, cd.methodDeclList.size()); // Number of methods.
       for (Integer addr : methodAddr) {
-         Machine.emit(Op.LOADA, Reg.CB, addr); // Address of methods
+         code.emit(Op.LOADA, Reg.CB, addr); // Address of methods
       }
 
       return null;
@@ -122,6 +251,7 @@ public class Encoder implements Visitor<Object, Void> {
    public Void visitMethodDecl(MethodDecl md, Object arg) {
       // Reset local base offset.
       this.lbOffset = 3;
+      int entryAddr = code.nextInstrAddr();
 
       // Parameters.
       for (ParameterDecl pd : md.parameterDeclList) {
@@ -135,20 +265,134 @@ public class Encoder implements Visitor<Object, Void> {
 
       // Return.
       if (md.returnExp != null) {
-         md.returnExp.visit(this, null);
-         // Return 1 value & pop args.
-         int args = md.parameterDeclList.size();
-         Machine.emit(Op.RETURN, 1, 0, args);
+         int locals = tailCalls ? localsOnStack(md.statementList) : -1;
+         encodeReturn(md, md.returnExp, entryAddr, locals);
       }
       else {
          // Implicit return.
          int args = md.parameterDeclList.size();
-         Machine.emit(Op.RETURN, 0, 0, args);
+         code.emit(Op.RETURN, 0, 0, args);
       }
 
       return null;
    }
 
+   /**
+    * Encodes the return of the value of expr from md. A call of md by itself whose value is returned, directly or as
+    * the right operand of && or ||, is a tail call: its arguments replace the parameters and control jumps back to the
+    * entry of md, so that recursion runs in constant stack space. This needs the words above the frame at the return
+    * to be known, so tail calls are only eliminated when locals is not -1.
+    * 
+    * @param md
+    * @param expr
+    * @param entryAddr
+    * @param locals - the number of locals on the stack at the return, or -1 if it is not known
+    */
+   private void encodeReturn(MethodDecl md, Expression expr, int entryAddr, int locals) {
+      int args = md.parameterDeclList.size();
+      if (locals >= 0 && expr instanceof BinaryExpr && hasTailCall(md, expr)) {
+         // The left operand decides the value when it is false for &&, or true for ||; otherwise the right one is returned.
+         BinaryExpr binary = (BinaryExpr) expr;
+         boolean decidingValue = binary.operator.token.kind == TokenKind.OR;
+         ArrayList<Integer> decided = encodeJump(binary.left, decidingValue);
+         encodeReturn(md, binary.right, entryAddr, locals);
+         patchAll(decided, code.nextInstrAddr());
+         code.emit(Op.LOADL, decidingValue ? Machine.trueRep : Machine.falseRep);
+         code.emit(Op.RETURN, 1, 0, args);
+      }
+      else if (locals >= 0 && isSelfCall(md, expr)) {
+         ExprList argList = ((CallExpr) expr).argList;
+         for (Expression e : argList) {
+            e.visit(this, null);
+         }
+         // The arguments are all evaluated before any parameter is replaced, as they may read the parameters.
+         for (int i = args - 1; i >= 0; i--) {
+            code.emit(Op.STORE, Reg.LB, md.parameterDeclList.get(i).offset);
+         }
+         if (locals > 0) {
+            code.emit(Op.POP, locals);
+         }
+         code.emit(Op.JUMP, Reg.CB, entryAddr);
+      }
+      else {
+         expr.visit(this, null);
+         // Return 1 value & pop args.
+         code.emit(Op.RETURN, 1, 0, args);
+      }
+   }
+
+   /**
+    * @return true if expr is a call of md by itself, or a && or || whose right operand has one in tail position
+    */
+   private static boolean hasTailCall(MethodDecl md, Expression expr) {
+      if (expr instanceof BinaryExpr) {
+         BinaryExpr binary = (BinaryExpr) expr;
+         return isLogical(binary.operator) && hasTailCall(md, binary.right);
+      }
+      return isSelfCall(md, expr);
+   }
+
+   /**
+    * @return true if expr calls md on the same object, or md is static
+    */
+   private static boolean isSelfCall(MethodDecl md, Expression expr) {
+      if (!(expr instanceof CallExpr)) {
+         return false;
+      }
+      Reference ref = ((CallExpr) expr).functionRef;
+      return ref.decl == md && (ref instanceof IdRef || (ref instanceof QualifiedRef && ((QualifiedRef) ref).ref instanceof ThisRef));
+   }
+
+   /**
+    * Counts the locals on the stack after a method's statements. Locals declared in the branches of an if or the body of
+    * a while, and the results left by calls of methods as statements, are not counted.
+    * 
+    * @param statements
+    * @return the number of locals, or -1 if the statements may leave other words on the stack
+    */
+   private static int localsOnStack(StatementList statements) {
+      int locals = 0;
+      for (Statement s : statements) {
+         if (s instanceof VarDeclStmt) {
+            locals++;
+         }
+         else if (s instanceof BlockStmt) {
+            int inner = localsOnStack(((BlockStmt) s).sl);
+            if (inner < 0) {
+               return -1;
+            }
+            locals += inner;
+         }
+         else if (!leavesStack(s)) {
+            return -1;
+         }
+      }
+      return locals;
+   }
+
+   /**
+    * @return true if s is known to leave the stack as it found it
+    */
+   private static boolean leavesStack(Statement s) {
+      if (s instanceof AssignStmt) {
+         return true;
+      }
+      if (s instanceof CallStmt) {
+         return ((CallStmt) s).methodRef.decl.type.typeKind == TypeKind.VOID;
+      }
+      if (s instanceof BlockStmt) {
+         return localsOnStack(((BlockStmt) s).sl) == 0;
+      }
+      if (s instanceof IfStmt) {
+         IfStmt stmt = (IfStmt) s;
+         return leavesStack(stmt.thenStmt) && (stmt.elseStmt == null || leavesStack(stmt.elseStmt));
+      }
+      if (s instanceof WhileStmt) {
+         return leavesStack(((WhileStmt) s).body);
+      }
+      return false;
+   }
+
    @Override
    public Void visitParameterDecl(ParameterDecl pd, Object arg) {
       return null;
@@ -198,21 +442,21 @@ public class Encoder implements Visitor<Object, Void> {
          stmt.ref.visit(this, false);
          this.visitingLeftValueOfAssignStmt = false;
          stmt.val.visit(this, null);
-         Machine.emit(Prim.arrayupd);
+         code.emit(Prim.arrayupd);
       }
       else if (stmt.ref instanceof QualifiedRef) {
          this.visitingLeftValueOfAssignStmt = true;
          stmt.ref.visit(this, false);
          this.visitingLeftValueOfAssignStmt = false;
          stmt.val.visit(this, null);
-         Machine.emit(Prim.fieldupd);
+         code.emit(Prim.fieldupd);
       }
       else if (stmt.ref.decl instanceof FieldDecl) {
          this.visitingLeftValueOfAssignStmt = true;
          stmt.ref.visit(this, false);
          this.visitingLeftValueOfAssignStmt = false;
          stmt.val.visit(this, null);
-         Machine.emit(Prim.fieldupd);
+         code.emit(Prim.fieldupd);
       }
       else {
          stmt.val.visit(this, null);
@@ -226,13 +470,17 @@ public class Encoder implements Visitor<Object, Void> {
 
    @Override
    public Void visitCallStmt(CallStmt stmt, Object arg) {
+      if (encodeInline(stmt.methodRef, stmt.argList, stmt.posn)) {
+         return null;
+      }
+
       for (Expression e : stmt.argList) {
          e.visit(this, null);
       }
 
       // If the call is not qualified add an implicit 'this' reference.
       if (stmt.methodRef instanceof IdRef) {
-         Machine.emit(Op.LOADA, Reg.OB, 0);
+         code.emit(Op.LOADA, Reg.OB, 0);
       }
 
       stmt.methodRef.visit(this, null);
@@ -241,24 +489,23 @@ public class Encoder implements Visitor<Object, Void> {
 
    @Override
    public Void visitIfStmt(IfStmt stmt, Object arg) {
-      // Condition.
-      stmt.cond.visit(this, null);
-      int jumpIfAddr = Machine.nextInstrAddr();
-      // If condition false, jump to the next label (either else or end of then block).
-      Machine.emit(Op.JUMPIF, Machine.falseRep, Machine.CB, 0);
+      // Condition. If false, jump to the next label (either else or end of then block).
+      ArrayList<Integer> falseJumps = encodeJump(stmt.cond, false);
 
       // Then.
       stmt.thenStmt.visit(this, null);
-      int jumpAddr = Machine.nextInstrAddr();
+      if (stmt.elseStmt == null) {
+         patchAll(falseJumps, code.nextInstrAddr());
+         return null;
+      }
+      int jumpAddr = code.nextInstrAddr();
       // Jump to end of if/else block.
-      Machine.emit(Op.JUMP, Reg.CB, 0);
-      Machine.patch(jumpIfAddr, Machine.nextInstrAddr());
+      code.emit(Op.JUMP, Reg.CB, 0);
+      patchAll(falseJumps, code.nextInstrAddr());
 
       // Else.
-      if (stmt.elseStmt != null) {
-         stmt.elseStmt.visit(this, null);
-      }
-      Machine.patch(jumpAddr, Machine.nextInstrAddr());
+      stmt.elseStmt.visit(this, null);
+      code.patch(jumpAddr, code.nextInstrAddr());
 
       return null;
    }
@@ -266,22 +513,71 @@ public class Encoder implements Visitor<Object, Void> {
    @Override
    public Void visitWhileStmt(WhileStmt stmt, Object arg) {
       // Jump to condition.
-      int jumpAddr = Machine.nextInstrAddr();
-      Machine.emit(Op.JUMP, Reg.CB, 0);
+      int jumpAddr = code.nextInstrAddr();
+      code.emit(Op.JUMP, Reg.CB, 0);
 
       // Body.
-      int loopAddr = Machine.nextInstrAddr();
+      int loopAddr = code.nextInstrAddr();
       stmt.body.visit(this, null);
-      Machine.patch(jumpAddr, Machine.nextInstrAddr());
+      code.patch(jumpAddr, code.nextInstrAddr());
 
-      // Condition.
-      stmt.cond.visit(this, null);
-      // If condition is true, jump to the loop.
-      Machine.emit(Op.JUMPIF, Machine.trueRep, Reg.CB, loopAddr);
+      // Condition. If true, jump to the loop.
+      patchAll(encodeJump(stmt.cond, true), loopAddr);
 
       return null;
    }
 
+   /**
+    * Encodes a condition as a branch rather than as a value: control jumps when the condition has the given value and
+    * falls through otherwise. The operands of && and || are only evaluated as far as needed to decide the condition.
+    * 
+    * @param cond
+    * @param jumpWhen
+    * @return the addresses of the jumps, to be patched with their target
+    */
+   private ArrayList<Integer> encodeJump(Expression cond, boolean jumpWhen) {
+      ArrayList<Integer> jumps = new ArrayList<Integer>();
+      if (cond instanceof BinaryExpr && isLogical(((BinaryExpr) cond).operator)) {
+         BinaryExpr expr = (BinaryExpr) cond;
+         // The left operand decides the condition when it is false for &&, or true for ||.
+         boolean decidingValue = expr.operator.token.kind == TokenKind.OR;
+         if (jumpWhen == decidingValue) {
+            jumps.addAll(encodeJump(expr.left, jumpWhen));
+            jumps.addAll(encodeJump(expr.right, jumpWhen));
+         }
+         else {
+            ArrayList<Integer> decided = encodeJump(expr.left, decidingValue);
+            jumps.addAll(encodeJump(expr.right, jumpWhen));
+            patchAll(decided, code.nextInstrAddr());
+         }
+      }
+      else if (cond instanceof UnaryExpr && ((UnaryExpr) cond).operator.token.kind == TokenKind.NOT) {
+         jumps.addAll(encodeJump(((UnaryExpr) cond).expr, !jumpWhen));
+      }
+      else if (cond instanceof LiteralExpr && ((LiteralExpr) cond).literal instanceof BooleanLiteral) {
+         if (((BooleanLiteral) ((LiteralExpr) cond).literal).value == jumpWhen) {
+            jumps.add(code.nextInstrAddr());
+            code.emit(Op.JUMP, Reg.CB, 0);
+         }
+      }
+      else {
+         cond.visit(this, null);
+         jumps.add(code.nextInstrAddr());
+         code.emit(Op.JUMPIF, jumpWhen ? Machine.trueRep : Machine.falseRep, Reg.CB, 0);
+      }
+      return jumps;
+   }
+
+   private void patchAll(ArrayList<Integer> jumps, int target) {
+      for (Integer addr : jumps) {
+         code.patch(addr, target);
+      }
+   }
+
+   private static boolean isLogical(Operator op) {
+      return op.token.kind == TokenKind.AND || op.token.kind == TokenKind.OR;
+   }
+
    @Override
    public Void visitUnaryExpr(UnaryExpr expr, Object arg) {
       expr.expr.visit(this, null);
@@ -291,8 +587,22 @@ public class Encoder implements Visitor<Object, Void> {
 
    @Override
    public Void visitBinaryExpr(BinaryExpr expr, Object arg) {
+      // Short-circuit && and || through branches, then load the value decided.
+      if (isLogical(expr.operator)) {
+         ArrayList<Integer> falseJumps = encodeJump(expr, false);
+         code.emit(Op.LOADL, Machine.trueRep);
+         int jumpAddr = code.nextInstrAddr();
+         code.emit(Op.JUMP, Reg.CB, 0);
+         patchAll(falseJumps, code.nextInstrAddr());
+         code.emit(Op.LOADL, Machine.falseRep);
+         code.patch(jumpAddr, code.nextInstrAddr());
+         return null;
+      }
+
       expr.left.visit(this, null);
+      inlineDepth++;
       expr.right.visit(this, null);
+      inlineDepth--;
       expr.operator.visit(this, true);
       return null;
    }
@@ -305,6 +615,10 @@ public class Encoder implements Visitor<Object, Void> {
 
    @Override
    public Void visitCallExpr(CallExpr expr, Object arg) {
+      if (encodeInline(expr.functionRef, expr.argList, expr.posn)) {
+         return null;
+      }
+
       for (Expression e : expr.argList) {
          e.visit(this, null);
       }
@@ -313,11 +627,11 @@ public class Encoder implements Visitor<Object, Void> {
       if (expr.functionRef instanceof QualifiedRef) {
          QualifiedRef qr = (QualifiedRef) expr.functionRef;
          if (!(qr.ref instanceof ThisRef) && !(qr.ref.decl instanceof VarDecl)) {
-            Machine.emit(Op.LOADA, Reg.OB, 0);
+            code.emit(Op.LOADA, Reg.OB, 0);
          }
       }
       else {
-         Machine.emit(Op.LOADA, Reg.OB, 0);
+         code.emit(Op.LOADA, Reg.OB, 0);
       }
 
       expr.functionRef.visit(this, null);
@@ -333,9 +647,9 @@ public class Encoder implements Visitor<Object, Void> {
    @Override
    public Void visitNewObjectExpr(NewObjectExpr expr, Object arg) {
       ClassDecl cd = (ClassDecl) expr.classtype.className.decl;
-      Machine.emit(Op.LOADL, -1); // class object address
-      Machine.emit(Op.LOADL, cd.fieldDeclList.size()); // num fields
-      Machine.emit(Prim.newobj);
+      code.emit(Op.LOADL, -1); // class object address
+      code.emit(Op.LOADL, cd.fieldDeclList.size()); // num fields
+      code.emit(Prim.newobj);
       return null;
    }
 
@@ -343,7 +657,7 @@ public class Encoder implements Visitor<Object, Void> {
    public Void visitNewArrayExpr(NewArrayExpr expr, Object arg) {
       expr.eltType.visit(this, null);
       expr.sizeExpr.visit(this, null);
-      Machine.emit(Prim.newarr);
+      code.emit(Prim.newarr);
       return null;
    }
 
@@ -362,13 +676,13 @@ public class Encoder implements Visitor<Object, Void> {
 
          // If first item of lvalue qualified ref is field, then get value of field.
          if (this.visitingLeftValueOfAssignStmt && ref.ref.decl instanceof FieldDecl) {
-            Machine.emit(Prim.fieldref);
+            code.emit(Prim.fieldref);
          }
 
          // Normal field.
-         Machine.emit(Op.LOADL, fd.index);
+         code.emit(Op.LOADL, fd.index);
          if (!this.visitingLeftValueOfAssignStmt) {
-            Machine.emit(Prim.fieldref);
+            code.emit(Prim.fieldref);
          }
       }
 
@@ -376,12 +690,12 @@ public class Encoder implements Visitor<Object, Void> {
       else if (ref.decl instanceof MethodDecl && !ref.decl.name.equals("println")) {
          MethodDecl md = (MethodDecl) ref.decl;
          if (md.address == 0) {
-            int tempAddr = Machine.nextInstrAddr();
+            int tempAddr = code.nextInstrAddr();
             md.patchList.add(tempAddr);
-            Machine.emit(Op.CALLI, Reg.CB, tempAddr);
+            code.emit(Op.CALLI, Reg.CB, tempAddr);
          }
          else {
-            Machine.emit(Op.CALLI, Reg.CB, md.address);
+            code.emit(Op.CALLI, Reg.CB, md.address);
          }
       }
 
@@ -394,7 +708,7 @@ public class Encoder implements Visitor<Object, Void> {
       ref.indexExpr.visit(this, null);
 
       if (!this.visitingLeftValueOfAssignStmt) {
-         Machine.emit(Prim.arrayref);
+         code.emit(Prim.arrayref);
       }
 
       return null;
@@ -408,7 +722,7 @@ public class Encoder implements Visitor<Object, Void> {
 
    @Override
    public Void visitThisRef(ThisRef ref, Object arg) {
-      Machine.emit(Op.LOADA, Reg.OB, 0);
+      code.emit(Op.LOADA, Reg.OB, 0);
       return null;
    }
 
@@ -416,7 +730,7 @@ public class Encoder implements Visitor<Object, Void> {
    public Void visitIdentifier(Identifier id, Object arg) {
       // HACK for println
       if (id.spelling.equals("System")) {
-         Machine.emit(Prim.putintnl);
+         code.emit(Prim.putintnl);
          return null;
       }
 
@@ -427,45 +741,191 @@ public class Encoder implements Visitor<Object, Void> {
       }
 
       // Get address.
-      if (id.decl instanceof FieldDecl) {
+      if (id.decl instanceof FieldDecl && inlinedMethod != null && inlineReceiverOnStack) {
+         // A field of the receiver of an inlined call, which is the last word given to it.
+         FieldDecl fd = (FieldDecl) id.decl;
+         code.emit(Op.LOAD, Reg.ST, -(1 + inlineDepth));
+         code.emit(Op.LOADL, fd.index);
+         code.emit(Prim.fieldref);
+      }
+      else if (id.decl instanceof FieldDecl) {
          FieldDecl fd = (FieldDecl) id.decl;
          if (this.visitingLeftValueOfAssignStmt) {
-            Machine.emit(Op.LOADA, Reg.OB, 0);
-            Machine.emit(Op.LOADL, fd.index);
+            code.emit(Op.LOADA, Reg.OB, 0);
+            code.emit(Op.LOADL, fd.index);
          }
          else {
             // Load the value.
-            Machine.emit(op, Reg.OB, fd.index);
+            code.emit(op, Reg.OB, fd.index);
          }
       }
       else if (id.decl instanceof MethodDecl && !id.decl.name.equals("println")) {
          MethodDecl md = (MethodDecl) id.decl;
          if (md.address == 0) {
-            int tempAddr = Machine.nextInstrAddr();
+            int tempAddr = code.nextInstrAddr();
             md.patchList.add(tempAddr);
-            Machine.emit(Op.CALLI, Reg.CB, tempAddr);
+            code.emit(Op.CALLI, Reg.CB, tempAddr);
          }
          else {
-            Machine.emit(Op.CALLI, Reg.CB, md.address);
+            code.emit(Op.CALLI, Reg.CB, md.address);
          }
       }
+      else if (id.decl instanceof ParameterDecl && inlinedMethod != null) {
+         // The arguments of an inlined call are below the words pushed since.
+         int slot = indexOf(inlinedMethod.parameterDeclList, (ParameterDecl) id.decl);
+         code.emit(Op.LOAD, Reg.ST, -(inlineSlots - slot + inlineDepth));
+      }
       else if (id.decl instanceof ParameterDecl) {
          ParameterDecl pd = (ParameterDecl) id.decl;
-         Machine.emit(Op.LOAD, Reg.LB, pd.offset);
+         code.emit(Op.LOAD, Reg.LB, pd.offset);
       }
       else {
-         Machine.emit(op, Reg.LB, id.decl.address);
+         code.emit(op, Reg.LB, id.decl.address);
       }
 
       return null;
    }
 
+   /**
+    * Encodes a call by the body of the method called, if it is small enough. A method can be inlined if its body is
+    * just a return of an expression over literals, its parameters and fields of its object, of at most inlineBudget
+    * nodes. The arguments are pushed as for a call and the expression reads them relative to ST; the result then
+    * replaces them. Methods are never overridden in miniJava, so every call can be bound to the method declared.
+    * 
+    * @param ref
+    * @param args
+    * @param posn
+    * @return true if the call was inlined
+    */
+   private boolean encodeInline(Reference ref, ExprList args, SourcePosition posn) {
+      if (!(ref.decl instanceof MethodDecl) || ref.decl.name.equals("println") || inlinedMethod != null) {
+         return false;
+      }
+      MethodDecl md = (MethodDecl) ref.decl;
+      String reason = inlineRefusal(md, ref);
+      if (reportInlining) {
+         logger.note((reason == null ? "Inlined" : "Did not inline") + " call to '" + md.name + "' " + posn + (reason == null ? "." : ": " + reason + "."));
+      }
+      if (reason != null) {
+         return false;
+      }
+
+      for (Expression e : args) {
+         e.visit(this, null);
+      }
+      // The receiver is only needed for its fields, and is OB unless the call is qualified by a local variable.
+      boolean receiverOnStack = ref instanceof QualifiedRef && ((QualifiedRef) ref).ref instanceof IdRef && usesFields(md.returnExp);
+      if (receiverOnStack) {
+         ((QualifiedRef) ref).ref.visit(this, null);
+      }
+
+      int savedDepth = inlineDepth;
+      inlinedMethod = md;
+      inlineSlots = args.size() + (receiverOnStack ? 1 : 0);
+      inlineDepth = 0;
+      inlineReceiverOnStack = receiverOnStack;
+      try {
+         md.returnExp.visit(this, null);
+      }
+      finally {
+         inlinedMethod = null;
+         inlineDepth = savedDepth;
+      }
+
+      // Replace the words given to the method by its result.
+      if (inlineSlots > 0) {
+         code.emit(Op.STORE, Reg.ST, -(inlineSlots + 1));
+      }
+      if (inlineSlots > 1) {
+         code.emit(Op.POP, inlineSlots - 1);
+      }
+      md.inlined = true;
+      return true;
+   }
+
+   /**
+    * @return why a call of md through ref cannot be inlined, or null if it can
+    */
+   private String inlineRefusal(MethodDecl md, Reference ref) {
+      if (inlineBudget <= 0) {
+         return "inlining is off";
+      }
+      if (inlinable != null && !readAheadTo(md)) {
+         return "its class has errors";
+      }
+      if (md.statementList.size() > 0 || md.returnExp == null) {
+         return "its body is more than a return expression";
+      }
+      if (ref instanceof QualifiedRef) {
+         Reference receiver = ((QualifiedRef) ref).ref;
+         if (!(receiver instanceof ThisRef) && !(receiver instanceof IdRef && receiver.decl instanceof VarDecl)) {
+            return "the receiver is not this or a local variable";
+         }
+      }
+      int size = inlineSize(md.returnExp);
+      if (size < 0) {
+         return "its return expression has calls, objects or arrays";
+      }
+      if (size > inlineBudget) {
+         return "its return expression has " + size + " nodes, over the budget of " + inlineBudget;
+      }
+      return null;
+   }
+
+   /**
+    * @return the number of nodes in an expression that can be inlined, or -1 if it cannot
+    */
+   private int inlineSize(Expression expr) {
+      if (expr instanceof LiteralExpr) {
+         return 1;
+      }
+      if (expr instanceof RefExpr && ((RefExpr) expr).ref instanceof IdRef) {
+         Declaration decl = ((RefExpr) expr).ref.decl;
+         if (decl instanceof ParameterDecl || (decl instanceof FieldDecl && !((FieldDecl) decl).isStatic)) {
+            return 1;
+         }
+         return -1;
+      }
+      if (expr instanceof UnaryExpr) {
+         int size = inlineSize(((UnaryExpr) expr).expr);
+         return size < 0 ? -1 : size + 1;
+      }
+      if (expr instanceof BinaryExpr) {
+         int left = inlineSize(((BinaryExpr) expr).left);
+         int right = inlineSize(((BinaryExpr) expr).right);
+         return left < 0 || right < 0 ? -1 : left + right + 1;
+      }
+      return -1;
+   }
+
+   private boolean usesFields(Expression expr) {
+      if (expr instanceof RefExpr) {
+         return ((RefExpr) expr).ref.decl instanceof FieldDecl;
+      }
+      if (expr instanceof UnaryExpr) {
+         return usesFields(((UnaryExpr) expr).expr);
+      }
+      if (expr instanceof BinaryExpr) {
+         return usesFields(((BinaryExpr) expr).left) || usesFields(((BinaryExpr) expr).right);
+      }
+      return false;
+   }
+
+   private static int indexOf(ParameterDeclList params, ParameterDecl pd) {
+      for (int i = 0; i < params.size(); i++) {
+         if (params.get(i) == pd) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
    @Override
    public Void visitOperator(Operator op, Object arg) {
       boolean isBinary = (Boolean) arg;
       TokenKind kind = op.token.kind;
       Prim primOp = getPrimOp(kind, isBinary);
-      Machine.emit(primOp);
+      code.emit(primOp);
       return null;
    }
 
@@ -499,19 +959,17 @@ public class Encoder implements Visitor<Object, Void> {
 
    @Override
    public Void visitIntLiteral(IntLiteral num, Object arg) {
-      int val = Integer.parseInt(num.spelling);
-      Machine.emit(Op.LOADL, val);
+      code.emit(Op.LOADL, num.value);
       return null;
    }
 
    @Override
    public Void visitBooleanLiteral(BooleanLiteral bool, Object arg) {
-      boolean val = Boolean.parseBoolean(bool.spelling);
-      if (val) {
-         Machine.emit(Op.LOADL, Machine.trueRep);
+      if (bool.value) {
+         code.emit(Op.LOADL, Machine.trueRep);
       }
       else {
-         Machine.emit(Op.LOADL, Machine.falseRep);
+         code.emit(Op.LOADL, Machine.falseRep);
       }
       return null;
    }
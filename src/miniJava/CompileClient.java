@@ -0,0 +1,86 @@
+package miniJava;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Sends requests to a running {@link CompileServer}: compiles the given source files, or with -stats or -shutdown
+ * queries or stops the server. Diagnostics are printed as the compiler would print them, and the exit code is that of
+ * the compilation (4 if the server can not be reached).
+ */
+public class CompileClient {
+
+   public static void main(String[] args) {
+      int port = CompileServer.DEFAULT_PORT;
+      int exitCode = 0;
+      boolean requested = false;
+      for (String arg : args) {
+         String request;
+         if (arg.startsWith("-port=")) {
+            port = Integer.parseInt(arg.substring("-port=".length()));
+            continue;
+         }
+         else if (arg.equals("-stats")) {
+            request = "STATS";
+         }
+         else if (arg.equals("-shutdown")) {
+            request = "SHUTDOWN";
+         }
+         else {
+            request = "COMPILE " + new File(arg).getAbsolutePath();
+         }
+         requested = true;
+         exitCode = Math.max(exitCode, send(port, request));
+      }
+      if (!requested) {
+         System.err.println("Must input names of '.java' or '.mjava' files, -stats or -shutdown.");
+         exitCode = 4;
+      }
+      System.exit(exitCode);
+   }
+
+   /**
+    * Sends one request, printing the answer.
+    * 
+    * @return the exit code sent by the server
+    */
+   private static int send(int port, String request) {
+      Socket socket = null;
+      try {
+         socket = new Socket(InetAddress.getLoopbackAddress(), port);
+         PrintStream out = new PrintStream(socket.getOutputStream(), false, "UTF-8");
+         out.println(request);
+         out.flush();
+         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+         for (String line = in.readLine(); line != null; line = in.readLine()) {
+            if (line.startsWith("EXIT ")) {
+               return Integer.parseInt(line.substring("EXIT ".length()));
+            }
+            if (!line.startsWith("OBJECT ")) {
+               System.out.println(line);
+            }
+         }
+         System.err.println("Compile server closed the connection.");
+         return 4;
+      }
+      catch (IOException e) {
+         System.err.println("Unable to reach compile server on port " + port + ": " + e.getMessage());
+         return 4;
+      }
+      finally {
+         try {
+            if (socket != null) {
+               socket.close();
+            }
+         }
+         catch (IOException e) {
+            // already closed
+         }
+      }
+   }
+}
@@ -0,0 +1,315 @@
+package miniJava;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mJAM.CodeStore;
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.FieldDeclList;
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.AbstractSyntaxTrees.MethodDeclList;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGenerator.ConstantFolder;
+import miniJava.CodeGenerator.Encoder;
+import miniJava.ContextualAnalyzer.IdentificationChecker;
+import miniJava.ContextualAnalyzer.TypeChecker;
+import miniJava.SyntacticAnalyzer.Parser;
+import miniJava.SyntacticAnalyzer.Scanner;
+import miniJava.SyntacticAnalyzer.SourceFile;
+import miniJava.SyntacticAnalyzer.SourcePosition;
+
+/**
+ * Compiles one program with parsing, checking and code generation running at the same time. The parser runs on the
+ * calling thread and hands over each class as soon as it is parsed; one thread checks the classes and another encodes
+ * them, each fed through a bounded queue so that no stage runs far ahead of the next.
+ *
+ * A class may refer to classes declared after it, so it is checked against the classes declared so far. If the check
+ * finds an undefined identifier, the class waits for a class of that name and is checked again when one arrives, or
+ * at the end of the program. Type errors are held back per class, and classes are encoded in program order once they
+ * and all classes before them have passed identification. Diagnostics are the same as for a sequential compilation;
+ * programs whose class names clash with each other or with the standard environment are checked sequentially.
+ */
+class CompilePipeline {
+
+   private static final ClassDecl         END            = new ClassDecl("", new FieldDeclList(), new MethodDeclList(), SourcePosition.DUMMY_POSITION);
+   private static final int               QUEUE_CAPACITY = 64;
+
+   private final Logger                   logger;
+   private final BlockingQueue<ClassDecl> parsed         = new ArrayBlockingQueue<ClassDecl>(QUEUE_CAPACITY);
+   private final BlockingQueue<ClassDecl> checked        = new ArrayBlockingQueue<ClassDecl>(QUEUE_CAPACITY);
+
+   // Analysis state, one entry per class in program order.
+   private IdentificationChecker          idChecker;
+   private List<ClassDecl>                classes        = new ArrayList<ClassDecl>();
+   private List<String>                   idErrors       = new ArrayList<String>();
+   private List<Boolean>                  identified     = new ArrayList<Boolean>();
+   private List<TypeResult>               typeResults    = new ArrayList<TypeResult>();
+   private Map<String, List<Integer>>     waiting        = new HashMap<String, List<Integer>>();
+   private int                            encoded;
+   private boolean                        clash;
+   private boolean                        allDeclared;
+
+   // Encoder state, held back until the program is known to be correct.
+   private ByteArrayOutputStream          encoderOutput  = new ByteArrayOutputStream();
+   private Logger                         encoderLogger  = new Logger(new PrintStream(encoderOutput));
+   private CodeStore                      code           = new CodeStore();
+
+   /**
+    * The type errors found in one class.
+    */
+   private static class TypeResult {
+      String  output;
+      Logger  logger;
+      boolean complete;
+   }
+
+   CompilePipeline(Logger logger) {
+      this.logger = logger;
+      this.idChecker = new IdentificationChecker(logger);
+   }
+
+   /**
+    * Compiles a source file.
+    *
+    * @param source
+    * @return the code, or null if the program has errors
+    */
+   CodeStore compile(SourceFile source) {
+      ExecutorService stages = Executors.newFixedThreadPool(2);
+      try {
+         Future<Void> analysis = stages.submit(new Callable<Void>() {
+            public Void call() throws InterruptedException {
+               analyze();
+               return null;
+            }
+         });
+         Future<Void> encoding = stages.submit(new Callable<Void>() {
+            public Void call() throws InterruptedException {
+               encode();
+               return null;
+            }
+         });
+
+         Package pkg = null;
+         try {
+            Parser parser = new Parser(new Scanner(source, logger).tokens(), logger);
+            pkg = parser.parse(new Parser.ClassDeclHandler() {
+               public void handle(ClassDecl cd) {
+                  put(parsed, cd);
+               }
+            });
+         }
+         finally {
+            put(parsed, END);
+         }
+         analysis.get();
+
+         if (logger.hasErrors() || clash) {
+            put(checked, END);
+            encoding.get();
+            if (logger.hasErrors()) {
+               return null;
+            }
+            // Classes already encoded must be encoded again.
+            for (ClassDecl c : pkg.classDeclList) {
+               for (MethodDecl m : c.methodDeclList) {
+                  m.address = 0;
+                  m.isMain = false;
+                  m.patchList.clear();
+               }
+            }
+            return Compiler.checkAndEncode(pkg, logger);
+         }
+
+         finishAnalysis();
+         put(checked, END);
+         encoding.get();
+         if (!report(pkg)) {
+            return null;
+         }
+         logger.report(encoderLogger, encoderOutput.toString());
+         return logger.hasErrors() ? null : code;
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         logger.error("Compilation interrupted.");
+         return null;
+      }
+      catch (ExecutionException e) {
+         logger.error(String.valueOf(e.getCause()));
+         return null;
+      }
+      finally {
+         stages.shutdownNow();
+      }
+   }
+
+   /**
+    * Declares and checks classes as they are parsed, until the end of the program.
+    */
+   private void analyze() throws InterruptedException {
+      idChecker.beginClasses();
+      for (ClassDecl cd = parsed.take(); cd != END; cd = parsed.take()) {
+         classes.add(cd);
+         idErrors.add(null);
+         identified.add(false);
+         typeResults.add(null);
+         if (!idChecker.declareClass(cd)) {
+            clash = true;
+         }
+         if (clash) {
+            continue;
+         }
+
+         check(classes.size() - 1);
+         List<Integer> woken = waiting.remove(cd.name);
+         if (woken != null) {
+            for (int i : woken) {
+               check(i);
+            }
+         }
+         feedEncoder();
+      }
+   }
+
+   /**
+    * Checks the classes still waiting for an undefined identifier, now that every class has been declared.
+    */
+   private void finishAnalysis() throws InterruptedException {
+      allDeclared = true;
+      for (int i = 0; i < classes.size(); i++) {
+         if (!identified.get(i) && idErrors.get(i) == null) {
+            check(i);
+         }
+      }
+      waiting.clear();
+      feedEncoder();
+   }
+
+   /**
+    * Checks one class against the classes declared so far, type checking it if its identifiers are all defined. Until
+    * every class has been declared, an undefined identifier only makes the class wait.
+    *
+    * @param i
+    */
+   private void check(int i) {
+      ClassDecl cd = classes.get(i);
+      String error = idChecker.checkClass(cd);
+      if (error == null) {
+         identified.set(i, true);
+         ByteArrayOutputStream output = new ByteArrayOutputStream();
+         TypeResult result = new TypeResult();
+         result.logger = new Logger(new PrintStream(output));
+         result.complete = new TypeChecker(result.logger).checkClass(cd);
+         result.output = output.toString();
+         typeResults.set(i, result);
+      }
+      else if (!allDeclared && idChecker.getUndefinedName() != null) {
+         List<Integer> classesWaiting = waiting.get(idChecker.getUndefinedName());
+         if (classesWaiting == null) {
+            classesWaiting = new ArrayList<Integer>();
+            waiting.put(idChecker.getUndefinedName(), classesWaiting);
+         }
+         classesWaiting.add(i);
+      }
+      else {
+         idErrors.set(i, error);
+      }
+   }
+
+   /**
+    * Hands the encoder every class whose identifiers, and those of all classes before it, have been checked.
+    */
+   private void feedEncoder() throws InterruptedException {
+      while (encoded < classes.size() && identified.get(encoded)) {
+         checked.put(classes.get(encoded++));
+      }
+   }
+
+   /**
+    * Folds constants in and encodes classes in program order as they are handed over, until the end of the program. A
+    * class calling a method of a later class waits for that class before deciding whether to inline the call.
+    */
+   private void encode() throws InterruptedException {
+      final ConstantFolder folder = new ConstantFolder(encoderLogger);
+      Encoder encoder = new Encoder(encoderLogger, code);
+      encoder.encodeProgram(new Encoder.ClassSource() {
+         public ClassDecl next() {
+            ClassDecl cd;
+            try {
+               cd = checked.take();
+            }
+            catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               return null;
+            }
+            if (cd == END) {
+               return null;
+            }
+            if (!encoderLogger.hasErrors()) {
+               folder.fold(cd);
+            }
+            return cd;
+         }
+      });
+      if (Thread.currentThread().isInterrupted()) {
+         throw new InterruptedException();
+      }
+   }
+
+   /**
+    * Reports the errors of the checked program in the order a sequential check would find them.
+    *
+    * @param pkg
+    * @return true if there are none
+    */
+   private boolean report(Package pkg) {
+      for (int i = 0; i < classes.size(); i++) {
+         if (idErrors.get(i) != null) {
+            logger.contextError(idErrors.get(i));
+            return false;
+         }
+      }
+      idChecker.checkMainMethod(pkg);
+      if (logger.hasErrors()) {
+         return false;
+      }
+      for (TypeResult result : typeResults) {
+         logger.report(result.logger, result.output);
+         if (!result.complete) {
+            break;
+         }
+      }
+      return !logger.hasErrors();
+   }
+
+   /**
+    * Puts a class on a queue, waiting for room however long it takes.
+    */
+   private static void put(BlockingQueue<ClassDecl> queue, ClassDecl cd) {
+      boolean interrupted = false;
+      while (true) {
+         try {
+            queue.put(cd);
+            break;
+         }
+         catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted) {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
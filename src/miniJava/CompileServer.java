@@ -0,0 +1,155 @@
+package miniJava;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-running compiler that serves {@link CompileClient} requests on a loopback port, so that compilations after
+ * the first run on an already warmed-up JVM.
+ * 
+ * Every request is one line: "COMPILE path" compiles the source file at path, writing its object file next to it as
+ * the command-line compiler does, and answers with the diagnostics followed by "OBJECT path" (on success) and
+ * "EXIT code". "STATS" answers with the number of requests served and latency percentiles, and "SHUTDOWN" stops the
+ * server. Each compilation builds its own scanner, parser, checkers and encoder: they hold per-program state, and are
+ * cheap next to the compilation itself.
+ */
+public class CompileServer {
+
+   public static final int  DEFAULT_PORT = 5200;
+
+   // latencies of the most recent requests, in microseconds
+   private static final int LATENCY_WINDOW = 10000;
+   private static long[]    latencies      = new long[LATENCY_WINDOW];
+   private static long      requests;
+
+   private static volatile boolean running = true;
+
+   public static void main(String[] args) {
+      int port = DEFAULT_PORT;
+      int jobs = Runtime.getRuntime().availableProcessors();
+      try {
+         for (String arg : args) {
+            if (arg.startsWith("-port=")) {
+               port = Integer.parseInt(arg.substring("-port=".length()));
+            }
+            else if (arg.startsWith("-jobs=")) {
+               jobs = Integer.parseInt(arg.substring("-jobs=".length()));
+            }
+            else {
+               throw new IllegalArgumentException(arg);
+            }
+         }
+         if (jobs <= 0) {
+            throw new IllegalArgumentException("-jobs=" + jobs);
+         }
+      }
+      catch (IllegalArgumentException e) {
+         System.err.println("Invalid option: " + e.getMessage());
+         System.exit(4);
+      }
+
+      ServerSocket server = null;
+      ExecutorService pool = Executors.newFixedThreadPool(jobs);
+      try {
+         server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+         System.out.println("Compile server listening on " + server.getLocalSocketAddress() + " with " + jobs + " workers");
+         while (running) {
+            final Socket client = server.accept();
+            final ServerSocket listener = server;
+            pool.execute(new Runnable() {
+               public void run() {
+                  serve(client, listener);
+               }
+            });
+         }
+      }
+      catch (IOException e) {
+         if (running) {
+            System.err.println(e.getMessage());
+            System.exit(4);
+         }
+      }
+      finally {
+         pool.shutdown();
+      }
+   }
+
+   private static void serve(Socket client, ServerSocket server) {
+      try {
+         BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+         PrintStream out = new PrintStream(client.getOutputStream(), false, "UTF-8");
+         String request = in.readLine();
+         if (request == null) {
+            // nothing asked
+         }
+         else if (request.startsWith("COMPILE ")) {
+            long startTime = System.nanoTime();
+            Compiler.BatchResult result = Compiler.compileFile(request.substring("COMPILE ".length()));
+            record((System.nanoTime() - startTime) / 1000);
+            out.print(result.diagnostics);
+            if (result.exitCode == 0) {
+               out.println("OBJECT " + Compiler.objectFileName(result.file));
+            }
+            out.println("EXIT " + result.exitCode);
+         }
+         else if (request.equals("STATS")) {
+            out.println(statistics());
+            out.println("EXIT 0");
+         }
+         else if (request.equals("SHUTDOWN")) {
+            out.println("EXIT 0");
+            out.flush();
+            running = false;
+            server.close();
+         }
+         else {
+            out.println("Unknown request: " + request);
+            out.println("EXIT 4");
+         }
+         out.flush();
+      }
+      catch (IOException e) {
+         // the client went away
+      }
+      finally {
+         try {
+            client.close();
+         }
+         catch (IOException e) {
+            // already closed
+         }
+      }
+   }
+
+   private static synchronized void record(long micros) {
+      latencies[(int) (requests % LATENCY_WINDOW)] = micros;
+      requests++;
+   }
+
+   /**
+    * @return the number of requests and the latency percentiles over the most recent ones
+    */
+   static synchronized String statistics() {
+      int count = (int) Math.min(requests, LATENCY_WINDOW);
+      if (count == 0) {
+         return "0 requests";
+      }
+      long[] sorted = Arrays.copyOf(latencies, count);
+      Arrays.sort(sorted);
+      return String.format("%d requests, latency over the last %d: p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms", requests, count,
+            percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted[count - 1] / 1000.0);
+   }
+
+   private static double percentile(long[] sorted, int p) {
+      int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+      return sorted[Math.max(index, 0)] / 1000.0;
+   }
+}
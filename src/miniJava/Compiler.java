@@ -1,8 +1,25 @@
 package miniJava;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import mJAM.CodeStore;
 import mJAM.ObjectFile;
+import mJAM.PeepholeOptimizer;
+import mJAM.SuperinstructionFuser;
 import miniJava.AbstractSyntaxTrees.AST;
 import miniJava.AbstractSyntaxTrees.ASTDisplay;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.CodeGenerator.ConstantFolder;
 import miniJava.CodeGenerator.Encoder;
 import miniJava.ContextualAnalyzer.IdentificationChecker;
 import miniJava.ContextualAnalyzer.TypeChecker;
@@ -13,7 +30,15 @@ import miniJava.SyntacticAnalyzer.SourceFile;
 @SuppressWarnings("unused")
 public class Compiler {
 
+   // Source length, in characters, from which a file is compiled with a pipeline.
+   private static final int PIPELINE_THRESHOLD = 256 * 1024;
+
    public static void main(String[] args) {
+      // Several files, a directory or options: compile them all in this JVM.
+      if (args.length > 1 || (args.length == 1 && (args[0].startsWith("-") || new File(args[0]).isDirectory()))) {
+         System.exit(compileBatch(args));
+      }
+
       try {
          if (args.length != 1) {
             System.err.println("Must input a name of '.java' or '.mjava' file for compilation.");
@@ -31,7 +56,7 @@ public class Compiler {
 
          // Generate source & object file handles.
          SourceFile sourceFile = new SourceFile(sourceName);
-         String objName = removeExtension(sourceName) + ".mJAM";
+         String objName = objectFileName(sourceName);
          ObjectFile objectFile = new ObjectFile(objName);
 
          boolean hasErrors = compileProgram(sourceFile, objectFile);
@@ -62,6 +87,10 @@ public class Compiler {
       return extension;
    }
 
+   static String objectFileName(String sourceName) {
+      return removeExtension(sourceName) + ".mJAM";
+   }
+
    private static String removeExtension(String fileName) {
       int extension = fileName.lastIndexOf('.');
       if (extension >= 0) {
@@ -78,43 +107,245 @@ public class Compiler {
     * @return
     */
    private static boolean compileProgram(SourceFile source, ObjectFile objectFile) {
-      Logger logger = new Logger();
+      return compileProgram(source, objectFile, new Logger());
+   }
 
-      // Generate the AST.
-      Scanner scanner = new Scanner(source, logger);
-      Parser parser = new Parser(scanner, logger);
-      AST ast = parser.parse();
-      if (logger.hasErrors()) {
+   private static boolean compileProgram(SourceFile source, ObjectFile objectFile, Logger logger) {
+      CodeStore code;
+      if (usePipeline(source)) {
+         // Parse, check and encode at the same time.
+         code = new CompilePipeline(logger).compile(source);
+      }
+      else {
+         // Generate the AST.
+         Scanner scanner = new Scanner(source, logger);
+         Parser parser = new Parser(scanner.tokens(), logger);
+         Package ast = parser.parse();
+         if (logger.hasErrors()) {
+            return true;
+         }
+         code = checkAndEncode(ast, logger);
+      }
+      if (code == null) {
          return true;
       }
 
+      // Peephole optimization and superinstruction fusion.
+      PeepholeOptimizer.optimize(code);
+      SuperinstructionFuser.fuse(code);
+      if (objectFile.write(code)) {
+         logger.error("Unable to write object file.");
+         return true;
+      }
+
+      // Show the AST.
+      // ASTDisplay displayVisitor = new ASTDisplay();
+      // displayVisitor.showTree(ast);
+
+      return false;
+   }
+
+   /**
+    * Checks and encodes a parsed program.
+    * 
+    * @param ast
+    * @param logger
+    * @return the code, or null if the program has errors
+    */
+   static CodeStore checkAndEncode(Package ast, Logger logger) {
       // Contextual analysis - Identification.
       IdentificationChecker idChecker = new IdentificationChecker(logger);
       idChecker.check(ast);
       if (logger.hasErrors()) {
-         return true;
+         return null;
       }
 
       // Contextual analysis - Type checking.
       TypeChecker typeChecker = new TypeChecker(logger);
       typeChecker.check(ast);
       if (logger.hasErrors()) {
-         return true;
+         return null;
+      }
+
+      // Constant folding.
+      ConstantFolder folder = new ConstantFolder(logger);
+      folder.fold(ast);
+      if (logger.hasErrors()) {
+         return null;
       }
 
       // Code generation.
-      Encoder encoder = new Encoder(logger);
+      CodeStore code = new CodeStore();
+      Encoder encoder = new Encoder(logger, code);
       encoder.encode(ast);
       if (logger.hasErrors()) {
+         return null;
+      }
+      return code;
+   }
+
+   /**
+    * Decides whether to compile a source with the parser, checker and encoder running at the same time. Only large
+    * sources on a machine with more than one processor gain from it; the system property miniJava.pipeline set to "on"
+    * or "off" overrides the choice.
+    * 
+    * @param source
+    * @return
+    */
+   private static boolean usePipeline(SourceFile source) {
+      String setting = System.getProperty("miniJava.pipeline", "");
+      if (setting.equals("on")) {
          return true;
       }
-      objectFile.write();
+      if (setting.equals("off")) {
+         return false;
+      }
+      return source.getLength() >= PIPELINE_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1;
+   }
 
-      // Show the AST.
-      // ASTDisplay displayVisitor = new ASTDisplay();
-      // displayVisitor.showTree(ast);
+   /**
+    * The outcome of compiling one file in a batch or for the compile server.
+    */
+   static class BatchResult {
+      String file;
+      String diagnostics;
+      int    exitCode;
+      int    lines;
+   }
 
-      return false;
+   /**
+    * Compiles the given source files, and all source files below the given directories, on a pool of worker threads.
+    * The number of threads is set with -jobs=N and defaults to the number of processors. Diagnostics are reported per
+    * file, in the order of the arguments.
+    * 
+    * @param args
+    * @return the exit code, 0 if every file compiled and 4 otherwise
+    */
+   private static int compileBatch(String[] args) {
+      int jobs = Runtime.getRuntime().availableProcessors();
+      List<String> files = new ArrayList<String>();
+      for (String arg : args) {
+         if (arg.startsWith("-jobs=")) {
+            try {
+               jobs = Integer.parseInt(arg.substring("-jobs=".length()));
+            }
+            catch (NumberFormatException e) {
+               jobs = 0;
+            }
+            if (jobs <= 0) {
+               System.err.println("Invalid option: " + arg);
+               return 4;
+            }
+         }
+         else if (arg.startsWith("-")) {
+            System.err.println("Invalid option: " + arg);
+            return 4;
+         }
+         else {
+            addSourceFiles(new File(arg), files, true);
+         }
+      }
+      if (files.isEmpty()) {
+         System.err.println("No '.java' or '.mjava' files to compile.");
+         return 4;
+      }
+
+      long startTime = System.nanoTime();
+      ExecutorService pool = Executors.newFixedThreadPool(Math.min(jobs, files.size()));
+      List<Future<BatchResult>> results = new ArrayList<Future<BatchResult>>();
+      for (final String file : files) {
+         results.add(pool.submit(new Callable<BatchResult>() {
+            public BatchResult call() {
+               return compileFile(file);
+            }
+         }));
+      }
+
+      int failed = 0;
+      long lines = 0;
+      try {
+         for (Future<BatchResult> future : results) {
+            BatchResult result = future.get();
+            System.out.print(result.diagnostics);
+            System.out.println(result.file + ": " + (result.exitCode == 0 ? "compiled" : "failed") + " (exit code " + result.exitCode + ")");
+            if (result.exitCode != 0) {
+               failed++;
+            }
+            lines += result.lines;
+         }
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return 4;
+      }
+      catch (ExecutionException e) {
+         System.err.println(e.getCause());
+         return 4;
+      }
+      finally {
+         pool.shutdownNow();
+      }
+
+      double seconds = Math.max(System.nanoTime() - startTime, 1) / 1e9;
+      System.out.println(String.format("%d files, %d failed, %d lines in %d ms on %d threads (%.1f files/sec, %.0f lines/sec)", files.size(), failed,
+            lines, (long) (seconds * 1000), Math.min(jobs, files.size()), files.size() / seconds, lines / seconds));
+      return failed > 0 ? 4 : 0;
+   }
+
+   private static void addSourceFiles(File file, List<String> files, boolean explicit) {
+      if (file.isDirectory()) {
+         File[] children = file.listFiles();
+         if (children != null) {
+            Arrays.sort(children);
+            for (File child : children) {
+               addSourceFiles(child, files, false);
+            }
+         }
+      }
+      else {
+         String extension = getExtension(file.getName());
+         // files named explicitly are reported even with the wrong extension
+         if (explicit || extension.equals("java") || extension.equals("mjava")) {
+            files.add(file.getPath());
+         }
+      }
    }
 
+   /**
+    * Compiles one source file, collecting its diagnostics instead of printing them.
+    * 
+    * @param sourceName
+    * @return
+    */
+   static BatchResult compileFile(String sourceName) {
+      BatchResult result = new BatchResult();
+      result.file = sourceName;
+      ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+      PrintStream out = new PrintStream(diagnostics);
+      String extension = getExtension(sourceName);
+      if (!(extension.equals("java") || extension.equals("mjava"))) {
+         out.println("File must hava extension of '.java' or '.mjava'.");
+         result.exitCode = 4;
+      }
+      else {
+         SourceFile sourceFile = null;
+         try {
+            sourceFile = new SourceFile(sourceName);
+            ObjectFile objectFile = new ObjectFile(objectFileName(sourceName));
+            result.exitCode = compileProgram(sourceFile, objectFile, new Logger(out)) ? 4 : 0;
+         }
+         catch (Exception e) {
+            out.println(e.getMessage());
+            result.exitCode = 4;
+         }
+         finally {
+            if (sourceFile != null) {
+               result.lines = sourceFile.getLinesRead();
+            }
+         }
+      }
+      out.flush();
+      result.diagnostics = diagnostics.toString();
+      return result;
+   }
 }
@@ -1,7 +1,9 @@
 package miniJava.ContextualAnalyzer;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import miniJava.Logger;
 import miniJava.AbstractSyntaxTrees.*;
@@ -23,6 +25,8 @@ public class IdentificationChecker implements Visitor<Void, Object> {
    private boolean                   visitingStaticMethod;
    private boolean                   visitingLeftValueOfAssignStmt;
    private int                       mainMethodCount;
+   private Set<String>               standardNames = new HashSet<String>();
+   private String                    undefinedName;
 
    public IdentificationChecker(Logger logger) {
       this.logger = logger;
@@ -43,6 +47,113 @@ public class IdentificationChecker implements Visitor<Void, Object> {
       }
    }
 
+   /**
+    * Starts checking a program one class at a time, as its classes are parsed. Each class is declared with
+    * declareClass, then checked with checkClass once the classes it refers to have been declared.
+    */
+   public void beginClasses() {
+      setupStandardEnvironment();
+      idTable.openScope();
+   }
+
+   /**
+    * Puts a class in scope for the classes checked after it.
+    * 
+    * @param cd
+    * @return false if the name is already in scope, which a check of the whole program reports instead
+    */
+   public boolean declareClass(ClassDecl cd) {
+      try {
+         putDecl(cd.name, cd);
+         return !standardNames.contains(cd.name);
+      }
+      catch (IdentifierError e) {
+         return false;
+      }
+   }
+
+   /**
+    * Checks one class against the classes declared so far. If the check fails because an identifier is not in scope,
+    * getUndefinedName gives the identifier, which may be a class that has not been declared yet.
+    * 
+    * @param cd
+    * @return the error, or null if the class is correct
+    */
+   public String checkClass(ClassDecl cd) {
+      undefinedName = null;
+      currentClass = cd;
+      visitingLeftValueOfAssignStmt = false;
+      try {
+         cd.visit(this, null);
+         return null;
+      }
+      catch (Exception e) {
+         // Leave the scopes of the class, so the next class starts among the class names again.
+         while (idTable.getScopeLevel() > 1) {
+            idTable.closeScope();
+         }
+         return e.getMessage();
+      }
+   }
+
+   public String getUndefinedName() {
+      return undefinedName;
+   }
+
+   /**
+    * Finishes checking a program one class at a time, reporting whether it has exactly one main method.
+    * 
+    * @param prog
+    */
+   public void checkMainMethod(Package prog) {
+      int count = 0;
+      for (ClassDecl c : prog.classDeclList) {
+         for (MethodDecl m : c.methodDeclList) {
+            if (m.isMain) {
+               count++;
+            }
+         }
+      }
+      if (count != 1) {
+         logger.contextError("File must contain exactly one method with the signature 'public static void main(String[])'.");
+      }
+   }
+
+   /**
+    * Checks a single method of a program that has already been checked, as when the method's body has changed. The
+    * classes of the program and the members of its class are put in scope as for a full check.
+    * 
+    * @param prog
+    * @param cd
+    * @param md
+    */
+   public void checkMethod(Package prog, ClassDecl cd, MethodDecl md) {
+      try {
+         setupStandardEnvironment();
+
+         idTable.openScope();
+         for (ClassDecl c : prog.classDeclList) {
+            putDecl(c.name, c);
+         }
+
+         idTable.openScope();
+         for (FieldDecl f : cd.fieldDeclList) {
+            putDecl(f.name, f);
+         }
+         for (MethodDecl m : cd.methodDeclList) {
+            putDecl(m.name, m);
+         }
+
+         currentClass = cd;
+         visitingStaticMethod = md.isStatic;
+         md.isMain = isMainMethod(md);
+         md.visit(this, null);
+      }
+      catch (Exception e) {
+         logger.contextError(e.getMessage());
+      }
+   }
+
    private void putDecl(String key, Declaration value) throws IdentifierError {
       try {
          idTable.put(key, value);
@@ -57,6 +168,7 @@ public class IdentificationChecker implements Visitor<Void, Object> {
          return idTable.get(id.spelling);
       }
       catch (UndefinedIdentifierError e) {
+         undefinedName = id.spelling;
          throw new IdentifierError("Identifier '" + id.spelling + "' is undefined " + id.posn + ".");
       }
    }
@@ -66,6 +178,7 @@ public class IdentificationChecker implements Visitor<Void, Object> {
          return idTable.get(id.spelling, visitingLeftVal);
       }
       catch (UndefinedIdentifierError e) {
+         undefinedName = id.spelling;
          throw new IdentifierError("Identifier '" + id.spelling + "' is undefined " + id.posn + ".");
       }
    }
@@ -112,11 +225,14 @@ public class IdentificationChecker implements Visitor<Void, Object> {
       ClassDeclList stdEnv = getStandardEnvironment();
       for (ClassDecl c : stdEnv) {
          putDecl(c.name, c);
+         standardNames.add(c.name);
          for (FieldDecl f : c.fieldDeclList) {
             putDecl(f.name, f);
+            standardNames.add(f.name);
          }
          for (MethodDecl m : c.methodDeclList) {
             putDecl(m.name, m);
+            standardNames.add(m.name);
          }
       }
    }
@@ -43,6 +43,10 @@ public class IdentificationTable {
       currentLevelIndex--;
    }
 
+   public int getScopeLevel() {
+      return currentLevelIndex;
+   }
+
    public void put(String key, Declaration value) throws DuplicateIdentifierError {
       Map<String, Declaration> currentLevel = scopeStack.peek();
       // If already in current level.
@@ -26,6 +26,23 @@ public class TypeChecker implements Visitor<Void, Type> {
       }
    }
 
+   /**
+    * Checks one class of a program whose identifiers have been checked.
+    * 
+    * @param cd
+    * @return false if the check was cut short, as a check of the whole program would then be at this class
+    */
+   public boolean checkClass(ClassDecl cd) {
+      try {
+         cd.visit(this, null);
+         return true;
+      }
+      catch (Exception e) {
+         log(e.getMessage());
+         return false;
+      }
+   }
+
    @Override
    public Type visitPackage(Package prog, Void none) {
       for (ClassDecl c : prog.classDeclList) {
@@ -0,0 +1,261 @@
+package miniJava;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+
+import mJAM.CodeStore;
+import mJAM.ObjectFile;
+import mJAM.PeepholeOptimizer;
+import mJAM.SuperinstructionFuser;
+import miniJava.AbstractSyntaxTrees.ClassDecl;
+import miniJava.AbstractSyntaxTrees.MemberDecl;
+import miniJava.AbstractSyntaxTrees.MethodDecl;
+import miniJava.AbstractSyntaxTrees.Package;
+import miniJava.AbstractSyntaxTrees.ParameterDecl;
+import miniJava.CodeGenerator.ConstantFolder;
+import miniJava.CodeGenerator.Encoder;
+import miniJava.ContextualAnalyzer.IdentificationChecker;
+import miniJava.ContextualAnalyzer.TypeChecker;
+import miniJava.SyntacticAnalyzer.Parser;
+import miniJava.SyntacticAnalyzer.Scanner;
+import miniJava.SyntacticAnalyzer.SourceFile;
+import miniJava.SyntacticAnalyzer.SourcePosition;
+
+/**
+ * Keeps one source file compiled as it is edited, for an editor that recompiles on every change. The AST and the
+ * unfused code of the last good compilation are kept, and an edit is compiled with as little work as it allows:
+ *
+ * An edit inside a method scans and parses only that method again. If the method's signature is unchanged, nothing
+ * else can depend on the change, so only that method is checked; its new code is appended to the code store and every
+ * call of it, and its entry in its class object, is pointed at the new code. An edit inside a class but outside its
+ * methods parses only that class again, then checks and encodes the whole program, since fields and signatures may
+ * have changed. Any other edit, an edit that leaves the program with errors, or a code store grown to twice its size
+ * through replaced methods, compiles the whole file again. Diagnostics are the same as a full compilation would give.
+ *
+ * Positions in the kept AST refer to the version of the source they were read from, and each edit adds a step that
+ * their offsets are carried through. A full compilation builds every position from the latest version, so the whole
+ * file is compiled again after MAX_EDITS edits to keep those steps few.
+ */
+public class IncrementalCompiler {
+
+   private static final int MAX_EDITS = 64;
+
+   private final String sourceName;
+   private SourceFile   source;
+   private Package      ast;
+   private CodeStore    code;
+   private int          fullCodeSize;
+   private int          editsSinceCompile;
+   private String       diagnostics = "";
+
+   private int          fullCompiles;
+   private int          classCompiles;
+   private int          methodCompiles;
+
+   public IncrementalCompiler(String sourceName) throws FileNotFoundException {
+      this.sourceName = sourceName;
+      this.source = new SourceFile(sourceName);
+      compile();
+   }
+
+   /**
+    * Compiles the whole source again.
+    *
+    * @return true if the source has errors
+    */
+   public boolean compile() {
+      fullCompiles++;
+      editsSinceCompile = 0;
+      ast = null;
+      code = null;
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Logger logger = new Logger(new PrintStream(out));
+      Scanner scanner = new Scanner(source, logger, 0, source.getLength());
+      Parser parser = new Parser(scanner.tokens(), logger);
+      Package pkg = parser.parse();
+      if (!logger.hasErrors()) {
+         checkAndEncode(pkg, logger);
+      }
+      return finish(out);
+   }
+
+   /**
+    * Replaces the source text between start and end, then compiles the result.
+    *
+    * @param start
+    * @param end
+    * @param replacement
+    * @return true if the source has errors
+    */
+   public boolean edit(int start, int end, String replacement) {
+      source = source.edit(start, end, replacement);
+      if (ast == null || ++editsSinceCompile > MAX_EDITS) {
+         return compile();
+      }
+
+      // Positions in the AST map onto the edited source, where the replacement runs from start to newEnd.
+      int newEnd = start + replacement.length();
+      for (int c = 0; c < ast.classDeclList.size(); c++) {
+         ClassDecl cd = ast.classDeclList.get(c);
+         if (!encloses(cd.posn, start, newEnd)) {
+            continue;
+         }
+         for (int m = 0; m < cd.methodDeclList.size(); m++) {
+            MethodDecl md = cd.methodDeclList.get(m);
+            if (encloses(md.posn, start, newEnd)) {
+               return recompileMethod(cd, m, md.posn.getCurrentStart(), md.posn.getCurrentFinish());
+            }
+         }
+         return recompileClass(c, cd.posn.getCurrentStart(), cd.posn.getCurrentFinish());
+      }
+      return compile();
+   }
+
+   /**
+    * Checks whether the text between start and end lies strictly inside a position.
+    */
+   private static boolean encloses(SourcePosition posn, int start, int end) {
+      return posn.getCurrentStart() < start && end < posn.getCurrentFinish();
+   }
+
+   private boolean recompileMethod(ClassDecl cd, int index, int start, int finish) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Logger logger = new Logger(new PrintStream(out));
+      Parser parser = new Parser(new Scanner(source, logger, start, finish).tokens(), logger);
+      MemberDecl member = parser.parseMember();
+      MethodDecl old = cd.methodDeclList.get(index);
+      if (logger.hasErrors() || !(member instanceof MethodDecl) || !sameSignature(old, (MethodDecl) member)) {
+         return compile();
+      }
+
+      // Replaced methods are left in the code store until it has doubled, and code inlined from one is not replaced.
+      if (code.CT > 2 * fullCodeSize || old.inlined) {
+         return compile();
+      }
+
+      methodCompiles++;
+      MethodDecl md = (MethodDecl) member;
+      cd.methodDeclList.set(index, md);
+
+      IdentificationChecker idChecker = new IdentificationChecker(logger);
+      idChecker.checkMethod(ast, cd, md);
+      if (!logger.hasErrors()) {
+         TypeChecker typeChecker = new TypeChecker(logger);
+         typeChecker.check(md);
+      }
+      if (!logger.hasErrors()) {
+         ConstantFolder folder = new ConstantFolder(logger);
+         folder.fold(md);
+      }
+      if (!logger.hasErrors()) {
+         Encoder encoder = new Encoder(logger, code);
+         encoder.encodeMethod(md);
+         code.redirectCalls(old.address, md.address);
+      }
+      if (logger.hasErrors()) {
+         ast = null;
+         code = null;
+      }
+      return finish(out);
+   }
+
+   private boolean recompileClass(int index, int start, int finish) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Logger logger = new Logger(new PrintStream(out));
+      Parser parser = new Parser(new Scanner(source, logger, start, finish).tokens(), logger);
+      ClassDecl cd = parser.parseClass();
+      if (logger.hasErrors() || cd == null) {
+         return compile();
+      }
+
+      classCompiles++;
+      Package pkg = ast;
+      pkg.classDeclList.set(index, cd);
+      for (ClassDecl c : pkg.classDeclList) {
+         for (MethodDecl m : c.methodDeclList) {
+            m.address = 0;
+            m.isMain = false;
+            m.patchList.clear();
+         }
+      }
+      ast = null;
+      code = null;
+      checkAndEncode(pkg, logger);
+      return finish(out);
+   }
+
+   /**
+    * Checks and encodes a whole program, keeping its AST and code if it has no errors.
+    */
+   private void checkAndEncode(Package pkg, Logger logger) {
+      CodeStore newCode = Compiler.checkAndEncode(pkg, logger);
+      if (newCode == null) {
+         return;
+      }
+
+      ast = pkg;
+      code = newCode;
+      fullCodeSize = code.CT;
+   }
+
+   private boolean finish(ByteArrayOutputStream out) {
+      diagnostics = out.toString();
+      return code == null;
+   }
+
+   /**
+    * Checks whether two versions of a method can be called in the same way, so callers need not be checked again.
+    */
+   private static boolean sameSignature(MethodDecl a, MethodDecl b) {
+      if (!a.name.equals(b.name) || a.isPrivate != b.isPrivate || a.isStatic != b.isStatic || !a.type.equals(b.type)) {
+         return false;
+      }
+      if (a.parameterDeclList.size() != b.parameterDeclList.size()) {
+         return false;
+      }
+      for (int i = 0; i < a.parameterDeclList.size(); i++) {
+         ParameterDecl pa = a.parameterDeclList.get(i), pb = b.parameterDeclList.get(i);
+         if (!pa.type.equals(pb.type)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Writes the object file for the last good compilation, optimizing and fusing superinstructions in a copy of the
+    * code.
+    *
+    * @return true if there is no good compilation or the write fails
+    */
+   public boolean writeObjectFile() {
+      if (code == null) {
+         return true;
+      }
+      CodeStore fused = code.copy();
+      PeepholeOptimizer.optimize(fused);
+      SuperinstructionFuser.fuse(fused);
+      return new ObjectFile(Compiler.objectFileName(sourceName)).write(fused);
+   }
+
+   public SourceFile getSource() {
+      return source;
+   }
+
+   public String getDiagnostics() {
+      return diagnostics;
+   }
+
+   public CodeStore getCode() {
+      return code;
+   }
+
+   /**
+    * @return how often the whole file, a single class and a single method have been compiled
+    */
+   public String statistics() {
+      return String.format("%d full, %d class, %d method compilations", fullCompiles, classCompiles, methodCompiles);
+   }
+}
@@ -1,12 +1,20 @@
 package miniJava;
 
+import java.io.PrintStream;
+
 public class Logger {
 
    private static final String ERROR_FMT = "ERROR: %s";
 
+   private final PrintStream   out;
    private int                 numErrors;
 
    Logger() {
+      this(System.out);
+   }
+
+   Logger(PrintStream out) {
+      this.out = out;
       numErrors = 0;
    }
 
@@ -22,8 +30,29 @@ public class Logger {
       recordError("*** %s", message);
    }
 
+   /**
+    * Reports something that is not an error, such as a decision made by an optimization.
+    * 
+    * @param message
+    */
+   public void note(String message) {
+      out.println(message);
+   }
+
+   /**
+    * Reports the errors another logger has written to output, as when part of a program was checked on its own and its
+    * diagnostics held back until the parts before it had been reported.
+    * 
+    * @param buffered
+    * @param output
+    */
+   void report(Logger buffered, String output) {
+      out.print(output);
+      numErrors += buffered.numErrors;
+   }
+
    private void recordError(String formatStr, String message) {
-      System.out.println(String.format(formatStr, message));
+      out.println(String.format(formatStr, message));
       numErrors++;
    }
 
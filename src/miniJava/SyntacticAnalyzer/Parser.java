@@ -7,20 +7,42 @@ import miniJava.AbstractSyntaxTrees.Package;
 
 public class Parser {
 
-   private Scanner scanner;
-   private Logger  logger;
-   private Token   currentToken;
+   private Scanner          scanner;
+   private TokenStream      tokens;
+   private Logger           logger;
+   private Token            currentToken;
+   private int              previousFinish;
+   private ClassDeclHandler handler;
+
+   /**
+    * Receives each class declaration as soon as it has been parsed, while the rest of the source is still being parsed.
+    */
+   public interface ClassDeclHandler {
+      void handle(ClassDecl cd);
+   }
 
    public Parser(Scanner scanner, Logger errorReporter) {
       this.scanner = scanner;
       this.logger = errorReporter;
    }
 
+   /**
+    * Creates a parser that reads from a token stream, reusing one Token as it goes.
+    * 
+    * @param tokens
+    * @param errorReporter
+    */
+   public Parser(TokenStream tokens, Logger errorReporter) {
+      this.tokens = tokens;
+      this.logger = errorReporter;
+      this.currentToken = new Token(TokenKind.ERROR, null, new SourcePosition(null, 0, 0));
+   }
+
    public Package parse() {
       Package pkg = null;
 
       try {
-         currentToken = scanner.scan();
+         nextToken();
          pkg = parseProgram();
       }
       catch (SyntaxError e) {
@@ -30,6 +52,62 @@ public class Parser {
       return pkg;
    }
 
+   /**
+    * Parses a program, handing each class declaration to handler as soon as it is complete.
+    * 
+    * @param handler
+    * @return the program, or null if it has syntax errors
+    */
+   public Package parse(ClassDeclHandler handler) {
+      this.handler = handler;
+      try {
+         return parse();
+      }
+      finally {
+         this.handler = null;
+      }
+   }
+
+   /**
+    * Parses a source holding a single class declaration, as when a class is parsed again after an edit.
+    * 
+    * @return the class, or null if it has syntax errors
+    */
+   public ClassDecl parseClass() {
+      ClassDecl cd = null;
+
+      try {
+         nextToken();
+         cd = parseClassDeclaration();
+         accept(EOF);
+      }
+      catch (SyntaxError e) {
+         cd = null;
+      }
+
+      return cd;
+   }
+
+   /**
+    * Parses a source holding a single field or method declaration, as when a method is parsed again after an edit.
+    * 
+    * @return the member, or null if it has syntax errors
+    */
+   public MemberDecl parseMember() {
+      MemberDecl member = null;
+
+      try {
+         nextToken();
+         member = parseMemberDeclaration();
+         accept(EOF);
+      }
+      catch (SyntaxError e) {
+         member = null;
+      }
+
+      return member;
+   }
+
    private Package parseProgram() throws SyntaxError {
       int start = currentToken.position.start;
 
@@ -37,6 +115,9 @@ public class Parser {
       while (currentToken.kind.isClassDeclarationStarter()) {
          ClassDecl cd = parseClassDeclaration();
          classDecls.add(cd);
+         if (handler != null) {
+            handler.handle(cd);
+         }
       }
 
       accept(EOF);
@@ -204,7 +285,7 @@ public class Parser {
       if (currentToken.kind == IDENTIFIER) {
          // Reference/Class type.
          String idStr = currentToken.spelling;
-         Identifier id = new Identifier(idStr, currentToken.position);
+         Identifier id = new Identifier(idStr, keepPosition());
          acceptIt();
          type = new ClassType(id, getSourcePosition(start));
 
@@ -273,7 +354,7 @@ public class Parser {
 
    private Reference parseBaseRef() throws SyntaxError {
       if (currentToken.kind == THIS) {
-         ThisRef tr = new ThisRef(currentToken.position);
+         ThisRef tr = new ThisRef(keepPosition());
          acceptIt();
          return tr;
       }
@@ -293,7 +374,7 @@ public class Parser {
          acceptIt();
 
          // Qualified reference.
-         Identifier id = new Identifier(currentToken.spelling, currentToken.position);
+         Identifier id = new Identifier(currentToken.spelling, keepPosition());
          accept(IDENTIFIER);
          QualifiedRef qr = new QualifiedRef(ref, id, getSourcePosition(start));
          ref = qr;
@@ -315,7 +396,7 @@ public class Parser {
    private Reference parseRefSegment() throws SyntaxError {
       int start = currentToken.position.start;
 
-      Identifier id = new Identifier(currentToken.spelling, currentToken.position);
+      Identifier id = new Identifier(currentToken.spelling, keepPosition());
       accept(IDENTIFIER);
       IdRef idRef = new IdRef(id, getSourcePosition(start));
 
@@ -417,7 +498,7 @@ public class Parser {
 
       // Call or assignment on 'this' (this ReferenceTail ReferenceStatementTail).
       if (currentToken.kind == THIS) {
-         Reference ref = new ThisRef(currentToken.position);
+         Reference ref = new ThisRef(keepPosition());
          acceptIt();
          ref = parseReferenceTail(ref);
          Statement s = parseReferenceStatementTail(ref);
@@ -426,7 +507,7 @@ public class Parser {
 
       else if (currentToken.kind == IDENTIFIER) {
          String idStr = currentToken.spelling;
-         Identifier id = new Identifier(idStr, currentToken.position);
+         Identifier id = new Identifier(idStr, keepPosition());
          acceptIt();
 
          // Object variable declaration (id id = Expression).
@@ -537,7 +618,7 @@ public class Parser {
       Expression e1 = parseConjunctionExpression();
 
       while (currentToken.kind.isDisjunctionOperator()) {
-         Operator op = new Operator(currentToken, currentToken.position);
+         Operator op = new Operator(keepToken(), keepPosition());
          acceptIt();
          Expression e2 = parseConjunctionExpression();
          e1 = new BinaryExpr(op, e1, e2, getSourcePosition(start));
@@ -551,7 +632,7 @@ public class Parser {
       Expression e1 = parseEqualityExpression();
 
       while (currentToken.kind.isConjunctionOperator()) {
-         Operator op = new Operator(currentToken, currentToken.position);
+         Operator op = new Operator(keepToken(), keepPosition());
          acceptIt();
          Expression e2 = parseEqualityExpression();
          e1 = new BinaryExpr(op, e1, e2, getSourcePosition(start));
@@ -565,7 +646,7 @@ public class Parser {
       Expression e1 = parseRelationalExpression();
 
       while (currentToken.kind.isEqualityOperator()) {
-         Operator op = new Operator(currentToken, currentToken.position);
+         Operator op = new Operator(keepToken(), keepPosition());
          acceptIt();
          Expression e2 = parseRelationalExpression();
          e1 = new BinaryExpr(op, e1, e2, getSourcePosition(start));
@@ -579,7 +660,7 @@ public class Parser {
       Expression e1 = parseAdditiveExpression();
 
       while (currentToken.kind.isRelationalOperator()) {
-         Operator op = new Operator(currentToken, currentToken.position);
+         Operator op = new Operator(keepToken(), keepPosition());
          acceptIt();
          Expression e2 = parseAdditiveExpression();
          e1 = new BinaryExpr(op, e1, e2, getSourcePosition(start));
@@ -593,7 +674,7 @@ public class Parser {
       Expression e1 = parseMultiplicativeExpression();
 
       while (currentToken.kind.isAdditiveOperator()) {
-         Operator op = new Operator(currentToken, currentToken.position);
+         Operator op = new Operator(keepToken(), keepPosition());
          acceptIt();
          Expression e2 = parseMultiplicativeExpression();
          e1 = new BinaryExpr(op, e1, e2, getSourcePosition(start));
@@ -607,7 +688,7 @@ public class Parser {
       Expression e1 = parseTerminalExpression();
 
       while (currentToken.kind.isMultiplicativeOperator()) {
-         Operator op = new Operator(currentToken, currentToken.position);
+         Operator op = new Operator(keepToken(), keepPosition());
          acceptIt();
          Expression e2 = parseTerminalExpression();
          e1 = new BinaryExpr(op, e1, e2, getSourcePosition(start));
@@ -638,7 +719,7 @@ public class Parser {
 
       // Unary expression.
       else if (currentToken.kind.isUnaryOperator()) {
-         Operator op = new Operator(currentToken, currentToken.position);
+         Operator op = new Operator(keepToken(), keepPosition());
          acceptIt();
 
          Expression e = parseTerminalExpression();
@@ -659,7 +740,7 @@ public class Parser {
       else if (currentToken.kind == NEW) {
          acceptIt();
          if (currentToken.kind == IDENTIFIER) {
-            Identifier id = new Identifier(currentToken.spelling, currentToken.position);
+            Identifier id = new Identifier(currentToken.spelling, keepPosition());
             ClassType classType = new ClassType(id, id.posn);
             acceptIt();
 
@@ -712,7 +793,13 @@ public class Parser {
 
       // int literal expression.
       else if (currentToken.kind == NUMBER) {
-         Literal lit = new IntLiteral(currentToken.spelling, currentToken.position);
+         Literal lit = null;
+         try {
+            lit = new IntLiteral(currentToken.spelling, keepPosition());
+         }
+         catch (NumberFormatException e) {
+            parseError("Integer literal " + currentToken.errorString() + " is out of range.");
+         }
          acceptIt();
 
          LiteralExpr litExp = new LiteralExpr(lit, getSourcePosition(start));
@@ -721,7 +808,7 @@ public class Parser {
 
       // boolean literal expression.
       else if (currentToken.kind == TRUE || currentToken.kind == FALSE) {
-         Literal lit = new BooleanLiteral(currentToken.spelling, currentToken.position);
+         Literal lit = new BooleanLiteral(currentToken.spelling, keepPosition());
          acceptIt();
 
          LiteralExpr litExp = new LiteralExpr(lit, getSourcePosition(start));
@@ -742,10 +829,10 @@ public class Parser {
     */
    private void accept(TokenKind expectedKind) throws SyntaxError {
       if (currentToken.kind == expectedKind) {
-         currentToken = scanner.scan();
+         nextToken();
       }
       else {
-         parseError(String.format("Expected token %s, but got %s at line(s) %s.", expectedKind, currentToken.kind, currentToken.position));
+         parseError(String.format("Expected token %s, but got %s at %s.", expectedKind, currentToken.kind, currentToken.position));
       }
    }
 
@@ -755,7 +842,44 @@ public class Parser {
     * @throws SyntaxError
     */
    private void acceptIt() throws SyntaxError {
-      currentToken = scanner.scan();
+      nextToken();
+   }
+
+   /**
+    * Gets the current token in a form that can be kept in the AST. A token from a stream is reused for the next token,
+    * so it is copied.
+    * 
+    * @return
+    */
+   private Token keepToken() {
+      if (tokens != null) {
+         return new Token(currentToken.kind, currentToken.spelling, keepPosition());
+      }
+      return currentToken;
+   }
+
+   /**
+    * Gets the current token's position in a form that can be kept in the AST. A stream's token position is updated in
+    * place for the next token, so it is copied.
+    * 
+    * @return
+    */
+   private SourcePosition keepPosition() {
+      if (tokens != null) {
+         SourcePosition pos = currentToken.position;
+         return new SourcePosition(pos.source, pos.start, pos.length);
+      }
+      return currentToken.position;
+   }
+
+   private void nextToken() throws SyntaxError {
+      previousFinish = currentToken == null ? 0 : currentToken.position.getFinish();
+      if (tokens != null) {
+         tokens.read(tokens.next(), currentToken);
+      }
+      else {
+         currentToken = scanner.scan();
+      }
    }
 
    /**
@@ -769,14 +893,13 @@ public class Parser {
    }
 
    /**
-    * Returns a position with start equal to the given parameter and finish equal to the finish of the current token
-    * when the method is called.
+    * Returns a position from the given start offset to the end of the last token accepted when the method is called.
     * 
     * @param start
     * @return
     */
    private SourcePosition getSourcePosition(int start) {
-      return new SourcePosition(start, currentToken.position.finish);
+      return new SourcePosition(currentToken.position.source, start, previousFinish - start);
    }
 
 }
@@ -1,15 +1,22 @@
 package miniJava.SyntacticAnalyzer;
 
 import static miniJava.SyntacticAnalyzer.TokenKind.*;
+import java.util.ArrayList;
+import java.util.List;
+
 import miniJava.Logger;
 
 public class Scanner {
 
-   private SourceFile    source;
-   private Logger        logger;
-   private char          currentChar;
-   private StringBuilder currentToken;
-   private boolean       isScanningToken;
+   private static int               keywordMultiplier, keywordShift;
+   private static final TokenKind[] KEYWORDS = buildKeywordTable();
+
+   private SourceFile source;
+   private Logger     logger;
+   private char       currentChar;
+
+   // Offsets of the token last scanned.
+   int                tokenStart, tokenEnd;
 
    public Scanner(SourceFile source, Logger errorReporter) {
       this.source = source;
@@ -19,11 +26,57 @@ public class Scanner {
       currentChar = source.readChar();
    }
 
+   /**
+    * Creates a scanner over the part of the source between two offsets, as when one declaration is scanned again after
+    * an edit. The end offset is scanned as the end of the file.
+    * 
+    * @param source
+    * @param errorReporter
+    * @param start
+    * @param end
+    */
+   public Scanner(SourceFile source, Logger errorReporter, int start, int end) {
+      this.source = source;
+      this.logger = errorReporter;
+      source.setRange(start, end);
+
+      // Read the first char.
+      currentChar = source.readChar();
+   }
+
+   /**
+    * Gets a stream over the tokens of the source, which scans them into arrays instead of allocating a Token each.
+    * 
+    * @return
+    */
+   public TokenStream tokens() {
+      return new TokenStream(this, source);
+   }
+
    public Token scan() throws SyntaxError {
+      TokenKind kind = scanKind();
+      String tokenVal;
+      if (kind == EOF) {
+         tokenVal = String.valueOf(CharUtil.EOF);
+      }
+      else {
+         tokenVal = source.getText(tokenStart, tokenEnd);
+      }
+      return new Token(kind, tokenVal, new SourcePosition(source, tokenStart, tokenEnd - tokenStart));
+   }
+
+   /**
+    * Scans the next token, leaving its offsets in tokenStart and tokenEnd. Nothing is allocated, so callers decide
+    * whether the token needs a spelling or position at all.
+    * 
+    * @return
+    * @throws SyntaxError
+    */
+   TokenKind scanKind() throws SyntaxError {
       // Separators or division.
-      isScanningToken = false;
       while (currentChar == '/' || CharUtil.isWhitespaceChar(currentChar)) {
          if (currentChar == '/') {
+            tokenStart = source.getOffset();
             takeIt();
             // Start of a comment.
             if (currentChar == '/' || currentChar == '*') {
@@ -31,8 +84,8 @@ public class Scanner {
             }
             // Division.
             else {
-               SourcePosition pos = new SourcePosition(source.getCurrentLine(), source.getCurrentLine());
-               return new Token(DIVIDE, "/", pos);
+               tokenEnd = tokenStart + 1;
+               return DIVIDE;
             }
          }
          else {
@@ -41,23 +94,18 @@ public class Scanner {
       }
 
       // Tokens
-      isScanningToken = true;
-      currentToken = new StringBuilder();
-      SourcePosition pos = new SourcePosition();
-      pos.start = source.getCurrentLine();
+      tokenStart = source.getOffset();
 
-      // Scan for tokens.
+      // Scan for tokens, leaving their text in the source.
       TokenKind kind = scanToken();
-      String tokenVal = currentToken.toString();
-      pos.finish = source.getCurrentLine();
+      tokenEnd = source.getOffset();
 
       // Map identifiers to their respective tokens.
       if (kind == IDENTIFIER) {
-         kind = selectIdentifierTokenKind(tokenVal);
+         kind = selectIdentifierTokenKind(tokenStart, tokenEnd);
       }
 
-      Token token = new Token(kind, tokenVal, pos);
-      return token;
+      return kind;
    }
 
    /**
@@ -281,68 +329,87 @@ public class Scanner {
    }
 
    /**
-    * Map identifiers that are keywords to their respective token kinds based on the scanned value.
+    * Map identifiers that are keywords to their respective token kinds based on the scanned value. The keyword table is
+    * a perfect hash, so one probe and one comparison decide it.
     * 
-    * @param tokenVal
+    * @param start
+    * @param end
     * @return
     */
-   private TokenKind selectIdentifierTokenKind(String tokenVal) {
-      // If the identifier isn't a keyword, leave it as an identifier.
-      TokenKind outputKind = IDENTIFIER;
-
-      if (CLASS.value.equals(tokenVal)) {
-         outputKind = CLASS;
-      }
-      else if (RETURN.value.equals(tokenVal)) {
-         outputKind = RETURN;
-      }
-      else if (PUBLIC.value.equals(tokenVal)) {
-         outputKind = PUBLIC;
+   private TokenKind selectIdentifierTokenKind(int start, int end) {
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+         hash = 31 * hash + source.charAt(i);
       }
-      else if (PRIVATE.value.equals(tokenVal)) {
-         outputKind = PRIVATE;
+      TokenKind keyword = KEYWORDS[(hash * keywordMultiplier) >>> keywordShift];
+      if (keyword != null && source.textEquals(start, end, keyword.value)) {
+         return keyword;
       }
-      else if (STATIC.value.equals(tokenVal)) {
-         outputKind = STATIC;
-      }
-      else if (INT.value.equals(tokenVal)) {
-         outputKind = INT;
-      }
-      else if (BOOLEAN.value.equals(tokenVal)) {
-         outputKind = BOOLEAN;
-      }
-      else if (VOID.value.equals(tokenVal)) {
-         outputKind = VOID;
-      }
-      else if (THIS.value.equals(tokenVal)) {
-         outputKind = THIS;
-      }
-      else if (IF.value.equals(tokenVal)) {
-         outputKind = IF;
-      }
-      else if (ELSE.value.equals(tokenVal)) {
-         outputKind = ELSE;
-      }
-      else if (WHILE.value.equals(tokenVal)) {
-         outputKind = WHILE;
+
+      // If the identifier isn't a keyword, leave it as an identifier.
+      return IDENTIFIER;
+   }
+
+   /**
+    * Builds the keyword table from the token kinds spelled like identifiers, searching for a multiplier under which
+    * their hashes do not collide.
+    * 
+    * @return
+    */
+   private static TokenKind[] buildKeywordTable() {
+      List<TokenKind> keywords = new ArrayList<TokenKind>();
+      for (TokenKind kind : TokenKind.values()) {
+         if (isKeyword(kind)) {
+            keywords.add(kind);
+         }
       }
-      else if (TRUE.value.equals(tokenVal)) {
-         outputKind = TRUE;
+
+      for (int bits = 1; bits <= 16; bits++) {
+         if ((1 << bits) < keywords.size()) {
+            continue;
+         }
+         for (int multiplier = 1; multiplier < 1 << 16; multiplier += 2) {
+            TokenKind[] table = new TokenKind[1 << bits];
+            boolean perfect = true;
+            for (TokenKind kind : keywords) {
+               int slot = (kind.value.hashCode() * multiplier) >>> (32 - bits);
+               if (table[slot] != null) {
+                  perfect = false;
+                  break;
+               }
+               table[slot] = kind;
+            }
+            if (perfect) {
+               keywordMultiplier = multiplier;
+               keywordShift = 32 - bits;
+               return table;
+            }
+         }
       }
-      else if (FALSE.value.equals(tokenVal)) {
-         outputKind = FALSE;
+      throw new IllegalStateException("No perfect hash for keywords " + keywords + ".");
+   }
+
+   /**
+    * Keywords are the token kinds whose value could otherwise be scanned as an identifier.
+    * 
+    * @param kind
+    * @return
+    */
+   private static boolean isKeyword(TokenKind kind) {
+      String value = kind.value;
+      if (value.isEmpty() || !CharUtil.isLetter(value.charAt(0))) {
+         return false;
       }
-      else if (NEW.value.equals(tokenVal)) {
-         outputKind = NEW;
+      for (int i = 1; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (!CharUtil.isLetter(c) && !CharUtil.isDigit(c) && c != '_') {
+            return false;
+         }
       }
-
-      return outputKind;
+      return true;
    }
 
    private void takeIt() {
-      if (isScanningToken) {
-         currentToken.append(currentChar);
-      }
       currentChar = source.readChar();
    }
 
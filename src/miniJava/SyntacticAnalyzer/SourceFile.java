@@ -4,50 +4,278 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
- * An input wrapper to keep track of line numbers.
+ * An input wrapper to keep track of line numbers. The whole file is read into memory up front, each byte being one
+ * character; line numbers are found from a table of line start offsets built on first use.
  */
 public class SourceFile {
 
-   private File            sourceFile;
-   private FileInputStream iStream;
-   private int             currentLine;
+   private File       sourceFile;
+   private byte[]     text;
+   private int        offset;
+   private int        limit;
+   private int[]      lineStarts;
+   private int        lineCount;
+
+   // Set once the text has been edited: the edited source, and the edit that made it. The text is then dropped, so
+   // only the latest version of a source holds one.
+   private SourceFile edited;
+   private int        editStart, editEnd, editDelta;
 
    public SourceFile(String filename) throws FileNotFoundException {
       sourceFile = new File(filename);
-      iStream = new FileInputStream(sourceFile);
-      currentLine = 1;
+      FileInputStream iStream = new FileInputStream(sourceFile);
+      try {
+         FileChannel channel = iStream.getChannel();
+         ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+         while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            // Keep reading until the file is in.
+         }
+         text = Arrays.copyOf(buffer.array(), buffer.position());
+      }
+      catch (IOException e) {
+         text = new byte[0];
+      }
+      finally {
+         close(iStream);
+      }
+      offset = 0;
+      limit = text.length;
+   }
+
+   private SourceFile(File sourceFile, byte[] text) {
+      this.sourceFile = sourceFile;
+      this.text = text;
+      offset = 0;
+      limit = text.length;
    }
 
    /**
-    * Reads a char from the source file.
-    * 
+    * Gets a copy of this source with the text between start and end replaced. Offsets into this source, such as those
+    * of positions already in an AST, are carried over to the copy when lines and columns are looked up. This source
+    * keeps only the edit, so it can no longer be read or edited.
+    *
+    * @param start
+    * @param end
+    * @param replacement
     * @return
     */
-   char readChar() {
-      try {
-         int c = iStream.read();
+   public SourceFile edit(int start, int end, String replacement) {
+      if (edited != null) {
+         throw new IllegalStateException("Only the latest version of a source can be edited.");
+      }
+      if (start < 0 || end < start || end > text.length) {
+         throw new IllegalArgumentException("Edit [" + start + ", " + end + ") is outside the source text.");
+      }
+      byte[] inserted = replacement.getBytes(StandardCharsets.ISO_8859_1);
+      byte[] newText = new byte[text.length - (end - start) + inserted.length];
+      System.arraycopy(text, 0, newText, 0, start);
+      System.arraycopy(inserted, 0, newText, start, inserted.length);
+      System.arraycopy(text, end, newText, start + inserted.length, text.length - end);
+
+      edited = new SourceFile(sourceFile, newText);
+      editStart = start;
+      editEnd = end;
+      editDelta = inserted.length - (end - start);
+      text = null;
+      lineStarts = null;
+      return edited;
+   }
 
-         if (c == -1) {
-            c = CharUtil.EOF;
+   /**
+    * Maps an offset into this source to the same place in the latest edited version of it. Offsets inside replaced text
+    * map to the start of the replacement.
+    *
+    * @param offset
+    * @return
+    */
+   public int currentOffset(int offset) {
+      SourceFile source = this;
+      while (source.edited != null) {
+         if (offset >= source.editEnd) {
+            offset += source.editDelta;
          }
-         else if (c == CharUtil.EOL) {
-            currentLine++;
+         else if (offset > source.editStart) {
+            offset = source.editStart;
          }
-         return (char) c;
+         source = source.edited;
       }
-      catch (IOException s) {
+      return offset;
+   }
+
+   /**
+    * Gets the latest edited version of this source, or this source if it has not been edited.
+    *
+    * @return
+    */
+   SourceFile latest() {
+      SourceFile source = this;
+      while (source.edited != null) {
+         source = source.edited;
+      }
+      return source;
+   }
+
+   /**
+    * Gets the length of the source text.
+    *
+    * @return
+    */
+   public int getLength() {
+      return text.length;
+   }
+
+   /**
+    * Restricts reading to the text between two offsets, so that part of a source can be scanned again. Offsets stay
+    * relative to the start of the whole text.
+    *
+    * @param start
+    * @param end
+    */
+   void setRange(int start, int end) {
+      offset = start;
+      limit = end;
+   }
+
+   /**
+    * Reads a char from the source file.
+    *
+    * @return
+    */
+   char readChar() {
+      if (offset >= limit) {
+         offset = limit + 1;
          return CharUtil.EOF;
       }
+      return (char) (text[offset++] & 0xFF);
+   }
+
+   /**
+    * Gets the offset of the char last returned by readChar.
+    *
+    * @return
+    */
+   int getOffset() {
+      return offset - 1;
+   }
+
+   /**
+    * Gets the text between two offsets, as for a token that starts at start and ends before end.
+    *
+    * @param start
+    * @param end
+    * @return
+    */
+   String getText(int start, int end) {
+      return new String(text, start, end - start, StandardCharsets.ISO_8859_1);
+   }
+
+   /**
+    * Gets the char at offset.
+    *
+    * @param offset
+    * @return
+    */
+   char charAt(int offset) {
+      return (char) (text[offset] & 0xFF);
+   }
+
+   /**
+    * Checks whether the text between two offsets is spelled the same as s, without copying it out.
+    *
+    * @param start
+    * @param end
+    * @param s
+    * @return
+    */
+   boolean textEquals(int start, int end, String s) {
+      if (end - start != s.length()) {
+         return false;
+      }
+      for (int i = 0; i < s.length(); i++) {
+         if ((text[start + i] & 0xFF) != s.charAt(i)) {
+            return false;
+         }
+      }
+      return true;
    }
 
    /**
     * Gets the current line number being read from the source file.
-    * 
+    *
     * @return
     */
    int getCurrentLine() {
-      return currentLine;
+      return getLine(Math.min(offset, limit) - 1);
+   }
+
+   /**
+    * Gets the line number of the char at offset.
+    *
+    * @param offset
+    * @return
+    */
+   int getLine(int offset) {
+      if (edited != null) {
+         return latest().getLine(currentOffset(offset));
+      }
+      if (lineStarts == null) {
+         findLineStarts();
+      }
+      // Lines start after each EOL, so the EOL itself belongs to the next line.
+      int line = Arrays.binarySearch(lineStarts, 0, lineCount, offset + 1);
+      return line >= 0 ? line + 1 : -line - 1;
+   }
+
+   /**
+    * Gets the column of the char at offset, counting from 1.
+    *
+    * @param offset
+    * @return
+    */
+   int getColumn(int offset) {
+      if (edited != null) {
+         return latest().getColumn(currentOffset(offset));
+      }
+      // getLine builds lineStarts on first use, so it must run before lineStarts is read.
+      int line = getLine(offset);
+      return offset - lineStarts[line - 1] + 1;
+   }
+
+   private void findLineStarts() {
+      lineStarts = new int[16];
+      lineCount = 0;
+      lineStarts[lineCount++] = 0;
+      for (int i = 0; i < text.length; i++) {
+         if (text[i] == CharUtil.EOL) {
+            if (lineCount == lineStarts.length) {
+               lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+            }
+            lineStarts[lineCount++] = i + 1;
+         }
+      }
+   }
+
+   /**
+    * Gets the number of lines read so far.
+    *
+    * @return
+    */
+   public int getLinesRead() {
+      return getCurrentLine();
+   }
+
+   private static void close(FileInputStream iStream) {
+      try {
+         iStream.close();
+      }
+      catch (IOException e) {
+         // Already read.
+      }
    }
 }
@@ -14,24 +14,102 @@
 
 package miniJava.SyntacticAnalyzer;
 
+/**
+ * A range of a source file, kept as a file offset and a length. Lines and columns are looked up from the source file
+ * when they are needed.
+ *
+ * Every position refers to its source, so diagnostics can be built from a position alone, from any phase or thread.
+ * That reference keeps the text of the source reachable for as long as any AST node is; an edited source drops its
+ * text, so only the latest version is kept.
+ */
 public class SourcePosition {
 
-   public static final SourcePosition DUMMY_POSITION = new SourcePosition(0, 0);
+   public static final SourcePosition DUMMY_POSITION = new SourcePosition(null, 0, 0);
+
+   public SourceFile                  source;
+   public int                         start, length;
+
+   public SourcePosition(SourceFile source, int start, int length) {
+      this.source = source;
+      this.start = start;
+      this.length = length;
+   }
+
+   /**
+    * Gets the offset just past the end of the range.
+    * 
+    * @return
+    */
+   public int getFinish() {
+      return start + length;
+   }
 
-   public int                         start, finish;
+   /**
+    * Gets the start offset in the latest version of the source, following any edits made since the position was
+    * created.
+    * 
+    * @return
+    */
+   public int getCurrentStart() {
+      rebase();
+      return start;
+   }
+
+   /**
+    * Gets the offset just past the end of the range in the latest version of the source.
+    * 
+    * @return
+    */
+   public int getCurrentFinish() {
+      rebase();
+      return getFinish();
+   }
+
+   /**
+    * Gets the line the range starts on, or 0 if the position is not in a source file.
+    * 
+    * @return
+    */
+   public int getLine() {
+      if (source == null) {
+         return 0;
+      }
+      rebase();
+      return source.getLine(start);
+   }
 
-   public SourcePosition() {
-      start = 0;
-      finish = 0;
+   /**
+    * Gets the column the range starts at, counting from 1, or 0 if the position is not in a source file.
+    * 
+    * @return
+    */
+   public int getColumn() {
+      if (source == null) {
+         return 0;
+      }
+      rebase();
+      return source.getColumn(start);
    }
 
-   public SourcePosition(int s, int f) {
-      start = s;
-      finish = f;
+   /**
+    * Moves the range onto the latest version of its source, if the source has been edited since the range was found.
+    * Later lookups then follow only the edits made after this one, and the earlier versions are no longer referenced.
+    */
+   private void rebase() {
+      if (source == null || source.latest() == source) {
+         return;
+      }
+      int finish = source.currentOffset(getFinish());
+      start = source.currentOffset(start);
+      length = finish - start;
+      source = source.latest();
    }
 
    @Override
    public String toString() {
-      return "(Line " + start + ")";
+      if (source == null) {
+         return "(Line 0)";
+      }
+      return "(Line " + getLine() + ", Column " + getColumn() + ")";
    }
 }
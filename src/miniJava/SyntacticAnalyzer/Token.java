@@ -13,7 +13,7 @@ public class Token {
    }
 
    public String errorString() {
-      return String.format("%s ('%s') [line %s]", kind, spelling, position.start);
+      return String.format("%s ('%s') [line %s]", kind, spelling, position.getLine());
    }
 
    @Override
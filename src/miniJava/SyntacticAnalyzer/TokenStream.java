@@ -0,0 +1,170 @@
+package miniJava.SyntacticAnalyzer;
+
+import java.util.Arrays;
+
+/**
+ * The tokens of a source file, kept in primitive arrays rather than as Token objects. Each token is stored as its kind
+ * and its start and end offsets; identifiers and numbers also refer to an interned spelling, so scanning
+ * allocates per distinct spelling rather than per token. Tokens are scanned as they are asked for.
+ */
+public class TokenStream {
+
+   private static final TokenKind[] KINDS = TokenKind.values();
+
+   private Scanner                  scanner;
+   private SourceFile               source;
+
+   private int[]                    kinds;
+   private int[]                    starts;
+   private int[]                    ends;
+   private int[]                    spellings;
+   private int                      count;
+
+   private String[]                 spellingTable;
+   private int[]                    spellingSlots;        // open addressing, spelling index + 1 or 0 if empty
+   private int                      spellingCount;
+
+   TokenStream(Scanner scanner, SourceFile source) {
+      this.scanner = scanner;
+      this.source = source;
+      kinds = new int[256];
+      starts = new int[256];
+      ends = new int[256];
+      spellings = new int[256];
+      spellingTable = new String[64];
+      spellingSlots = new int[128];
+   }
+
+   /**
+    * Scans the next token, returning its index. Once the end of the file is reached, the EOF token is returned again.
+    *
+    * @return
+    * @throws SyntaxError
+    */
+   public int next() throws SyntaxError {
+      if (count > 0 && kinds[count - 1] == TokenKind.EOF.ordinal()) {
+         return count - 1;
+      }
+      TokenKind kind = scanner.scanKind();
+      if (count == kinds.length) {
+         grow();
+      }
+      kinds[count] = kind.ordinal();
+      starts[count] = scanner.tokenStart;
+      ends[count] = scanner.tokenEnd;
+      if (kind == TokenKind.IDENTIFIER || kind == TokenKind.NUMBER) {
+         spellings[count] = intern(scanner.tokenStart, scanner.tokenEnd);
+      }
+      else {
+         spellings[count] = -1;
+      }
+      return count++;
+   }
+
+   /**
+    * Gets the number of tokens scanned so far.
+    *
+    * @return
+    */
+   public int size() {
+      return count;
+   }
+
+   public TokenKind kind(int i) {
+      return KINDS[kinds[i]];
+   }
+
+   public int start(int i) {
+      return starts[i];
+   }
+
+   public int end(int i) {
+      return ends[i];
+   }
+
+   /**
+    * Gets the spelling of a token. Tokens other than identifiers and numbers are spelled as their kind.
+    *
+    * @param i
+    * @return
+    */
+   public String spelling(int i) {
+      if (spellings[i] >= 0) {
+         return spellingTable[spellings[i]];
+      }
+      return kind(i).value;
+   }
+
+   public SourcePosition position(int i) {
+      return new SourcePosition(source, starts[i], ends[i] - starts[i]);
+   }
+
+   /**
+    * Copies a token into an existing Token, so a parser can step through the stream with a single Token. The token's
+    * position is updated in place rather than replaced.
+    *
+    * @param i
+    * @param token
+    */
+   void read(int i, Token token) {
+      token.kind = kind(i);
+      token.spelling = spelling(i);
+      token.position.source = source;
+      token.position.start = starts[i];
+      token.position.length = ends[i] - starts[i];
+   }
+
+   private void grow() {
+      int capacity = 2 * kinds.length;
+      kinds = Arrays.copyOf(kinds, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      spellings = Arrays.copyOf(spellings, capacity);
+   }
+
+   /**
+    * Finds the spelling of the text between two offsets in the spelling table, adding it if it is new.
+    *
+    * @param start
+    * @param end
+    * @return the index of the spelling
+    */
+   private int intern(int start, int end) {
+      int hash = 0;
+      for (int i = start; i < end; i++) {
+         hash = 31 * hash + source.charAt(i);
+      }
+      int mask = spellingSlots.length - 1;
+      int slot = hash & mask;
+      while (spellingSlots[slot] != 0) {
+         int index = spellingSlots[slot] - 1;
+         if (source.textEquals(start, end, spellingTable[index])) {
+            return index;
+         }
+         slot = (slot + 1) & mask;
+      }
+
+      if (spellingCount == spellingTable.length) {
+         spellingTable = Arrays.copyOf(spellingTable, 2 * spellingCount);
+      }
+      int index = spellingCount++;
+      spellingTable[index] = source.getText(start, end);
+      spellingSlots[slot] = index + 1;
+      if (2 * spellingCount > spellingSlots.length) {
+         rehash();
+      }
+      return index;
+   }
+
+   private void rehash() {
+      spellingSlots = new int[2 * spellingSlots.length];
+      int mask = spellingSlots.length - 1;
+      for (int index = 0; index < spellingCount; index++) {
+         int slot = spellingTable[index].hashCode() & mask;
+         while (spellingSlots[slot] != 0) {
+            slot = (slot + 1) & mask;
+         }
+         spellingSlots[slot] = index + 1;
+      }
+   }
+}
@@ -0,0 +1,171 @@
+package tester;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import miniJava.IncrementalCompiler;
+
+/*
+ * Automated regression tester for miniJava.IncrementalCompiler
+ * Edits a copy of "tests/incremental/Counter.java" in the project directory, next to the class path directory, one
+ * step at a time. After every step the diagnostics must be the same as those of a fresh compilation of the edited
+ * source by miniJava.Compiler, and the step must take the expected kind of compilation. The object file must be the
+ * same too, except after a method compilation: the new code of the method is then appended to the code store, so
+ * the object file must run with the same output instead.
+ */
+
+public class IncrementalTests {
+
+   private static final String        FULL = "full", CLASS = "class", METHOD = "method";
+
+   private static File                incrementalDir, fullDir;
+   private static String              text;
+   private static IncrementalCompiler compiler;
+   private static int                 failures;
+
+   public static void main(String[] args) throws IOException, InterruptedException {
+      File base = new File(System.getProperty("java.class.path") + "/../tests/incremental/Counter.java");
+      text = new String(Files.readAllBytes(base.toPath()));
+      File work = Files.createTempDirectory("incremental").toFile();
+      incrementalDir = new File(work, "incremental");
+      fullDir = new File(work, "full");
+      incrementalDir.mkdir();
+      fullDir.mkdir();
+      Files.write(new File(incrementalDir, "Counter.java").toPath(), text.getBytes());
+
+      compiler = new IncrementalCompiler(new File(incrementalDir, "Counter.java").getPath());
+      compare("initial compilation", FULL);
+
+      // a method body, with the signature unchanged
+      step("edit a method body", "total = total + x * step;", "total = total + x * step + 1;", METHOD);
+      // a method whose calls were inlined must be replaced there too
+      step("edit an inlined method", "return total + step;", "return total + step * 2;", FULL);
+      // fields and signatures of a class may change
+      step("add a field", "int step;\n", "int step;\n   int unused;\n", CLASS);
+      // a new signature must be checked against every call, and the calls left with errors compile the whole file again
+      step("change a signature", "public void add(int x)", "public void add(int x, int y)", CLASS);
+      step("fix the calls", "t.add(i);", "t.add(i, 0);", FULL);
+      // text outside every class
+      step("add a class", "\nclass Tally {", "\nclass Extra {\n}\n\nclass Tally {", FULL);
+      // an error is reported as a full compilation would, and the next edit compiles the whole file
+      step("introduce an error", "int r = 1;", "int r = true;", METHOD);
+      step("fix the error", "int r = true;", "int r = 1;", FULL);
+      // replaced methods stay in the code store until it has doubled
+      boolean doubled = false;
+      for (int i = 0; i < 20 && !doubled; i++) {
+         String kind = i % 2 == 0 ? edit("t.step = 3;", "t.step = 4;") : edit("t.step = 4;", "t.step = 3;");
+         compare("edit main, " + (i + 1) + " times", kind);
+         if (kind == FULL)
+            doubled = true;
+         else if (kind != METHOD)
+            fail("edit main, " + (i + 1) + " times", "took a " + kind + " compilation");
+      }
+      if (!doubled)
+         fail("edit main repeatedly", "never compiled the whole file again");
+
+      System.out.println(failures + " failures in all.");
+   }
+
+   private static void step(String name, String from, String to, String expected) throws IOException, InterruptedException {
+      String kind = edit(from, to);
+      if (kind != expected)
+         fail(name, "took a " + kind + " compilation instead of a " + expected + " one");
+      compare(name, kind);
+   }
+
+   /**
+    * Replaces the first occurrence of from in the source by to.
+    *
+    * @return the kind of compilation the incremental compiler chose
+    */
+   private static String edit(String from, String to) {
+      int start = text.indexOf(from);
+      if (start < 0)
+         throw new IllegalArgumentException("'" + from + "' is not in the source");
+      text = text.substring(0, start) + to + text.substring(start + from.length());
+
+      int[] before = counts();
+      compiler.edit(start, start + from.length(), to);
+      int[] after = counts();
+      if (after[0] > before[0])
+         return FULL;
+      if (after[1] > before[1])
+         return CLASS;
+      return METHOD;
+   }
+
+   /**
+    * @return how often the incremental compiler has compiled the whole file, a class and a method
+    */
+   private static int[] counts() {
+      String[] words = compiler.statistics().split(" ");
+      return new int[] { Integer.parseInt(words[0]), Integer.parseInt(words[2]), Integer.parseInt(words[4]) };
+   }
+
+   /**
+    * Compiles the current source afresh, and compares its diagnostics and object file with those of the incremental
+    * compiler after a compilation of the given kind.
+    */
+   private static void compare(String name, String kind) throws IOException, InterruptedException {
+      File source = new File(fullDir, "Counter.java");
+      Files.write(source.toPath(), text.getBytes());
+      Process p = start("miniJava.Compiler", source);
+      String diagnostics = readAll(p.getInputStream());
+      p.waitFor();
+      boolean errors = p.exitValue() != 0;
+
+      if (!diagnostics.equals(compiler.getDiagnostics())) {
+         fail(name, "gave the diagnostics\n" + compiler.getDiagnostics() + "instead of\n" + diagnostics);
+         return;
+      }
+      if (errors != (compiler.getCode() == null)) {
+         fail(name, errors ? "compiled a source with errors" : "found errors in a correct source");
+         return;
+      }
+      if (!errors) {
+         compiler.writeObjectFile();
+         File incremental = new File(incrementalDir, "Counter.mJAM"), full = new File(fullDir, "Counter.mJAM");
+         if (kind == METHOD) {
+            if (!run(incremental).equals(run(full))) {
+               fail(name, "wrote an object file with different output");
+               return;
+            }
+         }
+         else if (!Arrays.equals(Files.readAllBytes(incremental.toPath()), Files.readAllBytes(full.toPath()))) {
+            fail(name, "wrote a different object file");
+            return;
+         }
+      }
+      System.out.println(name + ": same as a full compilation (" + compiler.statistics() + ")");
+   }
+
+   private static String run(File objectFile) throws IOException, InterruptedException {
+      Process p = start("mJAM.Interpreter", objectFile);
+      String output = readAll(p.getInputStream());
+      p.waitFor();
+      return output;
+   }
+
+   private static Process start(String main, File file) throws IOException {
+      ProcessBuilder pb = new ProcessBuilder("java", main, file.getPath()).directory(new File(System.getProperty("java.class.path")));
+      pb.redirectErrorStream(true);
+      return pb.start();
+   }
+
+   private static String readAll(InputStream stream) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      for (int n = stream.read(buffer); n > 0; n = stream.read(buffer))
+         out.write(buffer, 0, n);
+      return out.toString();
+   }
+
+   private static void fail(String name, String reason) {
+      failures++;
+      System.err.println(name + " " + reason);
+   }
+}
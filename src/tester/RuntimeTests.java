@@ -0,0 +1,114 @@
+package tester;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+
+/*
+ * Automated regression tester for the mJAM runtime
+ * Put the tests in the "tests/runtime" folder of the project directory, next to the class path directory
+ * Each test is a miniJava program that must compile. Comment lines at its top give the interpreter options
+ * ("// options: -heap=4k") and lines that must appear in the interpreter's output, in that order
+ * ("// expect: >>> 10" or "// expect: *** Program has halted normally.")
+ * A line "// engines: switch threaded jit" runs the test once on each engine named, with its options; the JIT then
+ * compiles every method on its first call
+ */
+
+public class RuntimeTests {
+
+   public static void main(String[] args) throws IOException, InterruptedException {
+      File testDir = new File(System.getProperty("java.class.path") + "/../tests/runtime");
+      int failures = 0;
+      File[] tests = testDir.listFiles();
+      Arrays.sort(tests);
+      for (File x : tests) {
+         if (!x.getName().endsWith(".java"))
+            continue;
+         List<String> options = new ArrayList<String>();
+         List<String> expected = new ArrayList<String>();
+         List<String> engines = new ArrayList<String>();
+         readHeader(x, options, expected, engines);
+
+         int returnCode = runTest(x);
+         if (returnCode != 0) {
+            failures++;
+            System.err.println(x.getName() + " failed to be processed!");
+            continue;
+         }
+         if (engines.isEmpty())
+            engines.add(null);
+         for (String engine : engines) {
+            List<String> engineOptions = new ArrayList<String>(options);
+            String name = x.getName();
+            if (engine != null) {
+               engineOptions.add("-engine=" + engine);
+               if (engine.equals("jit"))
+                  engineOptions.add("-jitThreshold=1");
+               name += " (" + engine + ")";
+            }
+            String missing = executeTest(x, engineOptions, expected);
+            if (missing == null)
+               System.out.println(name + " ran successfully!");
+            else {
+               failures++;
+               System.err.println(name + " did not output \"" + missing + "\"");
+            }
+         }
+      }
+      System.out.println(failures + " failures in all.");
+   }
+
+   private static void readHeader(File x, List<String> options, List<String> expected, List<String> engines) throws IOException {
+      for (String line : Files.readAllLines(x.toPath())) {
+         if (!line.startsWith("//"))
+            break;
+         line = line.substring(2).trim();
+         if (line.startsWith("options:"))
+            options.addAll(Arrays.asList(line.substring("options:".length()).trim().split("\\s+")));
+         else if (line.startsWith("expect:"))
+            expected.add(line.substring("expect:".length()).trim());
+         else if (line.startsWith("engines:"))
+            engines.addAll(Arrays.asList(line.substring("engines:".length()).trim().split("\\s+")));
+      }
+   }
+
+   private static int runTest(File x) throws IOException, InterruptedException {
+      ProcessBuilder pb = new ProcessBuilder("java", "miniJava.Compiler", x.getPath()).directory(new File(System.getProperty("java.class.path")));
+      pb.redirectErrorStream(true);
+      Process p = pb.start();
+
+      Checkpoint4.processStream(p.getInputStream());
+      p.waitFor();
+      return p.exitValue();
+   }
+
+   /**
+    * @return the first expected line missing from the output, or null if all appeared in order
+    */
+   private static String executeTest(File x, List<String> options, List<String> expected) throws IOException, InterruptedException {
+      List<String> command = new ArrayList<String>();
+      command.add("java");
+      command.add("mJAM.Interpreter");
+      command.add(x.getPath().replace(".java", ".mJAM"));
+      command.addAll(options);
+      ProcessBuilder pb = new ProcessBuilder(command).directory(new File(System.getProperty("java.class.path")));
+      pb.redirectErrorStream(true);
+      Process process = pb.start();
+
+      int next = 0;
+      Scanner scan = new Scanner(process.getInputStream());
+      while (scan.hasNextLine()) {
+         String line = scan.nextLine();
+         if (next < expected.size() && line.trim().equals(expected.get(next)))
+            next++;
+      }
+      scan.close();
+      process.waitFor();
+
+      return next < expected.size() ? expected.get(next) : null;
+   }
+}
@@ -0,0 +1,36 @@
+// Base program for tester.IncrementalTests, which edits a copy of it step by step.
+class Counter {
+   public static void main(String[] args) {
+      Tally t = new Tally();
+      t.step = 3;
+      int i = 0;
+      while (i < 10) {
+         t.add(i);
+         i = i + 1;
+      }
+      System.out.println(t.total);
+      System.out.println(t.next());
+      System.out.println(t.fact(5));
+   }
+}
+
+class Tally {
+   int total;
+   int step;
+
+   public void add(int x) {
+      total = total + x * step;
+   }
+
+   public int next() {
+      return total + step;
+   }
+
+   public int fact(int x) {
+      int r = 1;
+      if (x > 1) {
+         r = x * fact(x - 1);
+      }
+      return r;
+   }
+}
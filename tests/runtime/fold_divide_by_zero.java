@@ -0,0 +1,13 @@
+// A constant division by zero is not folded: it is left in the code, and fails at run
+// time as it would unfolded.
+// engines: switch threaded jit
+// expect: >>> 3
+// expect: *** Program has failed due to division by zero.
+class FoldDivideByZero {
+   public static void main(String[] args) {
+      int zero = 3 - 3;
+      System.out.println(7 / 2);
+      System.out.println(7 / zero);
+      System.out.println(0);
+   }
+}
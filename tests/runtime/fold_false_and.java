@@ -0,0 +1,27 @@
+// false && e folds to false and drops e, and true || e folds to true: the calls on the
+// right, which would bump the counter, are never made.
+// engines: switch threaded jit
+// expect: >>> 0
+// expect: >>> 0
+// expect: *** Program has halted normally.
+class FoldFalseAnd {
+   public static void main(String[] args) {
+      Counter c = new Counter();
+      boolean b = false && c.bump();
+      if (!b) {
+         System.out.println(c.count);
+      }
+      if (true || c.bump()) {
+         System.out.println(c.count);
+      }
+   }
+}
+
+class Counter {
+   int count;
+
+   public boolean bump() {
+      count = count + 1;
+      return true;
+   }
+}
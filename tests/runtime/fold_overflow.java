@@ -0,0 +1,15 @@
+// Constant expressions are folded at compile time, except one that overflows: that one
+// is left in the code, and fails at run time as it would unfolded.
+// engines: switch threaded jit
+// expect: >>> 20
+// expect: >>> 2147483647
+// expect: *** Program has failed due to overflow.
+class FoldOverflow {
+   public static void main(String[] args) {
+      System.out.println((2 + 3) * 4);
+      int max = 2147483646 + 1;
+      System.out.println(max);
+      System.out.println(2147483647 + 1);
+      System.out.println(0);
+   }
+}
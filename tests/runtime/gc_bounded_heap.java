@@ -0,0 +1,27 @@
+// Allocates 100000 objects and arrays that die at once in a heap of 4k words. The loop
+// allocates far more than the heap holds, so it only completes if dead blocks are reclaimed.
+// options: -heap=4k
+// expect: >>> 200000
+// expect: *** Program has halted normally.
+class GcBoundedHeap {
+   public static void main(String[] args) {
+      Node n = new Node();
+      int[] a = new int[8];
+      int sum = 0;
+      int i = 0;
+      while (i < 100000) {
+         n = new Node();
+         n.value = 1;
+         a = new int[8];
+         a[7] = 1;
+         sum = sum + n.value + a[7];
+         i = i + 1;
+      }
+      System.out.println(sum);
+   }
+}
+
+class Node {
+   Node next;
+   int value;
+}
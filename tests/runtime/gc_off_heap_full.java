@@ -0,0 +1,25 @@
+// The loop of gc_bounded_heap with the collector off: the same 4k word heap is exhausted.
+// options: -heap=4k -gc=off
+// expect: *** Program has failed due to exhaustion of Data Store.
+class GcOffHeapFull {
+   public static void main(String[] args) {
+      Node n = new Node();
+      int[] a = new int[8];
+      int sum = 0;
+      int i = 0;
+      while (i < 100000) {
+         n = new Node();
+         n.value = 1;
+         a = new int[8];
+         a[7] = 1;
+         sum = sum + n.value + a[7];
+         i = i + 1;
+      }
+      System.out.println(sum);
+   }
+}
+
+class Node {
+   Node next;
+   int value;
+}
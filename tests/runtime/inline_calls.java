@@ -0,0 +1,70 @@
+// Calls whose body is a single return expression are inlined, and must behave as calls:
+// getters read the field of the receiver given, and arguments are evaluated once each, left
+// to right, including those the body does not use.
+// engines: switch threaded jit
+// expect: >>> 5
+// expect: >>> 7
+// expect: >>> 12
+// expect: >>> -6
+// expect: >>> 12
+// expect: >>> 6
+// expect: >>> 10
+// expect: >>> 7
+// expect: >>> 15
+// expect: *** Program has halted normally.
+class InlineCalls {
+   public static void main(String[] args) {
+      Box a = new Box();
+      Box b = new Box();
+      a.value = 5;
+      b.value = 7;
+      System.out.println(a.get());
+      System.out.println(b.get());
+
+      Ticker t = new Ticker();
+      System.out.println(t.pair(t.tick(), t.tick()));
+      System.out.println(t.minus(t.tick(), t.tick(), t.tick()));
+      System.out.println(t.twice(t.tick()));
+      System.out.println(t.count);
+      System.out.println(t.first(10, t.tick()));
+      System.out.println(t.count);
+      System.out.println(t.plus(t.count, t.tick()));
+   }
+}
+
+class Box {
+   int value;
+
+   public int get() {
+      return value;
+   }
+}
+
+class Ticker {
+   int count;
+
+   public int tick() {
+      count = count + 1;
+      return count;
+   }
+
+   public int pair(int x, int y) {
+      return x * 10 + y;
+   }
+
+   public int minus(int x, int y, int z) {
+      return x - y - z;
+   }
+
+   public int twice(int x) {
+      return x + x;
+   }
+
+   public int first(int x, int y) {
+      return x;
+   }
+
+   public int plus(int x, int y) {
+      return x + y;
+   }
+}
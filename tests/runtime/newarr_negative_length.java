@@ -0,0 +1,12 @@
+// An array of negative length is refused before the heap is touched.
+// expect: >>> 1
+// expect: *** Program has failed due to a heap allocation of invalid size.
+class NewarrNegativeLength {
+   public static void main(String[] args) {
+      int n = 1;
+      System.out.println(n);
+      int[] a = new int[n - 3];
+      a[0] = 5;
+      System.out.println(a[0]);
+   }
+}
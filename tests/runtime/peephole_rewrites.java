@@ -0,0 +1,99 @@
+// Control flow the peephole optimizer rewrites: the ifs nested in the while end in jumps to
+// the jump back to the loop test (jump chains), the inlined call of positive() leaves a
+// branch on a literal (constant branch), x = x stores what it just loaded (self assignment),
+// and the jumps over the dead branches leave code that cannot be reached (unreachable).
+// The output must be the same as that of the unoptimized code, on every engine.
+// engines: switch threaded jit
+// expect: >>> 9
+// expect: >>> 8
+// expect: >>> 4
+// expect: >>> 7
+// expect: >>> 6
+// expect: *** Program has halted normally.
+class PeepholeRewrites {
+   public static void main(String[] args) {
+      Flow f = new Flow();
+      System.out.println(f.nested(10));
+      System.out.println(f.untilLimit(8));
+      System.out.println(f.same(4));
+      System.out.println(f.sign(7));
+      System.out.println(f.dead(6));
+   }
+}
+
+class Flow {
+   boolean never;
+
+   public int nested(int n) {
+      int i = 0;
+      int sum = 0;
+      boolean even = true;
+      while (i < n) {
+         if (even) {
+            if (i < 4) {
+               sum = sum + i;
+            }
+            else {
+               sum = sum + 1;
+            }
+         }
+         else {
+            while (sum < i) {
+               sum = sum + 2;
+            }
+         }
+         even = !even;
+         i = i + 1;
+      }
+      return sum;
+   }
+
+   public int untilLimit(int limit) {
+      int i = 0;
+      while (true && i < limit) {
+         i = i + 1;
+      }
+      while (false) {
+         i = 0;
+      }
+      return i;
+   }
+
+   public int same(int x) {
+      x = x;
+      int y = x;
+      y = y;
+      return y;
+   }
+
+   public int sign(int x) {
+      int r = 0;
+      if (x < 0) {
+         r = 0 - x;
+      }
+      else {
+         if (positive()) {
+            r = x;
+         }
+         else {
+            r = 0;
+         }
+      }
+      return r;
+   }
+
+   public boolean positive() {
+      return true;
+   }
+
+   public int dead(int x) {
+      int r = x;
+      if (false) {
+         r = r * 100;
+      }
+      if (never) {
+         r = r + 1;
+      }
+      return r;
+   }
+}
@@ -0,0 +1,55 @@
+// && and || skip their right operand once the left one decides the result: 10 / k is not
+// evaluated when k is 0, and in a value context the call on the right, which bumps a
+// counter, is not made.
+// engines: switch threaded jit
+// expect: >>> 2
+// expect: >>> 1
+// expect: >>> 1
+// expect: >>> 101
+// expect: >>> 101
+// expect: *** Program has halted normally.
+class ShortCircuit {
+   public static void main(String[] args) {
+      Probe p = new Probe();
+      System.out.println(p.divide(0));
+      System.out.println(p.divide(2));
+      boolean b = p.yes() || p.no();
+      if (b) {
+         System.out.println(p.calls);
+      }
+      boolean c = p.no() && p.yes();
+      if (!c) {
+         System.out.println(p.calls);
+      }
+      int i = 0;
+      while (i < 3 && (p.calls != 0 || p.no())) {
+         i = i + 1;
+      }
+      System.out.println(p.calls);
+   }
+}
+
+class Probe {
+   int calls;
+
+   public int divide(int k) {
+      int r = 0;
+      if (k != 0 && 10 / k > 1) {
+         r = 1;
+      }
+      else {
+         r = 2;
+      }
+      return r;
+   }
+
+   public boolean yes() {
+      calls = calls + 1;
+      return true;
+   }
+
+   public boolean no() {
+      calls = calls + 100;
+      return false;
+   }
+}
@@ -0,0 +1,43 @@
+// Tail calls of another object or another method are real calls: walk alternates between
+// two links, each counting its own visits, and mutual recursion a million calls deep
+// exhausts the stack.
+// expect: >>> 5
+// expect: >>> 5
+// expect: *** Program has failed due to exhaustion of Data Store.
+class TailCallsNotSelf {
+   public static void main(String[] args) {
+      Link a = new Link();
+      Link b = new Link();
+      a.next = b;
+      b.next = a;
+      if (a.walk(9)) {
+         System.out.println(a.visits);
+         System.out.println(b.visits);
+      }
+      Parity p = new Parity();
+      if (p.even(1000000)) {
+         System.out.println(1);
+      }
+   }
+}
+
+class Link {
+   Link next;
+   int visits;
+
+   public boolean walk(int k) {
+      Link n = next;
+      visits = visits + 1;
+      return k == 0 || n.walk(k - 1);
+   }
+}
+
+class Parity {
+   public boolean even(int k) {
+      return k == 0 || odd(k - 1);
+   }
+
+   public boolean odd(int k) {
+      return k != 0 && even(k - 1);
+   }
+}
@@ -0,0 +1,21 @@
+// A self-recursive countdown a million calls deep, far past the stack limit unless each
+// tail call reuses the frame of its caller.
+// expect: >>> 1000001
+// expect: *** Program has halted normally.
+class TailRecursionDeep {
+   public static void main(String[] args) {
+      Countdown c = new Countdown();
+      if (c.down(1000000)) {
+         System.out.println(c.steps);
+      }
+   }
+}
+
+class Countdown {
+   int steps;
+
+   public boolean down(int k) {
+      steps = steps + 1;
+      return k == 0 || down(k - 1);
+   }
+}